@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.benchmarks;
+
+import de.webis.chatnoir2.mapfile_generator.app.SyntheticWarcGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Deterministic WARC input data for benchmarks, generated by a seeded {@link SyntheticWarcGenerator}.
+ *
+ * @author Janek Bevendorff
+ */
+final class BenchmarkData
+{
+    static final long SEED = 42;
+    static final int NUM_CAPTURES = 100;
+
+    /**
+     * Records per generated file: one warcinfo record plus a request and a response per capture.
+     */
+    static final int NUM_RECORDS = 1 + 2 * NUM_CAPTURES;
+
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * Generate WARC/1.0 file with a warcinfo record followed by request and response records.
+     *
+     * @param gzipRecords whether to gzip each record individually (like Common Crawl)
+     * @return WARC file contents
+     */
+    static byte[] generateWarc(final boolean gzipRecords) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        createGenerator(gzipRecords).generate(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Generate single HTTP response record content (HTTP headers and body).
+     */
+    static byte[] generateHttpResponse(final Random rnd, final boolean withCharset)
+    {
+        return createGenerator(false).generateHttpResponse(rnd, withCharset);
+    }
+
+    private static SyntheticWarcGenerator createGenerator(final boolean gzipRecords)
+    {
+        final SyntheticWarcGenerator generator = new SyntheticWarcGenerator();
+        generator.setSeed(SEED);
+        generator.setNumRecords(NUM_CAPTURES);
+        generator.setSizeDistribution(8192, 0.5);
+        generator.setBinaryFraction(0.0);
+        generator.setRequestFraction(1.0);
+        generator.setMetadataFraction(0.0);
+        generator.setGzip(gzipRecords);
+        return generator;
+    }
+}
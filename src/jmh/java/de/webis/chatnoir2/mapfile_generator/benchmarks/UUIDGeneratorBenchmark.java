@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.benchmarks;
+
+import de.webis.WebisUUID;
+import de.webis.chatnoir2.mapfile_generator.util.CachedUUIDGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for record UUID generation with {@link WebisUUID} and {@link CachedUUIDGenerator}.
+ * The setup verifies that both produce identical UUIDs for a large sample of record IDs.
+ *
+ * @author Janek Bevendorff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class UUIDGeneratorBenchmark
+{
+    private static final String PREFIX = "benchmark";
+    private static final int NUM_IDS = 1000;
+    private static final int NUM_VERIFICATION_IDS = 200000;
+
+    private final String[] mIds = new String[NUM_IDS];
+    private final byte[] mKeyBuffer = new byte[4 + CachedUUIDGenerator.UUID_STRING_LENGTH];
+    private WebisUUID mWebisUUID;
+    private CachedUUIDGenerator mCachedGenerator;
+    private int mPos = 0;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        mWebisUUID = new WebisUUID(PREFIX);
+        mCachedGenerator = new CachedUUIDGenerator(PREFIX);
+        if (!mCachedGenerator.isCached()) {
+            throw new IllegalStateException("CachedUUIDGenerator fell back to WebisUUID");
+        }
+
+        final Random rnd = new Random(BenchmarkData.SEED);
+        for (int i = 0; i < NUM_VERIFICATION_IDS; ++i) {
+            final String id = generateId(rnd, i);
+            if (i < NUM_IDS) {
+                mIds[i] = id;
+            }
+
+            final UUID expected = mWebisUUID.generateUUID(id);
+            mCachedGenerator.writeUUIDString(id, mKeyBuffer, 4);
+            if (!expected.equals(mCachedGenerator.generateUUID(id)) ||
+                    !expected.toString().equals(new String(mKeyBuffer, 4, CachedUUIDGenerator.UUID_STRING_LENGTH,
+                            StandardCharsets.US_ASCII))) {
+                throw new IllegalStateException("UUID mismatch for record ID '" + id + "'");
+            }
+        }
+    }
+
+    /**
+     * Generate record IDs in the styles of the supported corpora, some with non-ASCII characters.
+     */
+    private static String generateId(final Random rnd, final int i)
+    {
+        switch (i % 4) {
+            case 0:
+                return "<urn:uuid:" + new UUID(rnd.nextLong(), rnd.nextLong()) + ">";
+            case 1:
+                return String.format("clueweb12-%04dwb-%02d-%05d", rnd.nextInt(2000), rnd.nextInt(100), rnd.nextInt(100000));
+            case 2:
+                return String.format("clueweb09-en%04d-%02d-%05d", rnd.nextInt(2000), rnd.nextInt(100), rnd.nextInt(100000));
+            default:
+                return "record-ä€-" + rnd.nextInt();
+        }
+    }
+
+    private String nextId()
+    {
+        mPos = (mPos + 1) % NUM_IDS;
+        return mIds[mPos];
+    }
+
+    @Benchmark
+    public String webisUUID()
+    {
+        return mWebisUUID.generateUUID(nextId()).toString();
+    }
+
+    @Benchmark
+    public String cachedUUID()
+    {
+        return mCachedGenerator.generateUUID(nextId()).toString();
+    }
+
+    @Benchmark
+    public byte[] cachedUUIDString()
+    {
+        mCachedGenerator.writeUUIDString(nextId(), mKeyBuffer, 4);
+        return mKeyBuffer;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.benchmarks;
+
+import de.webis.chatnoir2.mapfile_generator.mapreduce.WarcMapper;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.WarcUUIDPartitioner;
+import de.webis.chatnoir2.mapfile_generator.warc.WarcHeader;
+import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the full {@link WarcMapper} serialization path and {@link WarcUUIDPartitioner}.
+ *
+ * @author Janek Bevendorff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class WarcMapperBenchmark
+{
+    private static final int NUM_PARTITIONS = 400;
+    private static final int NUM_KEYS = 1000;
+
+    private final List<WarcRecord> mRecords = new ArrayList<>();
+    private final LongWritable mKey = new LongWritable();
+    private final Text[] mPartitionKeys = new Text[NUM_KEYS];
+    private final WarcUUIDPartitioner mPartitioner = new WarcUUIDPartitioner();
+    private BenchmarkMapper mMapper;
+    private Mapper<LongWritable, WarcRecord, Text, Text>.Context mContext;
+    private long mBytesWritten = 0;
+
+    /**
+     * Mapper subclass for calling the protected setup method.
+     */
+    private static class BenchmarkMapper extends WarcMapper
+    {
+        void doSetup(final Context context) throws IOException, InterruptedException
+        {
+            setup(context);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException
+    {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(BenchmarkData.generateWarc(false)));
+        WarcRecord record;
+        while (null != (record = WarcRecord.readNextWarcRecord(in, WarcHeader.WarcVersion.WARC10))) {
+            mRecords.add(record);
+        }
+
+        for (int i = 0; i < NUM_KEYS; ++i) {
+            final String uuid = UUID.nameUUIDFromBytes(("benchmark:" + i).getBytes()).toString();
+            mPartitionKeys[i] = new Text((i % 2 == 0 ? "data" : "uri") + uuid);
+        }
+
+        final Configuration conf = new Configuration(false);
+        conf.set("mapfile.uuid.prefix", "benchmark");
+
+        final RecordWriter<Text, Text> writer = new RecordWriter<Text, Text>()
+        {
+            @Override
+            public void write(final Text key, final Text value)
+            {
+                mBytesWritten += key.getLength() + value.getLength();
+            }
+
+            @Override
+            public void close(final TaskAttemptContext context)
+            {
+            }
+        };
+
+        final MapContextImpl<LongWritable, WarcRecord, Text, Text> mapContext = new MapContextImpl<>(
+                conf, new TaskAttemptID("benchmark", 1, TaskType.MAP, 0, 0), null, writer, null,
+                new CountingReporter(), new FileSplit(new Path("benchmark.warc"), 0, 0, null));
+        mContext = new WrappedMapper<LongWritable, WarcRecord, Text, Text>().getMapContext(mapContext);
+        mMapper  = new BenchmarkMapper();
+        mMapper.doSetup(mContext);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.NUM_RECORDS)
+    public long map() throws IOException, InterruptedException
+    {
+        for (final WarcRecord record : mRecords) {
+            mMapper.map(mKey, record, mContext);
+        }
+        return mBytesWritten;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_KEYS)
+    public int getPartition()
+    {
+        int sum = 0;
+        for (final Text key : mPartitionKeys) {
+            sum += mPartitioner.getPartition(key, null, NUM_PARTITIONS);
+        }
+        return sum;
+    }
+
+    /**
+     * Status reporter with working counters.
+     */
+    private static class CountingReporter extends StatusReporter
+    {
+        private final Counters mCounters = new Counters();
+
+        @Override
+        public Counter getCounter(final Enum<?> name)
+        {
+            return mCounters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(final String group, final String name)
+        {
+            return mCounters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress()
+        {
+        }
+
+        @Override
+        public float getProgress()
+        {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(final String status)
+        {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.benchmarks;
+
+import de.webis.chatnoir2.mapfile_generator.warc.WarcHeader;
+import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Benchmarks for WARC record parsing.
+ * The content header and encoding benchmarks include the cost of {@link WarcRecord#setContent(byte[])},
+ * which is measured separately by {@link #setContent()}.
+ *
+ * @author Janek Bevendorff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class WarcRecordBenchmark
+{
+    private byte[] mPlainWarc;
+    private byte[] mGzipWarc;
+    private WarcRecord mRecord;
+    private byte[] mContentWithCharset;
+    private byte[] mContentWithoutCharset;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        mPlainWarc = BenchmarkData.generateWarc(false);
+        mGzipWarc  = BenchmarkData.generateWarc(true);
+
+        // first response record of the generated file (after warcinfo and request)
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(mPlainWarc));
+        WarcRecord.readNextWarcRecord(in, WarcHeader.WarcVersion.WARC10);
+        WarcRecord.readNextWarcRecord(in, WarcHeader.WarcVersion.WARC10);
+        mRecord = WarcRecord.readNextWarcRecord(in, WarcHeader.WarcVersion.WARC10);
+
+        final Random rnd = new Random(BenchmarkData.SEED);
+        mContentWithCharset    = BenchmarkData.generateHttpResponse(rnd, true);
+        mContentWithoutCharset = BenchmarkData.generateHttpResponse(rnd, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.NUM_RECORDS)
+    public void readNextWarcRecordPlain(final Blackhole bh) throws IOException
+    {
+        readAll(new DataInputStream(new ByteArrayInputStream(mPlainWarc)), bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.NUM_RECORDS)
+    public void readNextWarcRecordGzip(final Blackhole bh) throws IOException
+    {
+        readAll(new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(mGzipWarc))), bh);
+    }
+
+    private static void readAll(final DataInputStream in, final Blackhole bh) throws IOException
+    {
+        WarcRecord record;
+        while (null != (record = WarcRecord.readNextWarcRecord(in, WarcHeader.WarcVersion.WARC10))) {
+            bh.consume(record);
+        }
+    }
+
+    @Benchmark
+    public byte[] setContent()
+    {
+        mRecord.setContent(mContentWithCharset);
+        return mRecord.getByteContent();
+    }
+
+    @Benchmark
+    public Map<String, String> getContentHeaders()
+    {
+        // setContent() invalidates the header cache
+        mRecord.setContent(mContentWithCharset);
+        return mRecord.getContentHeaders();
+    }
+
+    @Benchmark
+    public String getContentHeader()
+    {
+        // setContent() invalidates the header cache
+        mRecord.setContent(mContentWithCharset);
+        return mRecord.getContentHeader("Content-Type");
+    }
+
+    @Benchmark
+    public String getContentEncodingFromHeader()
+    {
+        mRecord.setContent(mContentWithCharset);
+        return mRecord.getContentEncoding();
+    }
+
+    @Benchmark
+    public String getContentEncodingDetected()
+    {
+        mRecord.setContent(mContentWithoutCharset);
+        return mRecord.getContentEncoding();
+    }
+}
@@ -20,6 +20,7 @@ import de.webis.chatnoir2.mapfile_generator.inputformats.DirnamePassthroughInput
 import de.webis.chatnoir2.mapfile_generator.mapreduce.FileNameMapper;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.MapFileReducer;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.PassthroughPartitioner;
+import de.webis.chatnoir2.mapfile_generator.util.PartitionManifest;
 import org.apache.commons.cli.*;
 import org.apache.commons.cli.Options;
 import org.apache.hadoop.conf.Configuration;
@@ -33,7 +34,10 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.*;
 import org.apache.hadoop.util.ToolRunner;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Merger for map file generator batches.
@@ -43,6 +47,9 @@ public class MapFileBatchMerger extends MapFileTool
 {
     private static final String[] INPUT_OPTION  = {"input",  "i"};
     private static final String[] OUTPUT_OPTION = {"output", "o"};
+    private static final String[] BLOOM_OPTION  = {"bloom",  "b"};
+
+    private static final Pattern PARTITION_NAME_PATTERN = Pattern.compile("^\\w+-r-(\\d+)$");
 
     @Override
     @SuppressWarnings({"static-access", "Duplicates"})
@@ -63,6 +70,12 @@ public class MapFileBatchMerger extends MapFileTool
                 withDescription("Output MapFile").
                 isRequired().
                 create(OUTPUT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("RATE").
+                hasOptionalArg().
+                withLongOpt(BLOOM_OPTION[0]).
+                withDescription("Write Bloom filters for MapFile keys with the given false positive rate (default: 0.005)").
+                create(BLOOM_OPTION[1]));
 
         final CommandLine cmdline = parseCmdline(options, args);
         if (null == cmdline) {
@@ -71,12 +84,18 @@ public class MapFileBatchMerger extends MapFileTool
 
         final String inputPathStr   = cmdline.getOptionValue(INPUT_OPTION[0]);
         final String outputPathStr  = cmdline.getOptionValue(OUTPUT_OPTION[0]);
+        final boolean writeBloom    = cmdline.hasOption(BLOOM_OPTION[0]);
 
         LOG.info("Tool name: " + MapFileBatchMerger.class.getSimpleName());
         LOG.info(" - input:  " + inputPathStr);
         LOG.info(" - output: " + outputPathStr);
+        LOG.info(" - bloom:  " + writeBloom);
 
         final Configuration conf = getConf();
+        conf.setBoolean("mapfile.bloom.enable", writeBloom);
+        if (writeBloom && null != cmdline.getOptionValue(BLOOM_OPTION[0])) {
+            conf.setFloat("io.mapfile.bloom.error.rate", Float.parseFloat(cmdline.getOptionValue(BLOOM_OPTION[0])));
+        }
 
         // disable speculative reduce execution to prevent two processes from writing to the same map file
         conf.setBoolean("mapreduce.reduce.speculative", false);
@@ -110,11 +129,47 @@ public class MapFileBatchMerger extends MapFileTool
         FileOutputFormat.setOutputCompressorClass(job, BZip2Codec.class);
         SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
 
-        job.waitForCompletion(true);
+        if (!job.waitForCompletion(true)) {
+            return ERROR;
+        }
+        writePartitionManifest(inputPath, outputPath, conf);
 
         return SUCCESS;
     }
 
+    /**
+     * Write partition manifest for the merged output. The number of partitions is taken from the
+     * manifest of the first input batch or, if there is none, from the merged partition names.
+     *
+     * @param inputPath input path pattern
+     * @param outputPath merged output directory
+     * @param conf Hadoop configuration
+     */
+    private void writePartitionManifest(final Path inputPath, final Path outputPath, final Configuration conf)
+            throws IOException
+    {
+        final FileSystem fs = outputPath.getFileSystem(conf);
+        final FileStatus[] inputs = fs.globStatus(inputPath);
+        PartitionManifest manifest = null;
+        if (null != inputs && inputs.length > 0) {
+            for (Path p = inputs[0].getPath(); null != p && null == manifest; p = p.getParent()) {
+                manifest = PartitionManifest.read(p, conf);
+            }
+        }
+
+        if (null == manifest) {
+            int numPartitions = 0;
+            for (final FileStatus status : fs.listStatus(outputPath)) {
+                final Matcher m = PARTITION_NAME_PATTERN.matcher(status.getPath().getName());
+                if (m.matches()) {
+                    numPartitions = Math.max(numPartitions, Integer.parseInt(m.group(1)) + 1);
+                }
+            }
+            manifest = new PartitionManifest(numPartitions);
+        }
+        manifest.write(outputPath, conf);
+    }
+
     /**
      * Dispatches command-line arguments to the tool via the <code>ToolRunner</code>.
      */
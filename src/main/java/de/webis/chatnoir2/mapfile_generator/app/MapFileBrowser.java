@@ -18,16 +18,23 @@ package de.webis.chatnoir2.mapfile_generator.app;
 
 import de.webis.WebisUUID;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.MapReduceBase;
+import de.webis.chatnoir2.mapfile_generator.util.BlockCache;
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
+import de.webis.chatnoir2.mapfile_generator.util.OverlayMapFileReader;
+import de.webis.chatnoir2.mapfile_generator.util.PartitionManifest;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDListWritable;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.json.JSONObject;
+
+import java.io.IOException;
 
 import java.util.UUID;
 
@@ -46,6 +53,9 @@ public class MapFileBrowser extends MapFileTool
     private static final String[] RECORD_ONLY_OPTION = {"record-only", "r"};
     private static final String[] VERBOSE_OPTION     = {"verbose",     "v"};
     private static final String[] URI_OPTION         = {"uri",         "l"};
+    private static final String[] META_OPTION        = {"meta",        "e"};
+    private static final String[] HOST_OPTION        = {"host",        "s"};
+    private static final String[] MMAP_OPTION        = {"mmap",        "m"};
 
     @Override
     @SuppressWarnings({"static-access", "Duplicates"})
@@ -63,8 +73,7 @@ public class MapFileBrowser extends MapFileTool
                 withArgName("NUM").
                 hasArg().
                 withLongOpt(PARITIONS_OPTION[0]).
-                withDescription("Number of partitions").
-                isRequired().
+                withDescription("Number of partitions (default: read from partition manifest)").
                 create(PARITIONS_OPTION[1]));
         options.addOption(OptionBuilder.
                 withArgName("PREFIX").
@@ -88,6 +97,20 @@ public class MapFileBrowser extends MapFileTool
                 withLongOpt(URI_OPTION[0]).
                 withDescription("Retrieve from URI MapFile instead of the data MapFile").
                 create(URI_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(META_OPTION[0]).
+                withDescription("Retrieve from meta MapFile instead of the data MapFile").
+                create(META_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("HOST").
+                hasArg().
+                withLongOpt(HOST_OPTION[0]).
+                withDescription("List UUIDs of all records of a host and its subdomains from the host index").
+                create(HOST_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(MMAP_OPTION[0]).
+                withDescription("Memory-map local MapFiles which are not block-compressed").
+                create(MMAP_OPTION[1]));
         options.addOption(OptionBuilder.
                 withLongOpt(RECORD_ONLY_OPTION[0]).
                 withDescription("Print only record, not UUID").
@@ -103,6 +126,10 @@ public class MapFileBrowser extends MapFileTool
             return ERROR;
         }
 
+        if (cmdline.hasOption(HOST_OPTION[0])) {
+            return scanHosts(cmdline);
+        }
+
         if (!cmdline.hasOption(UUID_OPTION[0]) && !cmdline.hasOption(URI_OPTION[0]) &&
                 !cmdline.hasOption(PREFIX_OPTION[0]) && !cmdline.hasOption(NAME_OPTION[0])) {
             System.err.println("You need to specify either -uuid or -prefix and -id.");
@@ -112,6 +139,10 @@ public class MapFileBrowser extends MapFileTool
             System.err.println("You need to specify -name when -uri is set.");
             return ERROR;
         }
+        if (cmdline.hasOption(URI_OPTION[0]) && cmdline.hasOption(META_OPTION[0])) {
+            System.err.println("-uri and -meta cannot be combined.");
+            return ERROR;
+        }
         if (cmdline.hasOption(URI_OPTION[0]) && cmdline.hasOption(PREFIX_OPTION[0])) {
             System.err.println("WARNING: -uri given, ignoring -prefix.");
         }
@@ -120,14 +151,24 @@ public class MapFileBrowser extends MapFileTool
             System.err.println("WARNING: -uuid given, ignoring -prefix and -id.");
         }
 
-        String inputPathStr           = cmdline.getOptionValue(INPUT_OPTION[0]);
-        final int numPartitions       = Integer.parseInt(cmdline.getOptionValue(PARITIONS_OPTION[0]));
+        final String basePathStr      = cmdline.getOptionValue(INPUT_OPTION[0]);
         final String uuidPrefix       = cmdline.getOptionValue(PREFIX_OPTION[0]);
         final String uuidName         = cmdline.getOptionValue(NAME_OPTION[0]);
         final String uuidStr          = cmdline.hasOption(UUID_OPTION[0]) ? cmdline.getOptionValue(UUID_OPTION[0]) : "";
         final boolean printOnlyRecord = cmdline.hasOption(RECORD_ONLY_OPTION[0]);
         final boolean verbose         = cmdline.hasOption(VERBOSE_OPTION[0]);
 
+        final Configuration conf = getConf();
+        if (cmdline.hasOption(MMAP_OPTION[0])) {
+            conf.setBoolean(OverlayMapFileReader.MMAP_KEY, true);
+        }
+        final int numPartitions = cmdline.hasOption(PARITIONS_OPTION[0]) ?
+                Integer.parseInt(cmdline.getOptionValue(PARITIONS_OPTION[0])) : 0;
+        if (0 == numPartitions && null == PartitionManifest.read(new Path(basePathStr), conf)) {
+            System.err.printf("No partition manifest found in '%s', please specify -partitions.%n", basePathStr);
+            return ERROR;
+        }
+
         final String recordId;
         if (cmdline.hasOption(URI_OPTION[0])) {
             recordId = uuidName;
@@ -136,43 +177,163 @@ public class MapFileBrowser extends MapFileTool
         } else {
             recordId = WebisUUID.generateUUID(uuidPrefix, uuidName).toString();
         }
-        final int partition = getPartition(recordId, numPartitions);
-        String mapfile = cmdline.hasOption(URI_OPTION[0]) ? MapReduceBase.URI_OUTPUT_NAME : MapReduceBase.DATA_OUTPUT_NAME;
-        inputPathStr = String.format("%s/%s-r-%05d", inputPathStr, mapfile, partition);
+        String mapfile = MapReduceBase.DATA_OUTPUT_NAME;
+        if (cmdline.hasOption(URI_OPTION[0])) {
+            mapfile = MapReduceBase.URI_OUTPUT_NAME;
+        } else if (cmdline.hasOption(META_OPTION[0])) {
+            mapfile = MapReduceBase.META_OUTPUT_NAME;
+        }
+
+        // look up key in deltas (newest first) and base, consulting Bloom filters before touching data files
+        try (OverlayMapFileReader reader = new OverlayMapFileReader(new Path(basePathStr), numPartitions, conf)) {
+            final int partition = reader.getPartition(recordId);
+            Text entry = reader.get(mapfile, recordId, new Text());
+            if (verbose) {
+                System.err.printf("BLOOM=%d of %d MapFiles ruled out, %d false positives%n",
+                        reader.getLastBloomNegatives(), reader.getLastProbedLayers(),
+                        reader.getLastBloomFalsePositives());
+            }
+            if (null == entry) {
+                System.err.printf("No record found for UUID '%s' (prefix=%s, name=%s, part=%d)%n",
+                        recordId, uuidPrefix, uuidName, partition);
+                if (verbose) {
+                    printStatistics(reader);
+                }
+                return ERROR;
+            }
+            final Path matchPath = reader.getLastMatch();
+
+            if (mapfile.equals(MapReduceBase.DATA_OUTPUT_NAME)) {
+                entry = resolveContentReference(entry, reader);
+                if (null == entry) {
+                    if (verbose) {
+                        printStatistics(reader);
+                    }
+                    return ERROR;
+                }
+            }
+
+            if (printOnlyRecord) {
+                System.out.println(entry.toString());
+            } else if (verbose) {
+                System.out.printf("UUID=%s%nPART=%05d%nMAPFILE=%s%n%n--- RECORD BEGIN ---%n%s%n--- RECORD END ---%n",
+                        recordId, partition, matchPath, entry.toString());
+            } else {
+                System.out.printf("%s%n%s%n", recordId, entry.toString());
+            }
+            if (verbose) {
+                printStatistics(reader);
+            }
+        }
+
+        return SUCCESS;
+    }
 
-        final Configuration conf    = getConf();
-        final Path inputPath        = new Path(inputPathStr);
-        final MapFile.Reader reader = new MapFile.Reader(inputPath, conf);
+    /**
+     * Print lookup statistics of all lookups done by the given reader.
+     *
+     * @param reader MapFile reader
+     */
+    private void printStatistics(final OverlayMapFileReader reader)
+    {
+        System.err.printf("LOOKUPS=%d (%d MapFiles probed)%nBLOOM_NEGATIVES=%d%nBLOOM_FALSE_POSITIVES=%d%n",
+                reader.getLookupCount(), reader.getProbeCount(), reader.getBloomNegativeCount(),
+                reader.getBloomFalsePositiveCount());
+        final BlockCache cache = reader.getBlockCache();
+        System.err.printf("BLOCK_CACHE_HITS=%d%nBLOCK_CACHE_MISSES=%d%nBLOCK_CACHE_EVICTIONS=%d%n",
+                cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount());
+    }
+
+    /**
+     * Print UUIDs of all records of the given host (and its subdomains if host names are reversed)
+     * by scanning the host index MapFiles of all partitions.
+     *
+     * @param cmdline parsed command line
+     * @return exit code
+     */
+    private int scanHosts(final CommandLine cmdline) throws IOException
+    {
+        final Path basePath = new Path(cmdline.getOptionValue(INPUT_OPTION[0]));
+        final boolean printOnlyRecord = cmdline.hasOption(RECORD_ONLY_OPTION[0]);
+        final boolean verbose         = cmdline.hasOption(VERBOSE_OPTION[0]);
 
-        final Text entry = (Text) reader.get(new Text(recordId), new Text());
-        if (null == entry) {
-            System.err.printf("No record found for UUID '%s' (prefix=%s, name=%s, part=%d)%n",
-                    recordId, uuidPrefix, uuidName, partition);
+        final Configuration conf = getConf();
+        final PartitionManifest manifest = PartitionManifest.read(basePath, conf);
+        final int numPartitions = cmdline.hasOption(PARITIONS_OPTION[0]) ?
+                Integer.parseInt(cmdline.getOptionValue(PARITIONS_OPTION[0])) : 0;
+        if (0 == numPartitions && null == manifest) {
+            System.err.printf("No partition manifest found in '%s', please specify -partitions.%n", basePath);
             return ERROR;
         }
 
-        if (printOnlyRecord) {
-            System.out.println(entry.toString());
-        } else if (verbose) {
-            System.out.printf("UUID=%s%nPART=%05d%nMAPFILE=%s%n%n--- RECORD BEGIN ---%n%s%n--- RECORD END ---%n",
-                    recordId, partition, inputPathStr, entry.toString());
-        } else {
-            System.out.printf("%s%n%s%n", recordId, entry.toString());
+        // host names are reversed unless the manifest says otherwise
+        final boolean reversed = null == manifest || null == manifest.getProperty(HostIndex.REVERSED_PROPERTY) ||
+                Boolean.parseBoolean(manifest.getProperty(HostIndex.REVERSED_PROPERTY));
+        final String host = HostIndex.normalizeHost(cmdline.getOptionValue(HOST_OPTION[0]), reversed);
+        if (null == host) {
+            System.err.println("Invalid host name.");
+            return ERROR;
+        }
+
+        final long[] counts = new long[2];
+        try (OverlayMapFileReader reader = new OverlayMapFileReader(basePath, numPartitions, conf)) {
+            reader.scanPrefix(MapReduceBase.HOST_OUTPUT_NAME, host, (mapFile, key, value) -> {
+                final String keyStr = key.toString();
+                if (!HostIndex.matches(keyStr, host, reversed)) {
+                    return true;
+                }
+                final UUIDListWritable uuids = (UUIDListWritable) value;
+                if (verbose) {
+                    System.out.printf("HOST=%s%nMAPFILE=%s%nUUIDS=%d%n", keyStr, mapFile, uuids.size());
+                }
+                for (int i = 0; i < uuids.size(); ++i) {
+                    if (printOnlyRecord) {
+                        System.out.println(uuids.get(i));
+                    } else {
+                        System.out.printf("%s\t%s%n", keyStr, uuids.get(i));
+                    }
+                }
+                ++counts[0];
+                counts[1] += uuids.size();
+                return true;
+            });
         }
 
+        if (0 == counts[0]) {
+            System.err.printf("No records found for host '%s'%n", host);
+            return ERROR;
+        }
+        if (verbose) {
+            System.err.printf("%d UUIDs in %d host index entries%n", counts[1], counts[0]);
+        }
         return SUCCESS;
     }
 
     /**
-     * Get MapFile partition number.
+     * Replace body reference of a deduplicated record with the actual body from the content MapFile.
      *
-     * @param uuid UUID key
-     * @param numPartitions total number of partitions
-     * @return calculated partition number
+     * @param entry data MapFile entry
+     * @param reader MapFile reader
+     * @return resolved entry (unchanged if it has no reference), null if the referenced content is missing
      */
-    private int getPartition(final String uuid, final int numPartitions)
+    private Text resolveContentReference(final Text entry, final OverlayMapFileReader reader) throws IOException
     {
-        return (uuid.hashCode() % numPartitions + numPartitions) % numPartitions;
+        final JSONObject doc = new JSONObject(entry.toString());
+        final JSONObject payload = doc.optJSONObject(MapReduceBase.JSON_PAYLOAD_KEY);
+        if (null == payload || !payload.has(MapReduceBase.JSON_BODY_REF_KEY)) {
+            return entry;
+        }
+
+        final String contentKey = payload.getString(MapReduceBase.JSON_BODY_REF_KEY);
+        final Text body = reader.get(MapReduceBase.CONTENT_OUTPUT_NAME, contentKey, new Text());
+        if (null == body) {
+            System.err.printf("Referenced content '%s' not found (part=%d)%n", contentKey, reader.getPartition(contentKey));
+            return null;
+        }
+
+        payload.remove(MapReduceBase.JSON_BODY_REF_KEY);
+        payload.put(MapReduceBase.JSON_BODY_KEY, body.toString());
+        return new Text(doc.toString());
     }
 
     public static void main(final String[] args) throws Exception
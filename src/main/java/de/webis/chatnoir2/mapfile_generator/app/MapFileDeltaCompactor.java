@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.app;
+
+import de.webis.chatnoir2.mapfile_generator.inputformats.DirnamePassthroughInputFormat;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.FileNameMapper;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.MapFileReducer;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.PassthroughPartitioner;
+import de.webis.chatnoir2.mapfile_generator.util.DeltaMapFiles;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Folds incremental delta MapFiles into their base MapFiles. Newer entries replace older ones.
+ * Compaction only runs if the number of deltas or their total size relative to the base
+ * exceeds the given thresholds.
+ *
+ * Compacted partitions replace the base partitions one by one after the merge job has
+ * finished, so lookups should be paused while the compaction is being finalized.
+ *
+ * @author Janek Bevendorff
+ */
+public class MapFileDeltaCompactor extends MapFileTool
+{
+    private static final String[] INPUT_OPTION      = {"input",      "i"};
+    private static final String[] MAX_DELTAS_OPTION = {"max-deltas", "d"};
+    private static final String[] MAX_RATIO_OPTION  = {"max-ratio",  "r"};
+    private static final String[] FORCE_OPTION      = {"force",      "f"};
+    private static final String[] BLOOM_OPTION      = {"bloom",      "b"};
+
+    private static final String COMPACTION_DIR = "_compaction";
+
+    @Override
+    @SuppressWarnings({"static-access", "Duplicates"})
+    public int run(final String[] args) throws Exception
+    {
+        final Options options = new Options();
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(INPUT_OPTION[0]).
+                withDescription("Base MapFile directory").
+                isRequired().
+                create(INPUT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(MAX_DELTAS_OPTION[0]).
+                withDescription("Compact if there are more deltas than this (default: 8)").
+                create(MAX_DELTAS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("RATIO").
+                hasArg().
+                withLongOpt(MAX_RATIO_OPTION[0]).
+                withDescription("Compact if the deltas are larger than this fraction of the base (default: 0.25)").
+                create(MAX_RATIO_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(FORCE_OPTION[0]).
+                withDescription("Compact regardless of thresholds").
+                create(FORCE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("RATE").
+                hasOptionalArg().
+                withLongOpt(BLOOM_OPTION[0]).
+                withDescription("Write Bloom filters for MapFile keys with the given false positive rate (default: 0.005)").
+                create(BLOOM_OPTION[1]));
+
+        final CommandLine cmdline = parseCmdline(options, args);
+        if (null == cmdline) {
+            return ERROR;
+        }
+
+        final Path basePath     = new Path(cmdline.getOptionValue(INPUT_OPTION[0]));
+        final int maxDeltas     = Integer.parseInt(cmdline.getOptionValue(MAX_DELTAS_OPTION[0], "8"));
+        final double maxRatio   = Double.parseDouble(cmdline.getOptionValue(MAX_RATIO_OPTION[0], "0.25"));
+        final boolean force     = cmdline.hasOption(FORCE_OPTION[0]);
+        final boolean writeBloom = cmdline.hasOption(BLOOM_OPTION[0]);
+
+        LOG.info("Tool name: " + MapFileDeltaCompactor.class.getSimpleName());
+        LOG.info(" - input:  " + basePath);
+        LOG.info(" - max deltas: " + maxDeltas);
+        LOG.info(" - max ratio:  " + maxRatio);
+        LOG.info(" - bloom:  " + writeBloom);
+
+        final Configuration conf = getConf();
+        final FileSystem fs = basePath.getFileSystem(conf);
+        final List<Path> deltas = DeltaMapFiles.listDeltas(basePath, conf);
+        if (deltas.isEmpty()) {
+            LOG.info("No deltas to compact.");
+            return SUCCESS;
+        }
+
+        long deltaBytes = 0;
+        for (final Path delta : deltas) {
+            deltaBytes += fs.getContentSummary(delta).getLength();
+        }
+        long baseBytes = 0;
+        for (final FileStatus status : fs.listStatus(basePath)) {
+            if (!status.getPath().getName().startsWith("_")) {
+                baseBytes += fs.getContentSummary(status.getPath()).getLength();
+            }
+        }
+        final double ratio = baseBytes > 0 ? deltaBytes / (double) baseBytes : Double.POSITIVE_INFINITY;
+        LOG.info(String.format("Found %d deltas with %d bytes (%.3f of base size)", deltas.size(), deltaBytes, ratio));
+        if (!force && deltas.size() <= maxDeltas && ratio <= maxRatio) {
+            LOG.info("Thresholds not exceeded, skipping compaction.");
+            return SUCCESS;
+        }
+
+        conf.setBoolean(MapFileReducer.OVERLAY_MERGE_KEY, true);
+        conf.setBoolean("mapfile.bloom.enable", writeBloom);
+        if (writeBloom && null != cmdline.getOptionValue(BLOOM_OPTION[0])) {
+            conf.setFloat("io.mapfile.bloom.error.rate", Float.parseFloat(cmdline.getOptionValue(BLOOM_OPTION[0])));
+        }
+
+        // disable speculative reduce execution to prevent two processes from writing to the same map file
+        conf.setBoolean("mapreduce.reduce.speculative", false);
+
+        // set task timeout to 20 minutes
+        conf.setInt("mapreduce.task.timeout", 1200000);
+
+        final Job job = Job.getInstance(conf);
+        job.setJobName("chatnoir-mapfile-delta-compactor");
+        job.setJarByClass(MapFileDeltaCompactor.class);
+
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setMapperClass(FileNameMapper.class);
+
+        job.setReducerClass(MapFileReducer.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        job.setInputFormatClass(DirnamePassthroughInputFormat.class);
+        job.setOutputFormatClass(NullOutputFormat.class);
+        job.setPartitionerClass(PassthroughPartitioner.class);
+
+        final Path compactionPath = new Path(basePath, COMPACTION_DIR);
+        fs.delete(compactionPath, true);
+        FileInputFormat.addInputPath(job, new Path(basePath, "*-r-*/data"));
+        for (final Path delta : deltas) {
+            FileInputFormat.addInputPath(job, new Path(delta, "*-r-*/data"));
+        }
+        FileOutputFormat.setOutputPath(job, compactionPath);
+
+        // enable block compression
+        FileOutputFormat.setCompressOutput(job, true);
+        FileOutputFormat.setOutputCompressorClass(job, BZip2Codec.class);
+        SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+
+        if (!job.waitForCompletion(true)) {
+            return ERROR;
+        }
+
+        replacePartitions(fs, compactionPath, basePath);
+        for (final Path delta : deltas) {
+            fs.delete(delta, true);
+        }
+        fs.delete(compactionPath, true);
+        LOG.info(String.format("Compacted %d deltas into %s", deltas.size(), basePath));
+
+        return SUCCESS;
+    }
+
+    /**
+     * Replace base partitions with compacted partitions.
+     */
+    private void replacePartitions(final FileSystem fs, final Path compactionPath, final Path basePath)
+            throws IOException
+    {
+        for (final FileStatus status : fs.listStatus(compactionPath)) {
+            final String name = status.getPath().getName();
+            if (!status.isDirectory() || name.startsWith("_")) {
+                continue;
+            }
+            final Path target = new Path(basePath, name);
+            fs.delete(target, true);
+            if (!fs.rename(status.getPath(), target)) {
+                throw new IOException("Failed to move " + status.getPath() + " to " + target);
+            }
+        }
+    }
+
+    /**
+     * Dispatches command-line arguments to the tool via the <code>ToolRunner</code>.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        LOG.info("Running " + MapFileDeltaCompactor.class.getSimpleName() + " with args " + Arrays.toString(args));
+        System.exit(ToolRunner.run(new MapFileDeltaCompactor(), args));
+    }
+}
@@ -18,15 +18,29 @@ package de.webis.chatnoir2.mapfile_generator.app;
 
 import de.webis.chatnoir2.mapfile_generator.inputformats.ClueWeb09InputFormat;
 import de.webis.chatnoir2.mapfile_generator.inputformats.ClueWeb12InputFormat;
+import de.webis.chatnoir2.mapfile_generator.inputformats.CombineClueWeb09InputFormat;
+import de.webis.chatnoir2.mapfile_generator.inputformats.CombineClueWeb12InputFormat;
+import de.webis.chatnoir2.mapfile_generator.inputformats.CombineCommonCrawlInputFormat;
+import de.webis.chatnoir2.mapfile_generator.inputformats.CombineWarcInputFormat;
 import de.webis.chatnoir2.mapfile_generator.inputformats.CommonCrawlInputFormat;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.MapReduceBase;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.WarcCombiner;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.StageProfiler;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.WarcUUIDPartitioner;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.WarcMapper;
 import de.webis.chatnoir2.mapfile_generator.mapreduce.WarcReducer;
+import de.webis.chatnoir2.mapfile_generator.outputformats.BloomMapFileOutputFormat;
+import de.webis.chatnoir2.mapfile_generator.util.DeltaMapFiles;
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
+import de.webis.chatnoir2.mapfile_generator.util.OutputSizeEstimator;
+import de.webis.chatnoir2.mapfile_generator.util.PartitionManifest;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDListWritable;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDWritable;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.BZip2Codec;
@@ -35,6 +49,7 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.*;
 import org.apache.hadoop.util.ToolRunner;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -49,6 +64,15 @@ public class MapFileGenerator extends MapFileTool
     private static final String[] INPUT_OPTION        = {"input",  "i"};
     private static final String[] INPUT_FORMAT_OPTION = {"format", "f"};
     private static final String[] OUTPUT_OPTION       = {"output", "o"};
+    private static final String[] CDX_OPTION          = {"cdx",    "c"};
+    private static final String[] BLOOM_OPTION        = {"bloom",  "b"};
+    private static final String[] DEDUP_OPTION        = {"dedup",  "d"};
+    private static final String[] REDUCERS_OPTION     = {"reducers", "r"};
+    private static final String[] COMBINE_OPTION      = {"combine", "m"};
+    private static final String[] DELTA_OPTION        = {"delta", "a"};
+    private static final String[] BINARY_KEYS_OPTION  = {"binary-keys", "y"};
+    private static final String[] META_OPTION         = {"meta", "e"};
+    private static final String[] HOST_INDEX_OPTION   = {"host-index", "x"};
 
     @Override
     @SuppressWarnings({"static-access", "Duplicates"})
@@ -83,6 +107,48 @@ public class MapFileGenerator extends MapFileTool
                 withDescription("Output MapFile").
                 isRequired().
                 create(OUTPUT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(CDX_OPTION[0]).
+                withDescription("Write CDX-like record offset index as additional output").
+                create(CDX_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("RATE").
+                hasOptionalArg().
+                withLongOpt(BLOOM_OPTION[0]).
+                withDescription("Write Bloom filters for MapFile keys with the given false positive rate (default: 0.005)").
+                create(BLOOM_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(DEDUP_OPTION[0]).
+                withDescription("Store identical response bodies only once in a separate content MapFile").
+                create(DEDUP_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(REDUCERS_OPTION[0]).
+                withDescription("Number of reducers / output partitions (default: estimated from an input sample)").
+                create(REDUCERS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("BYTES").
+                hasOptionalArg().
+                withLongOpt(COMBINE_OPTION[0]).
+                withDescription("Combine multiple input files into one split of the given size (default: 512 MB)").
+                create(COMBINE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(DELTA_OPTION[0]).
+                withDescription("Write new delta MapFiles for an existing output (base) directory").
+                create(DELTA_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(BINARY_KEYS_OPTION[0]).
+                withDescription("Use 16-byte binary UUID keys instead of UUID strings for data MapFiles").
+                create(BINARY_KEYS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(META_OPTION[0]).
+                withDescription("Write additional meta MapFiles with headers, body length and digest only").
+                create(META_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(HOST_INDEX_OPTION[0]).
+                withDescription("Write additional host MapFiles mapping host names to sorted lists of record UUIDs").
+                create(HOST_INDEX_OPTION[1]));
 
         final CommandLine cmdline = parseCmdline(options, args);
         if (null == cmdline) {
@@ -92,7 +158,16 @@ public class MapFileGenerator extends MapFileTool
         final String uuidPrefix  = cmdline.getOptionValue(UUID_PREFIX_OPTION[0]);
         final String inputPath   = cmdline.getOptionValue(INPUT_OPTION[0]);
         final String inputFormat = cmdline.getOptionValue(INPUT_FORMAT_OPTION[0]);
-        final String outputPath  = cmdline.getOptionValue(OUTPUT_OPTION[0]);
+        final boolean delta      = cmdline.hasOption(DELTA_OPTION[0]);
+        String outputPath        = cmdline.getOptionValue(OUTPUT_OPTION[0]);
+        final boolean writeCdx   = cmdline.hasOption(CDX_OPTION[0]);
+        final boolean writeBloom = cmdline.hasOption(BLOOM_OPTION[0]);
+        final boolean dedup      = cmdline.hasOption(DEDUP_OPTION[0]);
+        final String numReducers = cmdline.getOptionValue(REDUCERS_OPTION[0], "auto");
+        final boolean combine    = cmdline.hasOption(COMBINE_OPTION[0]);
+        boolean binaryKeys       = cmdline.hasOption(BINARY_KEYS_OPTION[0]);
+        final boolean writeMeta  = cmdline.hasOption(META_OPTION[0]);
+        final boolean writeHosts = cmdline.hasOption(HOST_INDEX_OPTION[0]);
 
         if (!MapReduceClassHelper.SUPPORTED_INPUT_FORMATS.contains(inputFormat)) {
             HelpFormatter formatter = new HelpFormatter();
@@ -108,9 +183,57 @@ public class MapFileGenerator extends MapFileTool
         LOG.info(" - input:  " + inputPath);
         LOG.info(" - format: " + inputFormat);
         LOG.info(" - output: " + outputPath);
+        LOG.info(" - cdx:    " + writeCdx);
+        LOG.info(" - bloom:  " + writeBloom);
+        LOG.info(" - dedup:  " + dedup);
+        LOG.info(" - reducers: " + numReducers);
+        LOG.info(" - combine: " + combine);
+        LOG.info(" - delta:  " + delta);
+        LOG.info(" - binary keys: " + binaryKeys);
+        LOG.info(" - meta:   " + writeMeta);
+        LOG.info(" - host index: " + writeHosts);
 
         final Configuration conf = getConf();
+        PartitionManifest baseManifest = null;
+        if (delta) {
+            // deltas must have the same partitioning as their base
+            final Path basePath = new Path(outputPath);
+            baseManifest = PartitionManifest.read(basePath, conf);
+            if (null == baseManifest) {
+                System.err.printf("No partition manifest found in base directory '%s'.%n", outputPath);
+                return ERROR;
+            }
+            if (cmdline.hasOption(REDUCERS_OPTION[0])) {
+                System.err.println("WARNING: -delta given, ignoring -reducers.");
+            }
+            // deltas use the key format of their base
+            final boolean baseBinaryKeys = UUIDWritable.KEY_FORMAT_BINARY.equals(
+                    baseManifest.getProperty(UUIDWritable.KEY_FORMAT_PROPERTY));
+            if (cmdline.hasOption(BINARY_KEYS_OPTION[0]) && !baseBinaryKeys) {
+                System.err.println("WARNING: -delta given, ignoring -binary-keys.");
+            }
+            binaryKeys = baseBinaryKeys;
+            // deltas must store host names in the same form as their base
+            if (null != baseManifest.getProperty(HostIndex.REVERSED_PROPERTY)) {
+                conf.setBoolean(HostIndex.REVERSE_KEY,
+                        Boolean.parseBoolean(baseManifest.getProperty(HostIndex.REVERSED_PROPERTY)));
+            }
+            outputPath = DeltaMapFiles.newDeltaPath(basePath).toString();
+            LOG.info("Writing delta to " + outputPath);
+        }
+
         conf.set("mapfile.uuid.prefix", uuidPrefix);
+        conf.setBoolean("mapfile.cdx.enable", writeCdx);
+        conf.setBoolean("mapfile.dedup.enable", dedup);
+        conf.setBoolean(UUIDWritable.BINARY_KEYS_KEY, binaryKeys);
+        conf.setBoolean("mapfile.meta.enable", writeMeta);
+        conf.setBoolean(HostIndex.ENABLE_KEY, writeHosts);
+        if (combine && null != cmdline.getOptionValue(COMBINE_OPTION[0])) {
+            conf.setLong(CombineWarcInputFormat.SPLIT_SIZE_KEY, Long.parseLong(cmdline.getOptionValue(COMBINE_OPTION[0])));
+        }
+        if (writeBloom && null != cmdline.getOptionValue(BLOOM_OPTION[0])) {
+            conf.setFloat("io.mapfile.bloom.error.rate", Float.parseFloat(cmdline.getOptionValue(BLOOM_OPTION[0])));
+        }
 
         final Job job = Job.getInstance(conf);
         job.setJobName(String.format("mapfile-generator-%s", inputFormat));
@@ -120,15 +243,33 @@ public class MapFileGenerator extends MapFileTool
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(Text.class);
 
-        final MapReduceClassHelper classHelper = new MapReduceClassHelper(inputFormat);
+        final MapReduceClassHelper classHelper = new MapReduceClassHelper(inputFormat, combine);
         job.setInputFormatClass(classHelper.INPUT_FORMAT);
         job.setMapperClass(classHelper.MAPPER);
         job.setPartitionerClass(classHelper.PARTITIONER);
         job.setReducerClass(classHelper.REDUCER);
+        job.setCombinerClass(classHelper.COMBINER);
 
-        LazyOutputFormat.setOutputFormatClass(job, MapFileOutputFormat.class);
-        MultipleOutputs.addNamedOutput(job, MapReduceBase.DATA_OUTPUT_NAME, MapFileOutputFormat.class, Text.class, Text.class);
-        MultipleOutputs.addNamedOutput(job, MapReduceBase.URI_OUTPUT_NAME, MapFileOutputFormat.class, Text.class, Text.class);
+        final Class<? extends OutputFormat> mapFileOutputFormat =
+                writeBloom ? BloomMapFileOutputFormat.class : MapFileOutputFormat.class;
+        LazyOutputFormat.setOutputFormatClass(job, mapFileOutputFormat);
+        MultipleOutputs.addNamedOutput(job, MapReduceBase.DATA_OUTPUT_NAME, mapFileOutputFormat,
+                binaryKeys ? UUIDWritable.class : Text.class, Text.class);
+        MultipleOutputs.addNamedOutput(job, MapReduceBase.URI_OUTPUT_NAME, mapFileOutputFormat, Text.class, Text.class);
+        if (writeMeta) {
+            MultipleOutputs.addNamedOutput(job, MapReduceBase.META_OUTPUT_NAME, mapFileOutputFormat,
+                    binaryKeys ? UUIDWritable.class : Text.class, Text.class);
+        }
+        if (writeHosts) {
+            MultipleOutputs.addNamedOutput(job, MapReduceBase.HOST_OUTPUT_NAME, mapFileOutputFormat,
+                    Text.class, UUIDListWritable.class);
+        }
+        if (dedup) {
+            MultipleOutputs.addNamedOutput(job, MapReduceBase.CONTENT_OUTPUT_NAME, mapFileOutputFormat, Text.class, Text.class);
+        }
+        if (writeCdx) {
+            MultipleOutputs.addNamedOutput(job, MapReduceBase.CDX_OUTPUT_NAME, TextOutputFormat.class, Text.class, NullWritable.class);
+        }
 
         FileInputFormat.setInputPaths(job, inputPath);
         FileOutputFormat.setOutputPath(job, new Path(outputPath));
@@ -138,11 +279,67 @@ public class MapFileGenerator extends MapFileTool
         FileOutputFormat.setOutputCompressorClass(job, BZip2Codec.class);
         SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
 
-        job.waitForCompletion(true);
+        final PartitionManifest manifest;
+        if (null != baseManifest) {
+            job.setNumReduceTasks(baseManifest.getNumPartitions());
+            manifest = new PartitionManifest(baseManifest.getNumPartitions());
+        } else if (numReducers.equals("auto")) {
+            manifest = estimateReducers(job, classHelper.INPUT_FORMAT);
+        } else {
+            job.setNumReduceTasks(Integer.parseInt(numReducers));
+            manifest = new PartitionManifest(job.getNumReduceTasks());
+        }
+
+        manifest.setProperty(UUIDWritable.KEY_FORMAT_PROPERTY,
+                binaryKeys ? UUIDWritable.KEY_FORMAT_BINARY : UUIDWritable.KEY_FORMAT_TEXT);
+        if (writeHosts) {
+            manifest.setProperty(HostIndex.REVERSED_PROPERTY, conf.getBoolean(HostIndex.REVERSE_KEY, true));
+        }
+
+        if (!job.waitForCompletion(true)) {
+            return ERROR;
+        }
+        manifest.write(FileOutputFormat.getOutputPath(job), conf);
+
+        final long totalRecords = job.getCounters().findCounter(MapReduceBase.RecordCounters.RECORDS).getValue();
+        LOG.info(StageProfiler.summarize(job.getCounters(), totalRecords));
 
         return SUCCESS;
     }
 
+    /**
+     * Estimate total output size from a sample of the input and set the number of reducers
+     * so that partitions have approximately the configured target size.
+     *
+     * @param job configured job
+     * @param inputFormat job input format
+     * @return partition manifest for the chosen number of reducers
+     */
+    private PartitionManifest estimateReducers(final Job job, final Class<? extends InputFormat> inputFormat)
+            throws IOException, InterruptedException
+    {
+        final Configuration conf = job.getConfiguration();
+        final long targetSize  = conf.getLong("mapfile.reducers.partition.size", 4L * 1024 * 1024 * 1024);
+        final int maxReducers  = conf.getInt("mapfile.reducers.max", 10000);
+
+        final OutputSizeEstimator estimator = new OutputSizeEstimator(conf);
+        final long outputBytes = estimator.estimate(job, inputFormat);
+        final int reducers = estimator.getReducerCount(targetSize, maxReducers);
+        job.setNumReduceTasks(reducers);
+
+        LOG.info(String.format("Sampled %d records from %d splits: input %d bytes, expansion ratio %.2f, " +
+                        "estimated output %d bytes, using %d reducers",
+                estimator.getSampledRecords(), estimator.getSampledSplits(), estimator.getTotalInputBytes(),
+                estimator.getExpansionRatio(), outputBytes, reducers));
+
+        final PartitionManifest manifest = new PartitionManifest(reducers);
+        manifest.setProperty("estimated.output.bytes", outputBytes);
+        manifest.setProperty("target.partition.bytes", targetSize);
+        manifest.setProperty("input.bytes", estimator.getTotalInputBytes());
+        manifest.setProperty("sampled.records", estimator.getSampledRecords());
+        return manifest;
+    }
+
     /**
      * Dispatches command-line arguments to the tool via the <code>ToolRunner</code>.
      */
@@ -167,28 +364,32 @@ public class MapFileGenerator extends MapFileTool
         public final Class<? extends InputFormat> INPUT_FORMAT;
         public final Class<? extends Mapper>      MAPPER;
         public final Class<? extends Reducer>     REDUCER;
+        public final Class<? extends Reducer>     COMBINER;
         public final Class<? extends Partitioner> PARTITIONER;
 
-        public MapReduceClassHelper(final String inputFormat)
+        public MapReduceClassHelper(final String inputFormat, final boolean combineInputFiles)
         {
             switch (inputFormat) {
                 case "clueweb09":
-                    INPUT_FORMAT = ClueWeb09InputFormat.class;
+                    INPUT_FORMAT = combineInputFiles ? CombineClueWeb09InputFormat.class : ClueWeb09InputFormat.class;
                     MAPPER       = WarcMapper.class;
                     PARTITIONER  = WarcUUIDPartitioner.class;
                     REDUCER      = WarcReducer.class;
+                    COMBINER     = WarcCombiner.class;
                     break;
                 case "clueweb12":
-                    INPUT_FORMAT = ClueWeb12InputFormat.class;
+                    INPUT_FORMAT = combineInputFiles ? CombineClueWeb12InputFormat.class : ClueWeb12InputFormat.class;
                     MAPPER       = WarcMapper.class;
                     PARTITIONER  = WarcUUIDPartitioner.class;
                     REDUCER      = WarcReducer.class;
+                    COMBINER     = WarcCombiner.class;
                     break;
                 case "commoncrawl":
-                    INPUT_FORMAT = CommonCrawlInputFormat.class;
+                    INPUT_FORMAT = combineInputFiles ? CombineCommonCrawlInputFormat.class : CommonCrawlInputFormat.class;
                     MAPPER       = WarcMapper.class;
                     PARTITIONER  = WarcUUIDPartitioner.class;
                     REDUCER      = WarcReducer.class;
+                    COMBINER     = WarcCombiner.class;
                     break;
                 default:
                     throw new RuntimeException("Unsupported input format '" + inputFormat + "'");
@@ -0,0 +1,582 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.app;
+
+import de.webis.chatnoir2.mapfile_generator.mapreduce.MapReduceBase;
+import de.webis.chatnoir2.mapfile_generator.util.DeltaMapFiles;
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
+import de.webis.chatnoir2.mapfile_generator.util.OverlayMapFileReader;
+import de.webis.chatnoir2.mapfile_generator.util.PartitionManifest;
+import de.webis.chatnoir2.mapfile_generator.util.PayloadDigest;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDListWritable;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDWritable;
+import de.webis.chatnoir2.mapfile_generator.warc.WarcHeader;
+import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.xerces.impl.dv.util.Base64;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports generated <code>data</code> MapFiles back to WARC/1.0 files.
+ *
+ * Partitions are exported in parallel, each by its own thread and into its own sequence of
+ * output files, which are rolled over once they exceed the target size. Every record is
+ * compressed as a separate gzip member, so the output can be read record by record. Records
+ * are streamed one at a time, so memory usage does not depend on the partition size.
+ *
+ * Records can be filtered by a list of UUIDs and by host (response records only). If a UUID list is given or the
+ * host filter can be answered from the host index, records are looked up directly instead
+ * of scanning whole partitions.
+ *
+ * Text bodies were decoded during MapFile generation, so they are re-encoded with the charset
+ * declared in the HTTP <code>Content-Type</code> header (UTF-8 if none is declared) and
+ * may therefore differ from the original bytes. Binary bodies are restored exactly.
+ * Only the given MapFile directory is exported, deltas have to be compacted first.
+ *
+ * @author Janek Bevendorff
+ */
+public class MapFileWarcExporter extends MapFileTool
+{
+    private static final String[] INPUT_OPTION      = {"input",      "i"};
+    private static final String[] OUTPUT_OPTION     = {"output",     "o"};
+    private static final String[] PARITIONS_OPTION  = {"partitions", "k"};
+    private static final String[] SIZE_OPTION       = {"size",       "s"};
+    private static final String[] THREADS_OPTION    = {"threads",    "t"};
+    private static final String[] UUIDS_OPTION      = {"uuids",      "u"};
+    private static final String[] HOST_OPTION       = {"host",       "n"};
+
+    private static final long DEFAULT_TARGET_SIZE = 1024L * 1024L * 1024L;
+    private static final String OUTPUT_FILE_FORMAT = "export-%05d-%05d.warc.gz";
+    private static final byte[] NEWLINE = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final AtomicLong mExportedRecords = new AtomicLong();
+    private final AtomicLong mSkippedRecords  = new AtomicLong();
+    private final AtomicLong mOutputFiles     = new AtomicLong();
+    private final AtomicLong mOutputBytes     = new AtomicLong();
+
+    @Override
+    @SuppressWarnings({"static-access", "Duplicates"})
+    public int run(final String[] args) throws Exception
+    {
+        final Options options = new Options();
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(INPUT_OPTION[0]).
+                withDescription("MapFile directory").
+                isRequired().
+                create(INPUT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(OUTPUT_OPTION[0]).
+                withDescription("Output directory for WARC files").
+                isRequired().
+                create(OUTPUT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(PARITIONS_OPTION[0]).
+                withDescription("Number of partitions (default: read from partition manifest)").
+                create(PARITIONS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("BYTES").
+                hasArg().
+                withLongOpt(SIZE_OPTION[0]).
+                withDescription("Target size of output files (default: 1 GB)").
+                create(SIZE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(THREADS_OPTION[0]).
+                withDescription("Number of partitions exported in parallel (default: number of CPUs)").
+                create(THREADS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(UUIDS_OPTION[0]).
+                withDescription("Export only records whose UUIDs are listed in this file (one per line)").
+                create(UUIDS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("HOST").
+                hasArg().
+                withLongOpt(HOST_OPTION[0]).
+                withDescription("Export only response records of this host and its subdomains").
+                create(HOST_OPTION[1]));
+
+        final CommandLine cmdline = parseCmdline(options, args);
+        if (null == cmdline) {
+            return ERROR;
+        }
+
+        final Path basePath   = new Path(cmdline.getOptionValue(INPUT_OPTION[0]));
+        final Path outputPath = new Path(cmdline.getOptionValue(OUTPUT_OPTION[0]));
+        final long targetSize = Long.parseLong(cmdline.getOptionValue(SIZE_OPTION[0], String.valueOf(DEFAULT_TARGET_SIZE)));
+        final int numThreads  = Integer.parseInt(cmdline.getOptionValue(THREADS_OPTION[0],
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        LOG.info("Tool name: " + MapFileWarcExporter.class.getSimpleName());
+        LOG.info(" - input:  " + basePath);
+        LOG.info(" - output: " + outputPath);
+        LOG.info(" - target size: " + targetSize);
+        LOG.info(" - threads: " + numThreads);
+        LOG.info(" - uuids:  " + cmdline.getOptionValue(UUIDS_OPTION[0], "-"));
+        LOG.info(" - host:   " + cmdline.getOptionValue(HOST_OPTION[0], "-"));
+
+        final Configuration conf = getConf();
+        final FileSystem fs = basePath.getFileSystem(conf);
+        final PartitionManifest manifest = PartitionManifest.read(basePath, conf);
+        final int numPartitions = cmdline.hasOption(PARITIONS_OPTION[0]) ?
+                Integer.parseInt(cmdline.getOptionValue(PARITIONS_OPTION[0])) :
+                (null != manifest ? manifest.getNumPartitions() : 0);
+        if (0 == numPartitions) {
+            System.err.printf("No partition manifest found in '%s', please specify -partitions.%n", basePath);
+            return ERROR;
+        }
+
+        Set<String> uuids = null;
+        if (cmdline.hasOption(UUIDS_OPTION[0])) {
+            uuids = readUUIDs(new Path(cmdline.getOptionValue(UUIDS_OPTION[0])), conf);
+            LOG.info(String.format("Read %d UUIDs", uuids.size()));
+        }
+
+        HostFilter hostFilter = null;
+        if (cmdline.hasOption(HOST_OPTION[0])) {
+            // host names are reversed unless the manifest says otherwise
+            final boolean reversed = null == manifest || null == manifest.getProperty(HostIndex.REVERSED_PROPERTY) ||
+                    Boolean.parseBoolean(manifest.getProperty(HostIndex.REVERSED_PROPERTY));
+            final String host = HostIndex.normalizeHost(cmdline.getOptionValue(HOST_OPTION[0]), reversed);
+            if (null == host) {
+                System.err.println("Invalid host name.");
+                return ERROR;
+            }
+            hostFilter = new HostFilter(host, reversed);
+
+            final FileStatus[] hostIndex = fs.globStatus(new Path(basePath, MapReduceBase.HOST_OUTPUT_NAME + "-r-*"));
+            if (null != hostIndex && hostIndex.length > 0) {
+                final Set<String> hostUUIDs = readHostUUIDs(basePath, numPartitions, hostFilter, conf);
+                LOG.info(String.format("Found %d UUIDs for host %s in host index", hostUUIDs.size(), host));
+                if (null != uuids) {
+                    hostUUIDs.retainAll(uuids);
+                }
+                uuids = hostUUIDs;
+            }
+        }
+
+        // group UUIDs by partition and sort them, so lookups only ever seek forward
+        List<List<String>> partitionUUIDs = null;
+        if (null != uuids) {
+            partitionUUIDs = new ArrayList<>(numPartitions);
+            for (int i = 0; i < numPartitions; ++i) {
+                partitionUUIDs.add(new ArrayList<>());
+            }
+            for (final String uuid : new TreeSet<>(uuids)) {
+                partitionUUIDs.get(DeltaMapFiles.getPartition(uuid, numPartitions)).add(uuid);
+            }
+        }
+
+        fs.mkdirs(outputPath);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < numPartitions; ++i) {
+            final Path mapFile = DeltaMapFiles.getPartitionPath(basePath, MapReduceBase.DATA_OUTPUT_NAME, i);
+            if (!fs.exists(mapFile) || (null != partitionUUIDs && partitionUUIDs.get(i).isEmpty())) {
+                continue;
+            }
+            final int partition = i;
+            final List<String> keys = null != partitionUUIDs ? partitionUUIDs.get(i) : null;
+            final HostFilter filter = hostFilter;
+            futures.add(executor.submit(() -> {
+                exportPartition(basePath, numPartitions, partition, keys, filter,
+                        outputPath, targetSize, conf);
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        int ret = SUCCESS;
+        for (final Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOG.error("Export of partition failed", e.getCause());
+                ret = ERROR;
+            }
+        }
+
+        LOG.info(String.format("Exported %d records (%d skipped) to %d files with %d bytes",
+                mExportedRecords.get(), mSkippedRecords.get(), mOutputFiles.get(), mOutputBytes.get()));
+        return ret;
+    }
+
+    /**
+     * Export records of a single partition.
+     *
+     * @param basePath MapFile directory
+     * @param numPartitions number of partitions
+     * @param partition partition to export
+     * @param uuids sorted UUIDs to look up, null to export all records
+     * @param hostFilter host filter, may be null
+     * @param outputPath output directory
+     * @param targetSize target size of output files
+     * @param conf Hadoop configuration
+     */
+    private void exportPartition(final Path basePath, final int numPartitions, final int partition,
+                                 final List<String> uuids, final HostFilter hostFilter,
+                                 final Path outputPath, final long targetSize, final Configuration conf) throws IOException
+    {
+        final Path mapFile = DeltaMapFiles.getPartitionPath(basePath, MapReduceBase.DATA_OUTPUT_NAME, partition);
+        LOG.info("Exporting " + mapFile);
+
+        try (MapFile.Reader reader = new MapFile.Reader(mapFile, conf);
+             OverlayMapFileReader contentReader = new OverlayMapFileReader(basePath, numPartitions, conf);
+             RollingWarcWriter writer = new RollingWarcWriter(outputPath, partition, targetSize, conf)) {
+            final Text value = new Text();
+            final PayloadDigest digest = new PayloadDigest();
+            final WritableComparable key = (WritableComparable) ReflectionUtils.newInstance(reader.getKeyClass(), conf);
+
+            if (null == uuids) {
+                while (reader.next(key, value)) {
+                    exportRecord(value, hostFilter, contentReader, digest, writer);
+                }
+                return;
+            }
+
+            final boolean binaryKeys = UUIDWritable.class.equals(reader.getKeyClass());
+            for (final String uuid : uuids) {
+                if (binaryKeys) {
+                    try {
+                        ((UUIDWritable) key).set(uuid);
+                    } catch (IllegalArgumentException e) {
+                        mSkippedRecords.incrementAndGet();
+                        continue;
+                    }
+                } else {
+                    ((Text) key).set(uuid);
+                }
+                if (null != reader.get(key, value)) {
+                    exportRecord(value, hostFilter, contentReader, digest, writer);
+                } else {
+                    mSkippedRecords.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a MapFile document and write it as WARC record if it passes the host filter.
+     */
+    private void exportRecord(final Text value, final HostFilter hostFilter, final OverlayMapFileReader contentReader,
+                              final PayloadDigest digest, final RollingWarcWriter writer) throws IOException
+    {
+        final JSONObject doc = new JSONObject(value.toString());
+        final JSONObject metadata = doc.getJSONObject(MapReduceBase.JSON_METADATA_KEY);
+        if (null != hostFilter && !hostFilter.accept(metadata)) {
+            mSkippedRecords.incrementAndGet();
+            return;
+        }
+
+        final JSONObject payload = doc.getJSONObject(MapReduceBase.JSON_PAYLOAD_KEY);
+        String body = payload.optString(MapReduceBase.JSON_BODY_KEY, "");
+        if (payload.has(MapReduceBase.JSON_BODY_REF_KEY)) {
+            final String contentKey = payload.getString(MapReduceBase.JSON_BODY_REF_KEY);
+            final Text content = contentReader.get(MapReduceBase.CONTENT_OUTPUT_NAME, contentKey, new Text());
+            if (null == content) {
+                LOG.warn(String.format("Referenced content '%s' of record %s not found, skipping",
+                        contentKey, metadata.optString("WARC-Record-ID")));
+                mSkippedRecords.incrementAndGet();
+                return;
+            }
+            body = content.toString();
+        }
+
+        writer.write(toWarcRecord(metadata, payload, body, digest));
+        mExportedRecords.incrementAndGet();
+    }
+
+    /**
+     * Restore WARC record from the parts of a MapFile document.
+     * Text bodies are re-encoded and HTTP headers rebuilt, so the stored digests no longer apply.
+     * <code>WARC-Block-Digest</code> and <code>WARC-Payload-Digest</code> (if the original record had one)
+     * are recomputed from the restored bytes instead.
+     *
+     * @param metadata WARC headers
+     * @param payload payload object with HTTP headers and encoding
+     * @param body (resolved) record body
+     * @param digest digest for recomputing block and payload digests
+     * @return WARC/1.0 record
+     */
+    private static WarcRecord toWarcRecord(final JSONObject metadata, final JSONObject payload, final String body,
+                                           final PayloadDigest digest)
+    {
+        final WarcHeader header = new WarcHeader(WarcHeader.WarcVersion.WARC10);
+        for (final String name : metadata.keySet()) {
+            header.addHeaderMetadata(name, String.valueOf(metadata.get(name)));
+        }
+
+        final JSONObject httpHeaders = payload.optJSONObject(MapReduceBase.JSON_HEADERS_KEY);
+        byte[] bodyBytes;
+        if ("base64".equals(payload.optString(MapReduceBase.JSON_PAYLOAD_ENCODING))) {
+            bodyBytes = Base64.decode(body);
+            if (null == bodyBytes) {
+                bodyBytes = new byte[0];
+            }
+        } else {
+            bodyBytes = body.getBytes(getCharset(httpHeaders));
+        }
+
+        final ByteArrayOutputStream block = new ByteArrayOutputStream(bodyBytes.length + 1024);
+        if (null != httpHeaders && httpHeaders.length() > 0) {
+            final String status = httpHeaders.optString(WarcRecord.HTTP_STATUS_HEADER, null);
+            if (null != status) {
+                writeLine(block, status);
+            }
+            final List<String> names = new ArrayList<>(httpHeaders.keySet());
+            Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+            for (final String name : names) {
+                if (name.equals(WarcRecord.HTTP_STATUS_HEADER)) {
+                    continue;
+                }
+                // re-encoded text bodies may have a different length
+                final String headerValue = name.equalsIgnoreCase("Content-Length") ?
+                        String.valueOf(bodyBytes.length) : String.valueOf(httpHeaders.get(name));
+                writeLine(block, name + ": " + headerValue);
+            }
+            block.write(NEWLINE, 0, NEWLINE.length);
+        }
+        block.write(bodyBytes, 0, bodyBytes.length);
+
+        final byte[] blockBytes = block.toByteArray();
+        header.addHeaderMetadata("WARC-Block-Digest", digest.digest(blockBytes));
+        if (null != header.getHeaderMetadataItem("WARC-Payload-Digest")) {
+            header.addHeaderMetadata("WARC-Payload-Digest", digest.digest(bodyBytes));
+        }
+
+        return new WarcRecord(header, blockBytes);
+    }
+
+    private static void writeLine(final ByteArrayOutputStream out, final String line)
+    {
+        final byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+        out.write(NEWLINE, 0, NEWLINE.length);
+    }
+
+    /**
+     * Get charset declared in the HTTP <code>Content-Type</code> header.
+     *
+     * @return declared charset, UTF-8 if none is declared or the charset is not supported
+     */
+    private static Charset getCharset(final JSONObject httpHeaders)
+    {
+        if (null == httpHeaders) {
+            return StandardCharsets.UTF_8;
+        }
+        String contentType = null;
+        for (final String name : httpHeaders.keySet()) {
+            if (name.equalsIgnoreCase("Content-Type")) {
+                contentType = String.valueOf(httpHeaders.get(name));
+                break;
+            }
+        }
+        if (null == contentType) {
+            return StandardCharsets.UTF_8;
+        }
+
+        final String[] parts = contentType.split(";");
+        for (int i = 1; i < parts.length; ++i) {
+            final int pos = parts[i].indexOf("charset=");
+            if (-1 != pos) {
+                try {
+                    return Charset.forName(parts[i].substring(pos + 8).trim().replace("\"", ""));
+                } catch (IllegalCharsetNameException | UnsupportedOperationException |
+                        UnsupportedCharsetException ignored) {
+                    break;
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Read lower-case UUIDs from a file with one UUID per line.
+     */
+    private static Set<String> readUUIDs(final Path file, final Configuration conf) throws IOException
+    {
+        final Set<String> uuids = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                file.getFileSystem(conf).open(file), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim().toLowerCase(Locale.ROOT);
+                if (!line.isEmpty()) {
+                    uuids.add(line);
+                }
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Collect UUIDs of all records of a host from the host index.
+     */
+    private static Set<String> readHostUUIDs(final Path basePath, final int numPartitions,
+                                             final HostFilter hostFilter, final Configuration conf) throws IOException
+    {
+        final Set<String> uuids = new HashSet<>();
+        try (OverlayMapFileReader reader = new OverlayMapFileReader(basePath, numPartitions, conf)) {
+            reader.scanPrefix(MapReduceBase.HOST_OUTPUT_NAME, hostFilter.mHost, (mapFile, key, value) -> {
+                if (HostIndex.matches(key.toString(), hostFilter.mHost, hostFilter.mReversed)) {
+                    final UUIDListWritable list = (UUIDListWritable) value;
+                    for (int i = 0; i < list.size(); ++i) {
+                        uuids.add(list.get(i).toString());
+                    }
+                }
+                return true;
+            });
+        }
+        return uuids;
+    }
+
+    /**
+     * Filter for response records by normalized host of their target URI.
+     * Like the host index, the filter does not match any other record types.
+     */
+    private static class HostFilter
+    {
+        private final String mHost;
+        private final boolean mReversed;
+
+        HostFilter(final String host, final boolean reversed)
+        {
+            mHost = host;
+            mReversed = reversed;
+        }
+
+        boolean accept(final JSONObject metadata)
+        {
+            if (!"response".equals(metadata.optString("WARC-Type"))) {
+                return false;
+            }
+            final String host = HostIndex.getHost(metadata.optString("WARC-Target-URI", ""), mReversed);
+            return null != host && HostIndex.matches(host, mHost, mReversed);
+        }
+    }
+
+    /**
+     * Writes gzip-compressed WARC records of one partition to a sequence of files,
+     * starting a new file once the current file has reached the target size.
+     */
+    private class RollingWarcWriter implements Closeable
+    {
+        private final Path mOutputPath;
+        private final int mPartition;
+        private final long mTargetSize;
+        private final FileSystem mFs;
+        private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream(64 * 1024);
+        private FSDataOutputStream mOut = null;
+        private int mFileNumber = 0;
+
+        RollingWarcWriter(final Path outputPath, final int partition, final long targetSize,
+                          final Configuration conf) throws IOException
+        {
+            mOutputPath = outputPath;
+            mPartition  = partition;
+            mTargetSize = targetSize;
+            mFs         = outputPath.getFileSystem(conf);
+        }
+
+        /**
+         * Compress record as a separate gzip member and append it to the current file.
+         */
+        void write(final WarcRecord record) throws IOException
+        {
+            mBuffer.reset();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(mBuffer, 64 * 1024)) {
+                record.writeWarc(gzip);
+            }
+
+            if (null == mOut) {
+                mOut = mFs.create(new Path(mOutputPath, String.format(OUTPUT_FILE_FORMAT, mPartition, mFileNumber++)));
+                mOutputFiles.incrementAndGet();
+            }
+            mBuffer.writeTo(mOut);
+            mOutputBytes.addAndGet(mBuffer.size());
+            if (mOut.getPos() >= mTargetSize) {
+                closeFile();
+            }
+        }
+
+        private void closeFile() throws IOException
+        {
+            if (null != mOut) {
+                mOut.close();
+                mOut = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            closeFile();
+        }
+    }
+
+    /**
+     * Dispatches command-line arguments to the tool via the <code>ToolRunner</code>.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        LOG.info("Running " + MapFileWarcExporter.class.getSimpleName() + " with args " + Arrays.toString(args));
+        System.exit(ToolRunner.run(new MapFileWarcExporter(), args));
+    }
+}
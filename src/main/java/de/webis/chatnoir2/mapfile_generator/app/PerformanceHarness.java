@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.app;
+
+import de.webis.chatnoir2.mapfile_generator.mapreduce.MapReduceBase;
+import de.webis.chatnoir2.mapfile_generator.warc.WarcHeader;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * End-to-end performance regression harness.
+ * Generates a synthetic WARC corpus, runs {@link MapFileGenerator} and {@link MapFileBatchMerger}
+ * on it in Hadoop local mode and compares throughput, peak heap and output size with stored baselines.
+ *
+ * @author Janek Bevendorff
+ */
+public class PerformanceHarness extends MapFileTool
+{
+    private static final String[] WORK_DIR_OPTION  = {"workdir",         "w"};
+    private static final String[] RECORDS_OPTION   = {"records",         "n"};
+    private static final String[] FILES_OPTION     = {"files",           "f"};
+    private static final String[] SIZE_OPTION      = {"size",            "s"};
+    private static final String[] FORMAT_OPTION    = {"format",          "t"};
+    private static final String[] BASELINE_OPTION  = {"baseline",        "b"};
+    private static final String[] TOLERANCE_OPTION = {"tolerance",       "r"};
+    private static final String[] UPDATE_OPTION    = {"update-baseline", "u"};
+
+    private static final int NUM_BATCHES = 2;
+
+    /**
+     * Measured results of a single stage.
+     */
+    private static class StageResult
+    {
+        long records;
+        long inputBytes;
+        long outputBytes;
+        long nanos;
+        long peakHeap;
+
+        double recordsPerSecond()
+        {
+            return records / (nanos / 1e9);
+        }
+
+        double megabytesPerSecond()
+        {
+            return inputBytes / 1048576.0 / (nanos / 1e9);
+        }
+    }
+
+    @Override
+    @SuppressWarnings({"static-access", "Duplicates"})
+    public int run(final String[] args) throws Exception
+    {
+        final Options options = new Options();
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(WORK_DIR_OPTION[0]).
+                withDescription("Local working directory (will be overwritten)").
+                isRequired().
+                create(WORK_DIR_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(RECORDS_OPTION[0]).
+                withDescription("Number of response records per batch (default: 5000)").
+                create(RECORDS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(FILES_OPTION[0]).
+                withDescription("Number of WARC files per batch (default: 4)").
+                create(FILES_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("BYTES").
+                hasArg().
+                withLongOpt(SIZE_OPTION[0]).
+                withDescription("Median response body size (default: 16384)").
+                create(SIZE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("INPUT_FORMAT").
+                hasArg().
+                withLongOpt(FORMAT_OPTION[0]).
+                withDescription("Input format to simulate (commoncrawl, clueweb09, clueweb12; default: commoncrawl)").
+                create(FORMAT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("FILE").
+                hasArg().
+                withLongOpt(BASELINE_OPTION[0]).
+                withDescription("Baseline properties file (created if it does not exist)").
+                create(BASELINE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("FRACTION").
+                hasArg().
+                withLongOpt(TOLERANCE_OPTION[0]).
+                withDescription("Allowed relative regression (default: 0.2)").
+                create(TOLERANCE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(UPDATE_OPTION[0]).
+                withDescription("Overwrite baseline with the current results").
+                create(UPDATE_OPTION[1]));
+
+        final CommandLine cmdline = parseCmdline(options, args);
+        if (null == cmdline) {
+            return ERROR;
+        }
+
+        final String format = cmdline.getOptionValue(FORMAT_OPTION[0], "commoncrawl");
+        if (!MapFileGenerator.MapReduceClassHelper.SUPPORTED_INPUT_FORMATS.contains(format)) {
+            System.err.printf("Input format '%s' is not supported.%n", format);
+            return ERROR;
+        }
+
+        final Path workDir      = new Path(new File(cmdline.getOptionValue(WORK_DIR_OPTION[0])).getAbsoluteFile().toURI());
+        final long numRecords   = Long.parseLong(cmdline.getOptionValue(RECORDS_OPTION[0], "5000"));
+        final int numFiles      = Integer.parseInt(cmdline.getOptionValue(FILES_OPTION[0], "4"));
+        final int medianSize    = Integer.parseInt(cmdline.getOptionValue(SIZE_OPTION[0], "16384"));
+        final double tolerance  = Double.parseDouble(cmdline.getOptionValue(TOLERANCE_OPTION[0], "0.2"));
+        final String baseline   = cmdline.getOptionValue(BASELINE_OPTION[0]);
+
+        final Configuration conf = new Configuration(getConf());
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        final FileSystem fs = workDir.getFileSystem(conf);
+        fs.delete(workDir, true);
+
+        // generate synthetic input
+        final Path inputDir = new Path(workDir, "input");
+        long inputBytes = 0;
+        for (int b = 0; b < NUM_BATCHES; ++b) {
+            final SyntheticWarcGenerator generator = new SyntheticWarcGenerator();
+            generator.setNumRecords(numRecords);
+            generator.setNumFiles(numFiles);
+            generator.setSizeDistribution(medianSize, 1.0);
+            generator.setCharsets(SyntheticWarcGenerator.parseCharsets("UTF-8:6,ISO-8859-1:2,windows-1251:1,Shift_JIS:1"));
+            generator.setWarcVersion("clueweb09".equals(format) ? WarcHeader.WarcVersion.WARC018 : WarcHeader.WarcVersion.WARC10);
+            generator.setGzip(true);
+            generator.setSeed(42 + b);
+            inputBytes += generator.generate(fs, new Path(inputDir, String.format("batch-%05d", b)));
+        }
+
+        final LinkedHashMap<String, StageResult> results = new LinkedHashMap<>();
+
+        // MapFile generation
+        final Path generatorOutput = new Path(workDir, "mapfiles");
+        final StageResult generateResult = new StageResult();
+        generateResult.inputBytes = inputBytes;
+        for (int b = 0; b < NUM_BATCHES; ++b) {
+            final Path batchOutput = new Path(generatorOutput, String.format("batch-%05d", b));
+            runStage(generateResult, conf, new MapFileGenerator(),
+                    "-prefix", "synthetic",
+                    "-format", format,
+                    "-input", new Path(inputDir, String.format("batch-%05d/*", b)).toString(),
+                    "-output", batchOutput.toString());
+            generateResult.records     += countEntries(fs, batchOutput, conf);
+            generateResult.outputBytes += fs.getContentSummary(batchOutput).getLength();
+        }
+        results.put("generate", generateResult);
+
+        // MapFile merging
+        final Path mergerOutput = new Path(workDir, "merged");
+        final StageResult mergeResult = new StageResult();
+        mergeResult.inputBytes = generateResult.outputBytes;
+        runStage(mergeResult, conf, new MapFileBatchMerger(),
+                "-input", new Path(generatorOutput, "batch-*/*-r-*/" + MapFile.DATA_FILE_NAME).toString(),
+                "-output", mergerOutput.toString());
+        mergeResult.records     = countEntries(fs, mergerOutput, conf);
+        mergeResult.outputBytes = fs.getContentSummary(mergerOutput).getLength();
+        results.put("merge", mergeResult);
+
+        if (generateResult.records == 0 || mergeResult.records != generateResult.records) {
+            System.err.printf("Record count mismatch: generated %d, merged %d%n", generateResult.records, mergeResult.records);
+            return ERROR;
+        }
+
+        final Properties current = new Properties();
+        for (final Map.Entry<String, StageResult> entry : results.entrySet()) {
+            final StageResult r = entry.getValue();
+            System.out.printf("%-8s records=%d  records/s=%.1f  MB/s=%.2f  peak heap=%.1f MB  output=%.2f MB%n",
+                    entry.getKey(), r.records, r.recordsPerSecond(), r.megabytesPerSecond(),
+                    r.peakHeap / 1048576.0, r.outputBytes / 1048576.0);
+            current.setProperty(entry.getKey() + ".records_per_sec", String.format("%.1f", r.recordsPerSecond()));
+            current.setProperty(entry.getKey() + ".mb_per_sec", String.format("%.3f", r.megabytesPerSecond()));
+            current.setProperty(entry.getKey() + ".peak_heap_mb", String.format("%.1f", r.peakHeap / 1048576.0));
+            current.setProperty(entry.getKey() + ".output_mb", String.format("%.3f", r.outputBytes / 1048576.0));
+        }
+
+        if (null == baseline) {
+            return SUCCESS;
+        }
+
+        final File baselineFile = new File(baseline);
+        if (!baselineFile.exists() || cmdline.hasOption(UPDATE_OPTION[0])) {
+            try (OutputStream out = new FileOutputStream(baselineFile)) {
+                current.store(out, String.format("%s, %d records x %d batches, median size %d",
+                        format, numRecords, NUM_BATCHES, medianSize));
+            }
+            System.out.println("Baseline written to " + baselineFile);
+            return SUCCESS;
+        }
+
+        final Properties stored = new Properties();
+        try (InputStream in = new FileInputStream(baselineFile)) {
+            stored.load(in);
+        }
+        return checkRegressions(stored, current, tolerance) ? SUCCESS : ERROR;
+    }
+
+    /**
+     * Compare results to baseline. Throughput must not drop and peak heap and
+     * output size must not grow by more than the given tolerance.
+     *
+     * @return true if no regressions were found
+     */
+    private boolean checkRegressions(final Properties baseline, final Properties current, final double tolerance)
+    {
+        boolean ok = true;
+        for (final String key : current.stringPropertyNames()) {
+            if (!baseline.containsKey(key)) {
+                continue;
+            }
+            final double expected = Double.parseDouble(baseline.getProperty(key));
+            final double actual   = Double.parseDouble(current.getProperty(key));
+            final boolean higherIsBetter = key.endsWith("_per_sec");
+            final boolean regressed = higherIsBetter ?
+                    actual < expected * (1.0 - tolerance) : actual > expected * (1.0 + tolerance);
+            if (regressed) {
+                System.err.printf("REGRESSION: %s = %s (baseline: %s)%n", key, current.getProperty(key), baseline.getProperty(key));
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Run tool and record its wall time and peak heap usage.
+     */
+    private void runStage(final StageResult result, final Configuration conf, final Tool tool, final String... args)
+            throws Exception
+    {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        final long start = System.nanoTime();
+        if (SUCCESS != ToolRunner.run(new Configuration(conf), tool, args)) {
+            throw new RuntimeException(tool.getClass().getSimpleName() + " failed");
+        }
+        result.nanos += System.nanoTime() - start;
+
+        long peakHeap = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        result.peakHeap = Math.max(result.peakHeap, peakHeap);
+    }
+
+    /**
+     * Count entries in all data MapFiles below the given directory.
+     */
+    private long countEntries(final FileSystem fs, final Path dir, final Configuration conf) throws IOException
+    {
+        long count = 0;
+        final FileStatus[] mapFiles = fs.globStatus(new Path(dir, MapReduceBase.DATA_OUTPUT_NAME + "-r-*"));
+        if (null == mapFiles) {
+            return 0;
+        }
+        final Text key   = new Text();
+        final Text value = new Text();
+        for (final FileStatus status : mapFiles) {
+            try (MapFile.Reader reader = new MapFile.Reader(status.getPath(), conf)) {
+                while (reader.next(key, value)) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        System.exit(ToolRunner.run(new PerformanceHarness(), args));
+    }
+}
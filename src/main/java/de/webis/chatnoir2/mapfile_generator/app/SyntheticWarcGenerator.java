@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.app;
+
+import de.webis.chatnoir2.mapfile_generator.warc.WarcHeader;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generator for deterministic synthetic WARC corpora.
+ * Given the same seed and settings, the generated files are byte-identical.
+ *
+ * @author Janek Bevendorff
+ */
+public class SyntheticWarcGenerator extends MapFileTool
+{
+    private static final String[] OUTPUT_OPTION        = {"output",          "o"};
+    private static final String[] RECORDS_OPTION       = {"records",         "n"};
+    private static final String[] FILES_OPTION         = {"files",           "f"};
+    private static final String[] SIZE_OPTION          = {"size",            "s"};
+    private static final String[] SIZE_SIGMA_OPTION    = {"size-sigma",      "d"};
+    private static final String[] CHARSETS_OPTION      = {"charsets",        "c"};
+    private static final String[] BINARY_OPTION        = {"binary-fraction", "b"};
+    private static final String[] REQUEST_OPTION       = {"request-fraction", "r"};
+    private static final String[] METADATA_OPTION      = {"metadata-fraction", "m"};
+    private static final String[] WARC_VERSION_OPTION  = {"warc-version",    "w"};
+    private static final String[] GZIP_OPTION          = {"gzip",            "z"};
+    private static final String[] SEED_OPTION          = {"seed",            "x"};
+
+    private static final String NEWLINE = "\r\n";
+    private static final long START_TIMESTAMP = 1484568000000L;
+
+    private static final String[] LATIN_WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+            "eiusmod", "tempor", "incididunt", "labore", "dolore", "magna", "aliqua", "über", "straße",
+            "größe", "café", "naïve", "façade", "señor", "année"
+    };
+    private static final String[] CYRILLIC_WORDS = {
+            "привет", "мир", "документ", "страница", "поиск", "индекс", "данные", "корпус", "текст", "слово"
+    };
+    private static final String[] CJK_WORDS = {
+            "検索", "文書", "索引", "日本語", "情報", "世界", "データ", "コーパス", "テキスト", "単語"
+    };
+
+    private long mNumRecords = 1000;
+    private int mNumFiles = 1;
+    private int mMedianSize = 16384;
+    private double mSizeSigma = 1.0;
+    private final LinkedHashMap<String, Double> mCharsets = new LinkedHashMap<>();
+    private double mBinaryFraction = 0.05;
+    private double mRequestFraction = 0.5;
+    private double mMetadataFraction = 0.1;
+    private WarcHeader.WarcVersion mWarcVersion = WarcHeader.WarcVersion.WARC10;
+    private boolean mGzip = true;
+    private long mSeed = 42;
+
+    public SyntheticWarcGenerator()
+    {
+        mCharsets.put("UTF-8", 1.0);
+    }
+
+    /**
+     * @param numRecords total number of captures (response records) to generate
+     */
+    public void setNumRecords(final long numRecords)
+    {
+        mNumRecords = numRecords;
+    }
+
+    /**
+     * @param numFiles number of WARC files to distribute records across
+     */
+    public void setNumFiles(final int numFiles)
+    {
+        mNumFiles = numFiles;
+    }
+
+    /**
+     * Set log-normal response body size distribution.
+     *
+     * @param medianSize median body size in bytes
+     * @param sigma standard deviation of the underlying normal distribution
+     */
+    public void setSizeDistribution(final int medianSize, final double sigma)
+    {
+        mMedianSize = medianSize;
+        mSizeSigma  = sigma;
+    }
+
+    /**
+     * Set charset mix of text responses.
+     *
+     * @param charsets map of charset names to relative weights
+     */
+    public void setCharsets(final Map<String, Double> charsets)
+    {
+        mCharsets.clear();
+        mCharsets.putAll(charsets);
+    }
+
+    /**
+     * @param binaryFraction fraction of responses with binary content
+     */
+    public void setBinaryFraction(final double binaryFraction)
+    {
+        mBinaryFraction = binaryFraction;
+    }
+
+    /**
+     * @param requestFraction fraction of responses preceded by a request record
+     */
+    public void setRequestFraction(final double requestFraction)
+    {
+        mRequestFraction = requestFraction;
+    }
+
+    /**
+     * @param metadataFraction fraction of responses followed by a metadata record
+     */
+    public void setMetadataFraction(final double metadataFraction)
+    {
+        mMetadataFraction = metadataFraction;
+    }
+
+    public void setWarcVersion(final WarcHeader.WarcVersion warcVersion)
+    {
+        mWarcVersion = warcVersion;
+    }
+
+    /**
+     * @param gzip whether to compress each record as a separate gzip member
+     */
+    public void setGzip(final boolean gzip)
+    {
+        mGzip = gzip;
+    }
+
+    public void setSeed(final long seed)
+    {
+        mSeed = seed;
+    }
+
+    /**
+     * Generate WARC files.
+     *
+     * @param fs output file system
+     * @param outputDir output directory
+     * @return total number of bytes written
+     * @throws IOException on write errors
+     */
+    public long generate(final FileSystem fs, final Path outputDir) throws IOException
+    {
+        final GeneratorState state = new GeneratorState(mSeed);
+
+        fs.mkdirs(outputDir);
+        long totalBytes = 0;
+        for (int f = 0; f < mNumFiles; ++f) {
+            final String fileName = getFileName(f);
+            final long fileRecords = mNumRecords / mNumFiles + (f < mNumRecords % mNumFiles ? 1 : 0);
+
+            try (OutputStream out = fs.create(new Path(outputDir, fileName), true)) {
+                totalBytes += writeFile(out, f, fileName, fileRecords, state);
+            }
+        }
+
+        return totalBytes;
+    }
+
+    /**
+     * Generate a single WARC file with all records, ignoring the configured number of files.
+     * The output is identical to what {@link #generate(FileSystem, Path)} writes for one file.
+     *
+     * @param out output stream
+     * @return total number of bytes written
+     * @throws IOException on write errors
+     */
+    public long generate(final OutputStream out) throws IOException
+    {
+        return writeFile(out, 0, getFileName(0), mNumRecords, new GeneratorState(mSeed));
+    }
+
+    /**
+     * Generate the HTTP part (status line, headers and HTML body) of a single text response
+     * with a charset drawn from the configured charset mix.
+     *
+     * @param rnd random source
+     * @param declareCharset whether to declare the body charset in the Content-Type header
+     * @return HTTP response bytes
+     */
+    public byte[] generateHttpResponse(final Random rnd, final boolean declareCharset)
+    {
+        final int size = sampleBodySize(rnd);
+        final String charsetName = pickCharset(rnd);
+        final byte[] body = generateHtml(size, Charset.forName(charsetName), rnd);
+        return buildHttpResponse(createDateFormat().format(new Date(START_TIMESTAMP)),
+                declareCharset ? "text/html; charset=" + charsetName : "text/html", body);
+    }
+
+    private String getFileName(final int fileIndex)
+    {
+        return String.format("synthetic-%05d.warc%s", fileIndex, mGzip ? ".gz" : "");
+    }
+
+    private long writeFile(final OutputStream out, final int fileIndex, final String fileName,
+                           final long fileRecords, final GeneratorState state) throws IOException
+    {
+        final Random rnd = state.rnd;
+        long totalBytes = writeRecord(out, buildWarcinfo(fileName, rnd, state.formatDate()));
+
+        for (long i = 0; i < fileRecords; ++i, ++state.recordNum) {
+            state.timestamp += 1 + rnd.nextInt(5000);
+            final String date = state.formatDate();
+            final String uri  = String.format("http://www.host%d.example.com/path/%d/page-%d.html",
+                    rnd.nextInt(Math.max(1, (int) (mNumRecords / 20))), rnd.nextInt(100), state.recordNum);
+            final String trecId = String.format("synthetic-%05d-%08d", fileIndex, i);
+
+            if (rnd.nextDouble() < mRequestFraction) {
+                totalBytes += writeRecord(out, buildRequest(uri, date, trecId, rnd));
+            }
+            totalBytes += writeRecord(out, buildResponse(uri, date, trecId, rnd));
+            if (rnd.nextDouble() < mMetadataFraction) {
+                totalBytes += writeRecord(out, buildMetadata(uri, date, rnd));
+            }
+        }
+
+        return totalBytes;
+    }
+
+    private long writeRecord(final OutputStream out, final byte[] record) throws IOException
+    {
+        if (!mGzip) {
+            out.write(record);
+            return record.length;
+        }
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(record.length / 2);
+        final GZIPOutputStream gz = new GZIPOutputStream(buffer);
+        gz.write(record);
+        gz.finish();
+        buffer.writeTo(out);
+        return buffer.size();
+    }
+
+    private byte[] buildWarcinfo(final String fileName, final Random rnd, final String date)
+    {
+        final byte[] content = ("software: chatnoir2-mapfile-generator synthetic corpus" + NEWLINE +
+                "format: WARC File Format" + NEWLINE + "seed: " + mSeed + NEWLINE).getBytes(StandardCharsets.UTF_8);
+        final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("WARC-Type", "warcinfo");
+        headers.put("WARC-Date", date);
+        headers.put("WARC-Filename", fileName);
+        headers.put("WARC-Record-ID", randomRecordId(rnd));
+        headers.put("Content-Type", "application/warc-fields");
+        return buildRecord(headers, content);
+    }
+
+    private byte[] buildRequest(final String uri, final String date, final String trecId, final Random rnd)
+    {
+        final String host = uri.substring(7, uri.indexOf('/', 7));
+        final byte[] content = ("GET " + uri.substring(uri.indexOf('/', 7)) + " HTTP/1.1" + NEWLINE +
+                "Host: " + host + NEWLINE +
+                "User-Agent: Mozilla/5.0 (compatible; SyntheticBot/1.0)" + NEWLINE +
+                "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8" + NEWLINE +
+                "Accept-Encoding: identity" + NEWLINE + NEWLINE).getBytes(StandardCharsets.US_ASCII);
+        final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("WARC-Type", "request");
+        headers.put("WARC-Target-URI", uri);
+        headers.put("WARC-Date", date);
+        headers.put("WARC-TREC-ID", trecId + "-req");
+        headers.put("WARC-Record-ID", randomRecordId(rnd));
+        headers.put("Content-Type", "application/http; msgtype=request");
+        return buildRecord(headers, content);
+    }
+
+    private byte[] buildResponse(final String uri, final String date, final String trecId, final Random rnd)
+    {
+        final int size = sampleBodySize(rnd);
+
+        final byte[] body;
+        final String contentType;
+        if (rnd.nextDouble() < mBinaryFraction) {
+            body = new byte[size];
+            rnd.nextBytes(body);
+            contentType = "image/jpeg";
+        } else {
+            final String charsetName = pickCharset(rnd);
+            body = generateHtml(size, Charset.forName(charsetName), rnd);
+            // declare charset only for some responses to exercise encoding detection
+            contentType = rnd.nextBoolean() ? "text/html; charset=" + charsetName : "text/html";
+        }
+
+        final byte[] content = buildHttpResponse(date, contentType, body);
+
+        final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("WARC-Type", "response");
+        headers.put("WARC-Target-URI", uri);
+        headers.put("WARC-Date", date);
+        headers.put("WARC-TREC-ID", trecId);
+        headers.put("WARC-Record-ID", randomRecordId(rnd));
+        headers.put("Content-Type", "application/http; msgtype=response");
+        return buildRecord(headers, content);
+    }
+
+    private int sampleBodySize(final Random rnd)
+    {
+        return (int) Math.min(Integer.MAX_VALUE / 4,
+                Math.max(64, Math.round(mMedianSize * Math.exp(rnd.nextGaussian() * mSizeSigma))));
+    }
+
+    private static byte[] buildHttpResponse(final String date, final String contentType, final byte[] body)
+    {
+        final byte[] httpHeaders = ("HTTP/1.1 200 OK" + NEWLINE +
+                "Date: " + date + NEWLINE +
+                "Server: Apache/2.4.18 (Ubuntu)" + NEWLINE +
+                "Content-Type: " + contentType + NEWLINE +
+                "Content-Length: " + body.length + NEWLINE +
+                "Connection: close" + NEWLINE + NEWLINE).getBytes(StandardCharsets.US_ASCII);
+        final byte[] content = new byte[httpHeaders.length + body.length];
+        System.arraycopy(httpHeaders, 0, content, 0, httpHeaders.length);
+        System.arraycopy(body, 0, content, httpHeaders.length, body.length);
+        return content;
+    }
+
+    private byte[] buildMetadata(final String uri, final String date, final Random rnd)
+    {
+        final byte[] content = ("fetchTimeMs: " + rnd.nextInt(5000) + NEWLINE).getBytes(StandardCharsets.UTF_8);
+        final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        headers.put("WARC-Type", "metadata");
+        headers.put("WARC-Target-URI", uri);
+        headers.put("WARC-Date", date);
+        headers.put("WARC-Record-ID", randomRecordId(rnd));
+        headers.put("Content-Type", "application/warc-fields");
+        return buildRecord(headers, content);
+    }
+
+    private byte[] buildRecord(final Map<String, String> headers, final byte[] content)
+    {
+        final StringBuilder header = new StringBuilder(mWarcVersion.toString()).append(NEWLINE);
+        for (final Map.Entry<String, String> entry : headers.entrySet()) {
+            header.append(entry.getKey()).append(": ").append(entry.getValue()).append(NEWLINE);
+        }
+        header.append("Content-Length: ").append(content.length).append(NEWLINE).append(NEWLINE);
+
+        final byte[] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] trailer = (NEWLINE + NEWLINE).getBytes(StandardCharsets.US_ASCII);
+        final byte[] record = new byte[headerBytes.length + content.length + trailer.length];
+        System.arraycopy(headerBytes, 0, record, 0, headerBytes.length);
+        System.arraycopy(content, 0, record, headerBytes.length, content.length);
+        System.arraycopy(trailer, 0, record, headerBytes.length + content.length, trailer.length);
+        return record;
+    }
+
+    private String pickCharset(final Random rnd)
+    {
+        double total = 0.0;
+        for (final double weight : mCharsets.values()) {
+            total += weight;
+        }
+        double r = rnd.nextDouble() * total;
+        String charset = "UTF-8";
+        for (final Map.Entry<String, Double> entry : mCharsets.entrySet()) {
+            charset = entry.getKey();
+            r -= entry.getValue();
+            if (r < 0) {
+                break;
+            }
+        }
+        return charset;
+    }
+
+    /**
+     * Generate HTML document of approximately the given size in the given charset.
+     * Words which cannot be represented in the charset are replaced by plain ASCII words.
+     */
+    private byte[] generateHtml(final int size, final Charset charset, final Random rnd)
+    {
+        final String[] words;
+        final String name = charset.name().toLowerCase();
+        if (name.contains("1251") || name.startsWith("koi8")) {
+            words = CYRILLIC_WORDS;
+        } else if (name.contains("jis") || name.startsWith("euc") || name.startsWith("gb") || name.equals("big5")) {
+            words = CJK_WORDS;
+        } else {
+            words = LATIN_WORDS;
+        }
+
+        final StringBuilder html = new StringBuilder(size + 256);
+        html.append("<!DOCTYPE html>\n<html><head><title>").append(words[rnd.nextInt(words.length)])
+                .append("</title></head>\n<body>\n");
+        // estimate two bytes per character on average for non-ASCII charsets
+        final int targetChars = words == LATIN_WORDS ? size : size / 2;
+        while (html.length() < targetChars) {
+            html.append("<p>");
+            final int numWords = 10 + rnd.nextInt(100);
+            for (int i = 0; i < numWords; ++i) {
+                final String word = words[rnd.nextInt(words.length)];
+                html.append(charset.newEncoder().canEncode(word) ? word : "ascii").append(' ');
+            }
+            html.append("</p>\n");
+        }
+        html.append("</body></html>\n");
+        return html.toString().getBytes(charset);
+    }
+
+    private static String randomRecordId(final Random rnd)
+    {
+        return "<urn:uuid:" + new UUID(rnd.nextLong(), rnd.nextLong()) + ">";
+    }
+
+    @Override
+    @SuppressWarnings({"static-access", "Duplicates"})
+    public int run(final String[] args) throws Exception
+    {
+        final Options options = new Options();
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(OUTPUT_OPTION[0]).
+                withDescription("Output directory").
+                isRequired().
+                create(OUTPUT_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(RECORDS_OPTION[0]).
+                withDescription("Number of response records (default: 1000)").
+                create(RECORDS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(FILES_OPTION[0]).
+                withDescription("Number of WARC files (default: 1)").
+                create(FILES_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("BYTES").
+                hasArg().
+                withLongOpt(SIZE_OPTION[0]).
+                withDescription("Median response body size (default: 16384)").
+                create(SIZE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("SIGMA").
+                hasArg().
+                withLongOpt(SIZE_SIGMA_OPTION[0]).
+                withDescription("Sigma of the log-normal body size distribution (default: 1.0)").
+                create(SIZE_SIGMA_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("CHARSET:WEIGHT,...").
+                hasArg().
+                withLongOpt(CHARSETS_OPTION[0]).
+                withDescription("Charset mix of text responses (default: UTF-8:1)").
+                create(CHARSETS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("FRACTION").
+                hasArg().
+                withLongOpt(BINARY_OPTION[0]).
+                withDescription("Fraction of binary responses (default: 0.05)").
+                create(BINARY_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("FRACTION").
+                hasArg().
+                withLongOpt(REQUEST_OPTION[0]).
+                withDescription("Fraction of responses with request record (default: 0.5)").
+                create(REQUEST_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("FRACTION").
+                hasArg().
+                withLongOpt(METADATA_OPTION[0]).
+                withDescription("Fraction of responses with metadata record (default: 0.1)").
+                create(METADATA_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("VERSION").
+                hasArg().
+                withLongOpt(WARC_VERSION_OPTION[0]).
+                withDescription("WARC version (1.0 or 0.18, default: 1.0)").
+                create(WARC_VERSION_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(GZIP_OPTION[0]).
+                withDescription("Compress each record as a separate gzip member").
+                create(GZIP_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("SEED").
+                hasArg().
+                withLongOpt(SEED_OPTION[0]).
+                withDescription("Random seed (default: 42)").
+                create(SEED_OPTION[1]));
+
+        final CommandLine cmdline = parseCmdline(options, args);
+        if (null == cmdline) {
+            return ERROR;
+        }
+
+        final Path outputPath = new Path(cmdline.getOptionValue(OUTPUT_OPTION[0]));
+        setNumRecords(Long.parseLong(cmdline.getOptionValue(RECORDS_OPTION[0], "1000")));
+        setNumFiles(Integer.parseInt(cmdline.getOptionValue(FILES_OPTION[0], "1")));
+        setSizeDistribution(Integer.parseInt(cmdline.getOptionValue(SIZE_OPTION[0], "16384")),
+                Double.parseDouble(cmdline.getOptionValue(SIZE_SIGMA_OPTION[0], "1.0")));
+        setCharsets(parseCharsets(cmdline.getOptionValue(CHARSETS_OPTION[0], "UTF-8:1")));
+        setBinaryFraction(Double.parseDouble(cmdline.getOptionValue(BINARY_OPTION[0], "0.05")));
+        setRequestFraction(Double.parseDouble(cmdline.getOptionValue(REQUEST_OPTION[0], "0.5")));
+        setMetadataFraction(Double.parseDouble(cmdline.getOptionValue(METADATA_OPTION[0], "0.1")));
+        setWarcVersion("0.18".equals(cmdline.getOptionValue(WARC_VERSION_OPTION[0])) ?
+                WarcHeader.WarcVersion.WARC018 : WarcHeader.WarcVersion.WARC10);
+        setGzip(cmdline.hasOption(GZIP_OPTION[0]));
+        setSeed(Long.parseLong(cmdline.getOptionValue(SEED_OPTION[0], "42")));
+
+        final long bytes = generate(outputPath.getFileSystem(getConf()), outputPath);
+        LOG.info(String.format("Wrote %d bytes of synthetic WARC data to %s", bytes, outputPath));
+
+        return SUCCESS;
+    }
+
+    /**
+     * Parse charset mix specification of the form <code>CHARSET:WEIGHT,...</code>.
+     *
+     * @param spec charset mix specification
+     * @return map of charset names to weights
+     */
+    static Map<String, Double> parseCharsets(final String spec)
+    {
+        final LinkedHashMap<String, Double> charsets = new LinkedHashMap<>();
+        for (final String part : spec.split(",")) {
+            final String[] pieces = part.trim().split(":", 2);
+            if (!Charset.isSupported(pieces[0])) {
+                throw new IllegalArgumentException("Unsupported charset '" + pieces[0] + "'");
+            }
+            charsets.put(pieces[0], pieces.length > 1 ? Double.parseDouble(pieces[1]) : 1.0);
+        }
+        return charsets;
+    }
+
+    private static SimpleDateFormat createDateFormat()
+    {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+
+    /**
+     * Random source, clock and record counter shared across all files of one generation run.
+     */
+    private static final class GeneratorState
+    {
+        final Random rnd;
+        final SimpleDateFormat dateFormat = createDateFormat();
+        long timestamp = START_TIMESTAMP;
+        long recordNum = 0;
+
+        GeneratorState(final long seed)
+        {
+            rnd = new Random(seed);
+        }
+
+        String formatDate()
+        {
+            return dateFormat.format(new Date(timestamp));
+        }
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        System.exit(ToolRunner.run(new SyntheticWarcGenerator(), args));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.inputformats;
+
+import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReaderWrapper;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Input format which packs multiple (small) WARC files into one split up to a target size,
+ * preferring files on the same node and rack. Records are read file by file with
+ * the {@link WarcInputFormat.WarcRecordReader} of the wrapped input format.
+ *
+ * @author Janek Bevendorff
+ */
+public abstract class CombineWarcInputFormat extends CombineFileInputFormat<LongWritable, WarcRecord>
+{
+    /**
+     * Configuration key for the target split size in bytes (used if
+     * <code>mapreduce.input.fileinputformat.split.maxsize</code> is not set).
+     */
+    public static final String SPLIT_SIZE_KEY = "mapfile.combine.split.size";
+    public static final long DEFAULT_SPLIT_SIZE = 512L * 1024 * 1024;
+
+    private static final String WARC_INPUT_FORMAT_KEY = "mapfile.combine.warc.inputformat";
+
+    private final Class<? extends WarcInputFormat> mWarcInputFormat;
+
+    /**
+     * Constructor.
+     *
+     * @param warcInputFormat input format for reading individual files
+     */
+    public CombineWarcInputFormat(final Class<? extends WarcInputFormat> warcInputFormat)
+    {
+        mWarcInputFormat = warcInputFormat;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(final JobContext job) throws IOException
+    {
+        final Configuration conf = job.getConfiguration();
+        if (null == conf.get(FileInputFormat.SPLIT_MAXSIZE)) {
+            setMaxSplitSize(conf.getLong(SPLIT_SIZE_KEY, DEFAULT_SPLIT_SIZE));
+        }
+        return super.getSplits(job);
+    }
+
+    @Override
+    public RecordReader<LongWritable, WarcRecord> createRecordReader(final InputSplit split, final TaskAttemptContext context)
+            throws IOException
+    {
+        context.getConfiguration().setClass(WARC_INPUT_FORMAT_KEY, mWarcInputFormat, WarcInputFormat.class);
+        return new CombineFileRecordReader<>((CombineFileSplit) split, context, WarcRecordReaderWrapper.class);
+    }
+
+    @Override
+    protected boolean isSplitable(final JobContext context, final Path filename)
+    {
+        return false;
+    }
+
+    /**
+     * Reader for a single file of a combined split.
+     */
+    private static class WarcRecordReaderWrapper extends CombineFileRecordReaderWrapper<LongWritable, WarcRecord>
+    {
+        public WarcRecordReaderWrapper(final CombineFileSplit split, final TaskAttemptContext context, final Integer idx)
+                throws IOException, InterruptedException
+        {
+            super(ReflectionUtils.newInstance(context.getConfiguration().getClass(
+                    WARC_INPUT_FORMAT_KEY, CommonCrawlInputFormat.class, WarcInputFormat.class), context.getConfiguration()),
+                    split, context, idx);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.inputformats;
+
+import de.webis.chatnoir2.mapfile_generator.mapreduce.MapReduceBase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splittable input format for reading generated MapFiles (e.g. by downstream indexing jobs).
+ *
+ * Input paths may be MapFile output directories (containing <code>data-r-NNNNN</code> MapFiles)
+ * or individual MapFiles. The data file of each MapFile is split at positions taken from its
+ * <code>index</code> file, which for block-compressed MapFiles point to sync markers preceding
+ * a block. Records are emitted as UUID string keys (also for binary UUID keys) and JSON document values.
+ *
+ * With <code>mapfile.input.lazy=true</code>, values are only read and decompressed when requested
+ * via {@link RecordReader#getCurrentValue()}, so jobs that only need some documents (e.g. filtered
+ * by UUID) skip the decompression of all others.
+ *
+ * @author Janek Bevendorff
+ */
+public class MapFileInputFormat extends FileInputFormat<Text, Text>
+{
+    /**
+     * Configuration key for the name of the MapFiles to read (default: data).
+     */
+    public static final String NAME_KEY = "mapfile.input.name";
+
+    /**
+     * Configuration key for enabling lazy value decoding.
+     */
+    public static final String LAZY_DECODE_KEY = "mapfile.input.lazy";
+
+    /**
+     * Split slop as used by {@link FileInputFormat}.
+     */
+    private static final double SPLIT_SLOP = 1.1;
+
+    @Override
+    protected List<FileStatus> listStatus(final JobContext job) throws IOException
+    {
+        final String name = job.getConfiguration().get(NAME_KEY, MapReduceBase.DATA_OUTPUT_NAME);
+        final List<FileStatus> result = new ArrayList<>();
+        for (final FileStatus status : super.listStatus(job)) {
+            final Path path = status.getPath();
+            if (status.isDirectory()) {
+                // MapFile inside an output directory
+                if (!path.getName().startsWith(name + "-")) {
+                    continue;
+                }
+                final Path dataFile = new Path(path, MapFile.DATA_FILE_NAME);
+                final FileSystem fs = dataFile.getFileSystem(job.getConfiguration());
+                if (fs.exists(dataFile)) {
+                    result.add(fs.getFileStatus(dataFile));
+                }
+            } else if (path.getName().equals(MapFile.DATA_FILE_NAME)) {
+                // MapFile given directly as input path
+                result.add(status);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(final JobContext job) throws IOException
+    {
+        final Configuration conf = job.getConfiguration();
+        final long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        final long maxSize = getMaxSplitSize(job);
+
+        final List<FileStatus> files = listStatus(job);
+        final List<InputSplit> splits = new ArrayList<>();
+        for (final FileStatus file : files) {
+            final Path path = file.getPath();
+            final long length = file.getLen();
+            if (0 == length) {
+                continue;
+            }
+            final FileSystem fs = path.getFileSystem(conf);
+            final BlockLocation[] blocks = fs.getFileBlockLocations(file, 0, length);
+            final long splitSize = computeSplitSize(file.getBlockSize(), minSize, maxSize);
+
+            long splitStart = 0;
+            for (final long position : readIndexPositions(path.getParent(), conf)) {
+                if (position >= length) {
+                    break;
+                }
+                if (position - splitStart >= splitSize && (double) (length - splitStart) / splitSize > SPLIT_SLOP) {
+                    splits.add(makeSplit(path, splitStart, position - splitStart, blocks));
+                    splitStart = position;
+                }
+            }
+            splits.add(makeSplit(path, splitStart, length - splitStart, blocks));
+        }
+
+        conf.setLong(NUM_INPUT_FILES, files.size());
+        return splits;
+    }
+
+    private FileSplit makeSplit(final Path path, final long start, final long length, final BlockLocation[] blocks)
+            throws IOException
+    {
+        final int blockIndex = getBlockIndex(blocks, start);
+        return makeSplit(path, start, length, blocks[blockIndex].getHosts(), blocks[blockIndex].getCachedHosts());
+    }
+
+    /**
+     * Read distinct data file positions from a MapFile index in ascending order.
+     *
+     * @param mapFile MapFile directory
+     * @param conf Hadoop configuration
+     * @return positions (empty if the MapFile has no index)
+     */
+    private static List<Long> readIndexPositions(final Path mapFile, final Configuration conf) throws IOException
+    {
+        final List<Long> positions = new ArrayList<>();
+        final Path indexFile = new Path(mapFile, MapFile.INDEX_FILE_NAME);
+        if (!indexFile.getFileSystem(conf).exists(indexFile)) {
+            return positions;
+        }
+
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(indexFile))) {
+            final Writable key = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), conf);
+            final LongWritable position = new LongWritable();
+            long last = -1;
+            while (reader.next(key, position)) {
+                if (position.get() > last) {
+                    positions.add(position.get());
+                    last = position.get();
+                }
+            }
+        }
+        return positions;
+    }
+
+    @Override
+    public RecordReader<Text, Text> createRecordReader(final InputSplit split, final TaskAttemptContext context)
+    {
+        return new MapFileRecordReader();
+    }
+
+    /**
+     * Record reader for MapFile data file splits. Follows the semantics of
+     * {@link org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader}: a split starts at the
+     * first sync marker after its start and contains all records up to the first sync marker after its end.
+     */
+    public static class MapFileRecordReader extends RecordReader<Text, Text>
+    {
+        private SequenceFile.Reader mReader;
+        private long mStart;
+        private long mEnd;
+        private boolean mMore = true;
+        private boolean mLazy = false;
+        private Writable mKey;
+        private final Text mTextKey = new Text();
+        private final Text mValue = new Text();
+        private boolean mValueRead = false;
+
+        @Override
+        public void initialize(final InputSplit split, final TaskAttemptContext context) throws IOException
+        {
+            final FileSplit fileSplit = (FileSplit) split;
+            final Configuration conf = context.getConfiguration();
+            mLazy = conf.getBoolean(LAZY_DECODE_KEY, false);
+
+            mReader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(fileSplit.getPath()));
+            if (!Text.class.equals(mReader.getValueClass())) {
+                throw new IOException("Unsupported value class " + mReader.getValueClassName() +
+                        " in " + fileSplit.getPath());
+            }
+            mKey = (Writable) ReflectionUtils.newInstance(mReader.getKeyClass(), conf);
+
+            mEnd = fileSplit.getStart() + fileSplit.getLength();
+            if (fileSplit.getStart() > mReader.getPosition()) {
+                mReader.sync(fileSplit.getStart());
+            }
+            mStart = mReader.getPosition();
+            mMore = mStart < mEnd;
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException
+        {
+            if (!mMore) {
+                return false;
+            }
+            long pos = mReader.getPosition();
+            if (!mReader.next(mKey)) {
+                mMore = false;
+                return false;
+            }
+            if (mLazy && mReader.isBlockCompressed()) {
+                // unread values of the previous block are only skipped when the next block is read,
+                // so use the position after reading the key (splits end at sync markers from the index)
+                pos = mReader.getPosition();
+            }
+            if (pos >= mEnd && mReader.syncSeen()) {
+                mMore = false;
+                return false;
+            }
+
+            if (mKey instanceof Text) {
+                mTextKey.set((Text) mKey);
+            } else {
+                mTextKey.set(mKey.toString());
+            }
+            mValueRead = false;
+            if (!mLazy) {
+                readValue();
+            }
+            return true;
+        }
+
+        private void readValue() throws IOException
+        {
+            mReader.getCurrentValue((Writable) mValue);
+            mValueRead = true;
+        }
+
+        @Override
+        public Text getCurrentKey()
+        {
+            return mTextKey;
+        }
+
+        @Override
+        public Text getCurrentValue() throws IOException
+        {
+            if (!mValueRead) {
+                readValue();
+            }
+            return mValue;
+        }
+
+        @Override
+        public float getProgress() throws IOException
+        {
+            if (mEnd == mStart) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (mReader.getPosition() - mStart) / (float) (mEnd - mStart));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (null != mReader) {
+                mReader.close();
+            }
+        }
+    }
+}
@@ -18,7 +18,20 @@ package de.webis.chatnoir2.mapfile_generator.inputformats;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
+import de.webis.chatnoir2.mapfile_generator.jfr.RecordEvents;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.MapReduceBase;
+import de.webis.chatnoir2.mapfile_generator.mapreduce.StageProfiler;
+import de.webis.chatnoir2.mapfile_generator.util.BaseGzipMemberInputStream;
+import de.webis.chatnoir2.mapfile_generator.util.GzipMemberInputStream;
+import de.webis.chatnoir2.mapfile_generator.util.ParallelGzipMemberInputStream;
 import de.webis.chatnoir2.mapfile_generator.warc.WarcHeader;
 import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
 import org.apache.hadoop.conf.Configuration;
@@ -31,15 +44,62 @@ import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.log4j.Logger;
 
 public abstract class WarcInputFormat extends FileInputFormat<LongWritable, WarcRecord>
 {
+    private static final Logger LOG = Logger.getLogger(WarcInputFormat.class);
+
+    /**
+     * Configuration key prefix for the estimated compression ratio of a codec, followed by the
+     * codec's default file extension (e.g. <code>mapfile.splits.compression.ratio.gz</code>).
+     */
+    public static final String COMPRESSION_RATIO_KEY_PREFIX = "mapfile.splits.compression.ratio";
+
+    /**
+     * Configuration key for the number of concurrently running map tasks assumed for makespan prediction.
+     */
+    public static final String MAP_SLOTS_KEY = "mapfile.splits.map.slots";
+
+    /**
+     * Configuration key for the uncompressed bytes per second a map task processes (for makespan prediction).
+     */
+    public static final String MAP_THROUGHPUT_KEY = "mapfile.splits.map.throughput";
+
+    /**
+     * Configuration key for the number of threads inflating members of gzip files concurrently
+     * (default: 0, members are inflated one after another by the reading thread).
+     */
+    public static final String INFLATE_THREADS_KEY = "mapfile.gzip.inflate.threads";
+
+    /**
+     * Configuration key for the maximum uncompressed size of gzip members inflated concurrently.
+     * Larger members are inflated by the reading thread.
+     */
+    public static final String INFLATE_MEMBER_SIZE_KEY = "mapfile.gzip.inflate.member.size";
+
+    /**
+     * Configuration key for the number of compressed bytes read ahead of the current member
+     * when inflating members concurrently.
+     */
+    public static final String INFLATE_READ_AHEAD_KEY = "mapfile.gzip.inflate.readahead";
+
+    private static final Map<String, Float> DEFAULT_COMPRESSION_RATIOS = new HashMap<>();
+    static {
+        DEFAULT_COMPRESSION_RATIOS.put(".gz", 4.0f);
+        DEFAULT_COMPRESSION_RATIOS.put(".bz2", 5.0f);
+        DEFAULT_COMPRESSION_RATIOS.put(".deflate", 4.0f);
+        DEFAULT_COMPRESSION_RATIOS.put(".lz4", 2.5f);
+        DEFAULT_COMPRESSION_RATIOS.put(".snappy", 2.0f);
+    }
+
     private final WarcHeader.WarcVersion mWarcVersion;
     private String mWarcRecordIdField = null;
 
@@ -78,6 +138,83 @@ public abstract class WarcInputFormat extends FileInputFormat<LongWritable, Warc
         return false;
     }
 
+    /**
+     * Get input splits and log the predicted map phase makespan. The job submitter starts map tasks
+     * in order of descending (compressed) split length, so the prediction simulates that order with
+     * each split weighted by its estimated uncompressed size.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException
+    {
+        final List<InputSplit> splits = super.getSplits(job);
+        if (splits.isEmpty()) {
+            return splits;
+        }
+
+        final Configuration conf = job.getConfiguration();
+        final CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        final Map<InputSplit, Long> weights = new HashMap<>(splits.size() * 4 / 3 + 1);
+        long total = 0;
+        long largest = 0;
+        for (final InputSplit split : splits) {
+            final long weight = getEstimatedUncompressedSize((FileSplit) split, codecs, conf);
+            weights.put(split, weight);
+            total += weight;
+            largest = Math.max(largest, weight);
+        }
+
+        // same (stable) order as JobSubmitter.writeNewSplits()
+        final List<InputSplit> submitted = new ArrayList<>(splits);
+        submitted.sort(Comparator.comparingLong((InputSplit s) -> ((FileSplit) s).getLength()).reversed());
+
+        final int slots = conf.getInt(MAP_SLOTS_KEY, 100);
+        final long throughput = conf.getLong(MAP_THROUGHPUT_KEY, 10L * 1024 * 1024);
+        final long predicted = predictMakespan(submitted, weights, slots);
+        LOG.info(String.format("Predicted map phase makespan with %d slots at %d bytes/s: %d s " +
+                        "(lower bound: %d s, largest split: %d s)",
+                slots, throughput, predicted / throughput,
+                Math.max(total / Math.max(1, slots), largest) / throughput, largest / throughput));
+
+        return splits;
+    }
+
+    /**
+     * Estimate uncompressed size of a split from its length and codec.
+     */
+    private long getEstimatedUncompressedSize(final FileSplit split, final CompressionCodecFactory codecs,
+                                              final Configuration conf)
+    {
+        final CompressionCodec splitCodec = codecs.getCodec(split.getPath());
+        if (null == splitCodec) {
+            return split.getLength();
+        }
+        final String ext = splitCodec.getDefaultExtension();
+        final Float defaultRatio = DEFAULT_COMPRESSION_RATIOS.get(ext);
+        final float ratio = conf.getFloat(COMPRESSION_RATIO_KEY_PREFIX + ext, null != defaultRatio ? defaultRatio : 3.0f);
+        return (long) (split.getLength() * ratio);
+    }
+
+    /**
+     * Simulate greedy list scheduling of the given splits in order on a fixed number of slots.
+     *
+     * @return predicted makespan in (uncompressed) bytes
+     */
+    private static long predictMakespan(final List<InputSplit> splits, final Map<InputSplit, Long> weights,
+                                        final int slots)
+    {
+        final PriorityQueue<Long> finishTimes = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, slots); ++i) {
+            finishTimes.add(0L);
+        }
+        long makespan = 0;
+        for (final InputSplit split : splits) {
+            final long finish = finishTimes.poll() + weights.get(split);
+            makespan = Math.max(makespan, finish);
+            finishTimes.add(finish);
+        }
+        return makespan;
+    }
+
     public class WarcRecordReader extends RecordReader<LongWritable, WarcRecord>
     {
         private CompressionCodecFactory compressionCodecs = null;
@@ -90,6 +227,12 @@ public abstract class WarcInputFormat extends FileInputFormat<LongWritable, Warc
         private CompressionCodec codec;
         private Decompressor decompressor;
         private DataInputStream in;
+        private FSDataInputStream rawIn;
+        private BaseGzipMemberInputStream gzipIn = null;
+        private PushbackInputStream pushbackIn = null;
+        private boolean recordAligned = true;
+        private StageProfiler profiler = null;
+        private long bytesInPos = 0;
 
         public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException
         {
@@ -105,7 +248,21 @@ public abstract class WarcInputFormat extends FileInputFormat<LongWritable, Warc
             FileSystem fs = file.getFileSystem(job);
             FSDataInputStream fileIn = fs.open(split.getPath());
 
-            if (isCompressedInput()) {
+            rawIn = fileIn;
+            if (codec instanceof GzipCodec) {
+                // read gzip members ourselves to keep track of exact record offsets
+                final int inflateThreads = job.getInt(INFLATE_THREADS_KEY, 0);
+                if (inflateThreads > 1) {
+                    gzipIn = new ParallelGzipMemberInputStream(fileIn, 0, inflateThreads,
+                            job.getInt(INFLATE_MEMBER_SIZE_KEY, 8 * 1024 * 1024),
+                            job.getLong(INFLATE_READ_AHEAD_KEY, 32 * 1024 * 1024));
+                } else {
+                    gzipIn = new GzipMemberInputStream(fileIn, 0);
+                }
+                pushbackIn = new PushbackInputStream(gzipIn);
+                in = new DataInputStream(pushbackIn);
+                filePosition = fileIn;
+            } else if (isCompressedInput()) {
                 in = new DataInputStream(codec.createInputStream(fileIn, decompressor));
                 filePosition = fileIn;
             } else {
@@ -115,6 +272,8 @@ public abstract class WarcInputFormat extends FileInputFormat<LongWritable, Warc
             }
 
             this.pos = start;
+            bytesInPos = start;
+            profiler = new StageProfiler(context, true);
         }
 
         private boolean isCompressedInput()
@@ -125,7 +284,9 @@ public abstract class WarcInputFormat extends FileInputFormat<LongWritable, Warc
         private long getFilePosition() throws IOException
         {
             long retVal;
-            if (isCompressedInput() && null != filePosition) {
+            if (null != gzipIn) {
+                retVal = gzipIn.getCompressedPos();
+            } else if (isCompressedInput() && null != filePosition) {
                 retVal = filePosition.getPos();
             } else {
                 retVal = pos;
@@ -133,17 +294,119 @@ public abstract class WarcInputFormat extends FileInputFormat<LongWritable, Warc
             return retVal;
         }
 
+        /**
+         * Skip blank lines between the end of the previous record and the beginning of the next one.
+         *
+         * @return whether the next record starts at a new gzip member or at the end of the file
+         */
+        private boolean skipRecordTrailer() throws IOException
+        {
+            if (null != gzipIn) {
+                final long member = gzipIn.getMemberIndex();
+                int b;
+                //noinspection StatementWithEmptyBody
+                while ((b = pushbackIn.read()) == '\r' || b == '\n') ;
+                if (b != -1) {
+                    pushbackIn.unread(b);
+                }
+                return b == -1 || gzipIn.getMemberIndex() != member;
+            }
+
+            if (!isCompressedInput()) {
+                int b;
+                long p;
+                do {
+                    p = rawIn.getPos();
+                    b = rawIn.read();
+                } while (b == '\r' || b == '\n');
+                if (b != -1) {
+                    rawIn.seek(p);
+                }
+                pos = rawIn.getPos();
+                return true;
+            }
+
+            return false;
+        }
+
         public boolean nextKeyValue() throws IOException
         {
             if (key == null) {
                 key = new LongWritable();
             }
+
+            long recordStart = -1;
+            long startMember = -1;
+            if (null != gzipIn) {
+                // make sure the member of the next record has been started
+                final int b = pushbackIn.read();
+                if (b == -1) {
+                    value = null;
+                    return false;
+                }
+                pushbackIn.unread(b);
+                recordStart = gzipIn.getMemberStart();
+                startMember = gzipIn.getMemberIndex();
+                pos = recordStart;
+            } else if (!isCompressedInput()) {
+                recordStart = pos;
+            }
+
             key.set(pos);
+            final boolean sampling = profiler.nextRecord();
+            final long inflateNanos = null != gzipIn ? gzipIn.getInflateNanos() : 0;
+            if (null != gzipIn) {
+                gzipIn.setTimingEnabled(sampling);
+            }
+            final long t = profiler.start();
+            final Object readEvent = RecordEvents.begin(RecordEvents.Type.READ);
             value = WarcRecord.readNextWarcRecord(in, mWarcVersion);
-            if (null != mWarcRecordIdField && null != value) {
+            profiler.stop(MapReduceBase.PerformanceCounters.READ_NANOS, t);
+            if (null != gzipIn) {
+                profiler.addNanos(MapReduceBase.PerformanceCounters.DECOMPRESSION_NANOS,
+                        gzipIn.getInflateNanos() - inflateNanos);
+            }
+            if (null == value) {
+                countBytesIn();
+                return false;
+            }
+            profiler.recordSize(value.getByteContent().length);
+
+            // set ID field first, so the event carries the same record ID as the mapper's events
+            if (null != mWarcRecordIdField) {
                 value.setRecordIdField(mWarcRecordIdField);
             }
-            return value != null;
+            if (RecordEvents.shouldCommit(readEvent)) {
+                RecordEvents.commit(readEvent, value.getRecordId(), value.getRecordType(),
+                        value.getByteContent().length, null);
+            }
+
+            final long endMember = null != gzipIn ? gzipIn.getMemberIndex() : -1;
+            final boolean nextAligned = skipRecordTrailer();
+            if (null != gzipIn) {
+                if (recordAligned && nextAligned && startMember == endMember) {
+                    final long recordEnd = gzipIn.isEof() ? gzipIn.getCompressedPos() : gzipIn.getMemberStart();
+                    value.setSourcePosition(recordStart, recordEnd - recordStart);
+                } else {
+                    value.setSourcePosition(recordStart, -1);
+                }
+            } else if (nextAligned) {
+                value.setSourcePosition(recordStart, pos - recordStart);
+            }
+            recordAligned = nextAligned;
+            countBytesIn();
+
+            return true;
+        }
+
+        /**
+         * Add bytes consumed from the input file since the last call to the input byte counter.
+         */
+        private void countBytesIn() throws IOException
+        {
+            final long p = null != gzipIn ? gzipIn.getCompressedPos() : getFilePosition();
+            profiler.increment(MapReduceBase.PerformanceCounters.BYTES_IN, p - bytesInPos);
+            bytesInPos = p;
         }
 
         @Override
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event definitions. This class must only be loaded if the <code>jdk.jfr</code> API is
+ * available, which is guaranteed by {@link RecordEvents}.
+ *
+ * @author Janek Bevendorff
+ */
+final class JfrRecordEvents
+{
+    private JfrRecordEvents()
+    {
+    }
+
+    static Object begin(final RecordEvents.Type type)
+    {
+        final RecordEvent event;
+        switch (type) {
+            case READ:
+                event = new RecordReadEvent();
+                break;
+            case CHARSET_DETECTION:
+                event = new CharsetDetectionEvent();
+                break;
+            case SERIALIZATION:
+                event = new SerializationEvent();
+                break;
+            default:
+                event = new MergeEvent();
+        }
+        event.begin();
+        return event;
+    }
+
+    static boolean endAndCheck(final Object event)
+    {
+        final RecordEvent e = (RecordEvent) event;
+        e.end();
+        return e.shouldCommit();
+    }
+
+    static void commit(final Object event, final String recordId, final String warcType,
+                       final long contentLength, final String encoding)
+    {
+        final RecordEvent e = (RecordEvent) event;
+        e.end();
+        if (e.shouldCommit()) {
+            e.recordId = recordId;
+            e.warcType = warcType;
+            e.contentLength = contentLength;
+            e.encoding = encoding;
+            e.commit();
+        }
+    }
+
+    @Category({"ChatNoir", "MapFile Generator"})
+    @StackTrace(false)
+    static abstract class RecordEvent extends Event
+    {
+        @Label("Record ID")
+        String recordId;
+
+        @Label("WARC Type")
+        String warcType;
+
+        @Label("Content Length")
+        @DataAmount
+        long contentLength = -1;
+
+        @Label("Encoding")
+        String encoding;
+    }
+
+    @Name("de.webis.chatnoir2.RecordRead")
+    @Label("WARC Record Read")
+    @Description("Reading and parsing a single WARC record")
+    static class RecordReadEvent extends RecordEvent
+    {
+    }
+
+    @Name("de.webis.chatnoir2.CharsetDetection")
+    @Label("Charset Detection")
+    @Description("Detecting the content encoding of a single record")
+    static class CharsetDetectionEvent extends RecordEvent
+    {
+    }
+
+    @Name("de.webis.chatnoir2.Serialization")
+    @Label("Document Serialization")
+    @Description("Building and serializing the JSON document of a single record")
+    static class SerializationEvent extends RecordEvent
+    {
+    }
+
+    @Name("de.webis.chatnoir2.MapFileMerge")
+    @Label("MapFile Merge Step")
+    @Description("Merging a single MapFile entry into the output MapFile")
+    static class MergeEvent extends RecordEvent
+    {
+    }
+}
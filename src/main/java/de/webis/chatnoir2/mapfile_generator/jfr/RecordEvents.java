@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.jfr;
+
+/**
+ * Entry point for emitting custom Java Flight Recorder events for individual records.
+ *
+ * Events are only created if the <code>jdk.jfr</code> API is available in the running JVM
+ * (OpenJDK 8u262+ or Java 11+). Otherwise, all methods are no-ops and none of the event
+ * classes is ever loaded. If the API is available but no recording is active, creating an
+ * event costs no more than an object allocation, which the JIT usually eliminates, and event
+ * fields are only filled if the event will actually be committed.
+ *
+ * Usage:
+ * <pre>
+ *     final Object event = RecordEvents.begin(RecordEvents.Type.READ);
+ *     // ... do work ...
+ *     RecordEvents.commit(event, recordId, warcType, contentLength, encoding);
+ * </pre>
+ *
+ * Events can be disabled entirely with the system property <code>mapfile.jfr.disable=true</code>.
+ *
+ * @author Janek Bevendorff
+ */
+public final class RecordEvents
+{
+    /**
+     * Event types.
+     */
+    public enum Type {
+        READ,
+        CHARSET_DETECTION,
+        SERIALIZATION,
+        MERGE
+    }
+
+    private static final boolean ENABLED = isJfrAvailable();
+
+    private RecordEvents()
+    {
+    }
+
+    /**
+     * @return whether JFR events are emitted at all
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Create a new event and start timing it.
+     *
+     * @param type event type
+     * @return opaque event handle (null if events are disabled)
+     */
+    public static Object begin(final Type type)
+    {
+        if (!ENABLED) {
+            return null;
+        }
+        return JfrRecordEvents.begin(type);
+    }
+
+    /**
+     * Stop timing an event and commit it, if it is enabled in the current recording.
+     *
+     * @param event event handle returned by {@link #begin(Type)}
+     * @param recordId record ID (may be null)
+     * @param warcType WARC record type (may be null)
+     * @param contentLength content length in bytes (-1 if unknown)
+     * @param encoding detected content encoding (may be null)
+     */
+    public static void commit(final Object event, final String recordId, final String warcType,
+                              final long contentLength, final String encoding)
+    {
+        if (!ENABLED || null == event) {
+            return;
+        }
+        JfrRecordEvents.commit(event, recordId, warcType, contentLength, encoding);
+    }
+
+    /**
+     * Stop timing an event and return whether it should be committed. Use this instead of
+     * {@link #commit(Object, String, String, long, String)} if event fields are expensive to compute.
+     *
+     * @param event event handle returned by {@link #begin(Type)}
+     * @return true if the event is recorded
+     */
+    public static boolean shouldCommit(final Object event)
+    {
+        return ENABLED && null != event && JfrRecordEvents.endAndCheck(event);
+    }
+
+    private static boolean isJfrAvailable()
+    {
+        if (Boolean.getBoolean("mapfile.jfr.disable")) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event", false, RecordEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -16,7 +16,7 @@
 
 package de.webis.chatnoir2.mapfile_generator.mapreduce;
 
-import de.webis.WebisUUID;
+import de.webis.chatnoir2.mapfile_generator.util.CachedUUIDGenerator;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -32,7 +32,7 @@ import java.util.UUID;
 public abstract class BaseMapper<K extends Writable, V extends Writable> extends Mapper<K, V, Text, Text> implements MapReduceBase
 {
     private String mUUIDPrefix = "";
-    private WebisUUID mUUIDGenerator;
+    private CachedUUIDGenerator mUUIDGenerator;
 
     protected String getUUIDPrefix()
     {
@@ -44,11 +44,24 @@ public abstract class BaseMapper<K extends Writable, V extends Writable> extends
         return mUUIDGenerator.generateUUID(internalId);
     }
 
+    /**
+     * Write the UUID string of the given internal ID as ASCII bytes into a buffer
+     * (without creating intermediate UUID or String objects).
+     *
+     * @param internalId internal record ID
+     * @param out output buffer with room for {@link CachedUUIDGenerator#UUID_STRING_LENGTH} bytes
+     * @param offset offset in the output buffer
+     */
+    protected void writeUUIDString(final String internalId, final byte[] out, final int offset)
+    {
+        mUUIDGenerator.writeUUIDString(internalId, out, offset);
+    }
+
     @Override
     protected void setup(final Context context) throws IOException, InterruptedException
     {
         super.setup(context);
         mUUIDPrefix    = context.getConfiguration().get("mapfile.uuid.prefix");
-        mUUIDGenerator = new WebisUUID(getUUIDPrefix());
+        mUUIDGenerator = new CachedUUIDGenerator(getUUIDPrefix());
     }
 }
\ No newline at end of file
@@ -44,7 +44,9 @@ public class FileNameMapper extends Mapper<Text, NullWritable, Text, Text> imple
     {
         Path path = new Path(key.toString());
 
-        if (!path.getName().startsWith(DATA_OUTPUT_NAME) && !path.getName().startsWith(URI_OUTPUT_NAME)) {
+        if (!path.getName().startsWith(DATA_OUTPUT_NAME) && !path.getName().startsWith(URI_OUTPUT_NAME) &&
+                !path.getName().startsWith(CONTENT_OUTPUT_NAME) && !path.getName().startsWith(META_OUTPUT_NAME) &&
+                !path.getName().startsWith(HOST_OUTPUT_NAME)) {
             // this is not a map file split
             return;
         }
@@ -16,6 +16,8 @@
 
 package de.webis.chatnoir2.mapfile_generator.mapreduce;
 
+import de.webis.chatnoir2.mapfile_generator.util.DeltaMapFiles;
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
 import de.webis.chatnoir2.mapfile_generator.util.MapFileMerger;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -25,6 +27,8 @@ import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 
 /**
@@ -32,6 +36,11 @@ import java.util.HashSet;
  */
 public class MapFileReducer extends Reducer<Text, Text, NullWritable, NullWritable> implements MapReduceBase
 {
+    /**
+     * Configuration key for merging a base MapFile with its deltas, where newer entries replace older ones.
+     */
+    public static final String OVERLAY_MERGE_KEY = "mapfile.merge.overlay";
+
     @Override
     public void reduce(final Text key, final Iterable<Text> values, final Context context) throws IOException
     {
@@ -52,6 +61,26 @@ public class MapFileReducer extends Reducer<Text, Text, NullWritable, NullWritab
         LOG.info("Merging output map files...");
         Path[] sourcePaths = paths.toArray(new Path[0]);
         MapFileMerger merger = new MapFileMerger(context);
+        if (key.toString().startsWith(HOST_OUTPUT_NAME)) {
+            // host index entries of all inputs (including deltas) complement each other
+            merger.setMaxMergedUUIDs(context.getConfiguration().getInt(
+                    HostIndex.CHUNK_SIZE_KEY, HostIndex.DEFAULT_CHUNK_SIZE));
+        } else if (context.getConfiguration().getBoolean(OVERLAY_MERGE_KEY, false)) {
+            // compaction of deltas: newest delta first, base last, first entry of a key wins
+            Arrays.sort(sourcePaths, Comparator.comparing(MapFileReducer::getDeltaName).reversed());
+            merger.setSkipDuplicateKeys(true);
+        } else {
+            merger.setSkipDuplicateKeys(key.toString().startsWith(CONTENT_OUTPUT_NAME));
+        }
         merger.merge(sourcePaths, false, outMapFile);
     }
+
+    /**
+     * Get name of the delta a MapFile belongs to (empty string for base MapFiles).
+     */
+    private static String getDeltaName(final Path mapFile)
+    {
+        final String parent = mapFile.getParent().getName();
+        return parent.startsWith(DeltaMapFiles.DELTA_PREFIX) ? parent : "";
+    }
 }
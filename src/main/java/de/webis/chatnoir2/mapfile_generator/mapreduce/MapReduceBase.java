@@ -35,9 +35,16 @@ public interface MapReduceBase
     String JSON_PAYLOAD_ENCODING = "encoding";
     String JSON_HEADERS_KEY      = "headers";
     String JSON_BODY_KEY         = "body";
+    String JSON_BODY_REF_KEY     = "body_ref";
+    String JSON_BODY_LENGTH_KEY  = "body_length";
+    String JSON_BODY_DIGEST_KEY  = "body_digest";
 
     String DATA_OUTPUT_NAME = "data";
     String URI_OUTPUT_NAME  = "uri";
+    String CDX_OUTPUT_NAME  = "cdx";
+    String CONTENT_OUTPUT_NAME = "content";
+    String META_OUTPUT_NAME = "meta";
+    String HOST_OUTPUT_NAME = "host";
 
     Logger LOG = Logger.getLogger(BaseMapper.class);
 
@@ -83,6 +90,122 @@ public interface MapReduceBase
         /**
          * Number of MapFile URI entries generated.
          */
-        MAPFILE_URI_ENTRIES
+        MAPFILE_URI_ENTRIES,
+
+        /**
+         * Number of CDX index lines generated.
+         */
+        CDX_ENTRIES,
+
+        /**
+         * Number of records without CDX entry, because they cannot be addressed individually.
+         */
+        CDX_SKIPPED_RECORDS,
+
+        /**
+         * Number of records whose body was replaced with a content reference.
+         */
+        DEDUP_REFERENCES,
+
+        /**
+         * Number of content entries not emitted by a mapper, because it had emitted them recently.
+         */
+        DEDUP_CONTENT_SKIPPED,
+
+        /**
+         * Number of MapFile content entries generated.
+         */
+        MAPFILE_CONTENT_ENTRIES,
+
+        /**
+         * Number of duplicate URI entries dropped by the map-side combiner.
+         */
+        URI_DUPLICATES_COMBINED,
+
+        /**
+         * Number of MapFile metadata entries generated.
+         */
+        MAPFILE_META_ENTRIES,
+
+        /**
+         * Number of MapFile host index entries (UUID list chunks) generated.
+         */
+        MAPFILE_HOST_ENTRIES,
+
+        /**
+         * Number of records whose charset was taken from the per-host charset cache.
+         */
+        CHARSET_CACHE_HITS,
+
+        /**
+         * Number of records whose host had no charset in the per-host charset cache.
+         */
+        CHARSET_CACHE_MISSES,
+
+        /**
+         * Number of records for which the cached charset of their host was not valid.
+         */
+        CHARSET_CACHE_REJECTIONS
+    }
+
+    /**
+     * Performance counters. Timings are only measured for sampled records
+     * and are given in nanoseconds.
+     */
+    enum PerformanceCounters {
+        /**
+         * Number of records for which timings were measured.
+         */
+        SAMPLED_RECORDS,
+
+        /**
+         * Time spent reading records (decompression and WARC parsing).
+         */
+        READ_NANOS,
+
+        /**
+         * Time spent inflating gzip input (part of {@link #READ_NANOS}).
+         */
+        DECOMPRESSION_NANOS,
+
+        /**
+         * Time spent detecting content charsets.
+         */
+        CHARSET_DETECTION_NANOS,
+
+        /**
+         * Time spent decoding or Base64-encoding record bodies.
+         */
+        BODY_ENCODING_NANOS,
+
+        /**
+         * Time spent building and serializing JSON documents.
+         */
+        JSON_NANOS,
+
+        /**
+         * Time spent writing map output.
+         */
+        WRITE_NANOS,
+
+        /**
+         * Bytes read from input files (compressed size for compressed input).
+         */
+        BYTES_IN,
+
+        /**
+         * Bytes of map output keys and values.
+         */
+        BYTES_OUT,
+
+        /**
+         * Record size histogram buckets (uncompressed WARC record content length).
+         */
+        RECORD_SIZE_UNDER_1KB,
+        RECORD_SIZE_UNDER_10KB,
+        RECORD_SIZE_UNDER_100KB,
+        RECORD_SIZE_UNDER_1MB,
+        RECORD_SIZE_UNDER_10MB,
+        RECORD_SIZE_10MB_OR_MORE
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.mapreduce;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.util.EnumMap;
+
+/**
+ * Low-overhead profiler for measuring cumulative time spent in individual
+ * processing stages. To keep the overhead of {@link System#nanoTime()} negligible,
+ * only every n-th record is timed (configured by <code>mapfile.profiling.sample.rate</code>,
+ * 0 to disable timings). Byte counts and record size histograms are collected for every record.
+ *
+ * @author Janek Bevendorff
+ */
+
+public class StageProfiler
+{
+    /**
+     * Configuration key for the timing sample rate.
+     */
+    public static final String SAMPLE_RATE_KEY = "mapfile.profiling.sample.rate";
+    public static final int DEFAULT_SAMPLE_RATE = 100;
+
+    private final int mSampleRate;
+    private final EnumMap<MapReduceBase.PerformanceCounters, Counter> mCounters =
+            new EnumMap<>(MapReduceBase.PerformanceCounters.class);
+    private final boolean mLeader;
+    private boolean mSampling = false;
+
+    /**
+     * Per-thread record sequence number and sampling decision of the current record shared by
+     * all profilers of a task, so that readers and mappers time the same records even if a task
+     * reads several files.
+     */
+    private static final ThreadLocal<long[]> SEQUENCE = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * @param context task context for retrieving counters
+     * @param leader whether this profiler decides which records are sampled (and counts them),
+     *               otherwise it follows the decision of the leader running in the same thread
+     */
+    public StageProfiler(final TaskAttemptContext context, final boolean leader)
+    {
+        mLeader = leader;
+        mSampleRate = context.getConfiguration().getInt(SAMPLE_RATE_KEY, DEFAULT_SAMPLE_RATE);
+        for (final MapReduceBase.PerformanceCounters c : MapReduceBase.PerformanceCounters.values()) {
+            if (c != MapReduceBase.PerformanceCounters.SAMPLED_RECORDS || leader) {
+                mCounters.put(c, context.getCounter(c));
+            }
+        }
+    }
+
+    /**
+     * Advance to the next record and decide whether it will be timed.
+     * Followers must call this after the leader has advanced to the same record.
+     *
+     * @return true if the record is sampled
+     */
+    public boolean nextRecord()
+    {
+        final long[] sequence = SEQUENCE.get();
+        if (mLeader) {
+            sequence[1] = mSampleRate > 0 && sequence[0]++ % mSampleRate == 0 ? 1 : 0;
+            if (1 == sequence[1]) {
+                increment(MapReduceBase.PerformanceCounters.SAMPLED_RECORDS, 1);
+            }
+        }
+        mSampling = 1 == sequence[1];
+        return mSampling;
+    }
+
+    /**
+     * @return whether the current record is sampled
+     */
+    public boolean isSampling()
+    {
+        return mSampling;
+    }
+
+    /**
+     * Start timing a stage.
+     *
+     * @return start timestamp (0 if current record is not sampled)
+     */
+    public long start()
+    {
+        return mSampling ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stop timing a stage and add elapsed time to the given counter.
+     *
+     * @param counter stage counter
+     * @param start timestamp returned by {@link #start()}
+     */
+    public void stop(final MapReduceBase.PerformanceCounters counter, final long start)
+    {
+        if (mSampling) {
+            increment(counter, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Add elapsed time to the given counter, if current record is sampled.
+     */
+    public void addNanos(final MapReduceBase.PerformanceCounters counter, final long nanos)
+    {
+        if (mSampling) {
+            increment(counter, nanos);
+        }
+    }
+
+    /**
+     * Increment counter unconditionally.
+     */
+    public void increment(final MapReduceBase.PerformanceCounters counter, final long value)
+    {
+        final Counter c = mCounters.get(counter);
+        if (null != c) {
+            c.increment(value);
+        }
+    }
+
+    /**
+     * Add record to size histogram.
+     *
+     * @param size record size in bytes
+     */
+    public void recordSize(final long size)
+    {
+        if (size < 1024) {
+            increment(MapReduceBase.PerformanceCounters.RECORD_SIZE_UNDER_1KB, 1);
+        } else if (size < 10 * 1024) {
+            increment(MapReduceBase.PerformanceCounters.RECORD_SIZE_UNDER_10KB, 1);
+        } else if (size < 100 * 1024) {
+            increment(MapReduceBase.PerformanceCounters.RECORD_SIZE_UNDER_100KB, 1);
+        } else if (size < 1024 * 1024) {
+            increment(MapReduceBase.PerformanceCounters.RECORD_SIZE_UNDER_1MB, 1);
+        } else if (size < 10 * 1024 * 1024) {
+            increment(MapReduceBase.PerformanceCounters.RECORD_SIZE_UNDER_10MB, 1);
+        } else {
+            increment(MapReduceBase.PerformanceCounters.RECORD_SIZE_10MB_OR_MORE, 1);
+        }
+    }
+
+    /**
+     * Build human-readable summary of the stage timings of a finished job.
+     * Timings are extrapolated from the sampled records to all records.
+     *
+     * @param counters job counters
+     * @param totalRecords total number of records processed
+     * @return summary
+     */
+    public static String summarize(final Counters counters, final long totalRecords)
+    {
+        final StringBuilder summary = new StringBuilder("Stage profile:\n");
+        final long sampled = counters.findCounter(MapReduceBase.PerformanceCounters.SAMPLED_RECORDS).getValue();
+        if (sampled > 0) {
+            final MapReduceBase.PerformanceCounters[] stages = {
+                    MapReduceBase.PerformanceCounters.READ_NANOS,
+                    MapReduceBase.PerformanceCounters.DECOMPRESSION_NANOS,
+                    MapReduceBase.PerformanceCounters.CHARSET_DETECTION_NANOS,
+                    MapReduceBase.PerformanceCounters.BODY_ENCODING_NANOS,
+                    MapReduceBase.PerformanceCounters.JSON_NANOS,
+                    MapReduceBase.PerformanceCounters.WRITE_NANOS
+            };
+            final double scale = totalRecords / (double) sampled;
+            for (final MapReduceBase.PerformanceCounters stage : stages) {
+                final long nanos = counters.findCounter(stage).getValue();
+                summary.append(String.format(" - %-24s %10.1f us/record, ~%.1f s total%n",
+                        stage.name(), nanos / 1000.0 / sampled, nanos * scale / 1e9));
+            }
+            summary.append(String.format(" - sampled %d of %d records%n", sampled, totalRecords));
+        } else {
+            summary.append(" - timings disabled\n");
+        }
+        summary.append(String.format(" - bytes in: %d, bytes out: %d%n",
+                counters.findCounter(MapReduceBase.PerformanceCounters.BYTES_IN).getValue(),
+                counters.findCounter(MapReduceBase.PerformanceCounters.BYTES_OUT).getValue()));
+        summary.append(" - record sizes:");
+        for (final MapReduceBase.PerformanceCounters c : MapReduceBase.PerformanceCounters.values()) {
+            if (c.name().startsWith("RECORD_SIZE_")) {
+                summary.append(String.format(" %s=%d", c.name().substring(12), counters.findCounter(c).getValue()));
+            }
+        }
+        return summary.toString();
+    }
+}
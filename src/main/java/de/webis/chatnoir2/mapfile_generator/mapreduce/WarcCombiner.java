@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.mapreduce;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Map-side combiner which drops duplicate URI entries before the shuffle.
+ *
+ * Values of URI entries consist of the <code>WARC-Date</code> of the record and its UUID, separated
+ * by a tab. Of all records with the same URI, only the newest one is kept (ties are broken by
+ * the larger UUID), so the result is deterministic regardless of input order. All other keys
+ * are passed through unchanged, except for content entries, of which only one is needed.
+ *
+ * @author Janek Bevendorff
+ */
+public class WarcCombiner extends Reducer<Text, Text, Text, Text> implements MapReduceBase
+{
+    /**
+     * Separator between date and UUID in URI entry values.
+     */
+    public static final char URI_VALUE_SEPARATOR = '\t';
+
+    protected static Counter mUriDuplicatesCounter;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        mUriDuplicatesCounter = context.getCounter(RecordCounters.URI_DUPLICATES_COMBINED);
+    }
+
+    @Override
+    public void reduce(final Text key, final Iterable<Text> values, final Context context) throws IOException, InterruptedException
+    {
+        final Iterator<Text> it = values.iterator();
+        if (!it.hasNext()) {
+            return;
+        }
+
+        final byte[] keyBytes = key.getBytes();
+        if (startsWith(keyBytes, key.getLength(), URI_OUTPUT_NAME)) {
+            context.write(key, selectNewest(it, mUriDuplicatesCounter));
+        } else if (startsWith(keyBytes, key.getLength(), CONTENT_OUTPUT_NAME)) {
+            context.write(key, it.next());
+        } else {
+            while (it.hasNext()) {
+                context.write(key, it.next());
+            }
+        }
+    }
+
+    /**
+     * Select the newest of several URI entry values.
+     *
+     * @param values iterator over date/UUID values
+     * @param duplicatesCounter counter for dropped values (may be null)
+     * @return newest value
+     */
+    public static Text selectNewest(final Iterator<Text> values, final Counter duplicatesCounter)
+    {
+        // values are reused by the framework, so the current maximum has to be copied
+        final Text newest = new Text(values.next());
+        while (values.hasNext()) {
+            final Text value = values.next();
+            if (value.compareTo(newest) > 0) {
+                newest.set(value);
+            }
+            if (null != duplicatesCounter) {
+                duplicatesCounter.increment(1);
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Strip date from URI entry value.
+     *
+     * @param value date/UUID value
+     * @return UUID
+     */
+    public static String getUUIDFromUriValue(final Text value)
+    {
+        final String str = value.toString();
+        return str.substring(str.indexOf(URI_VALUE_SEPARATOR) + 1);
+    }
+
+    private static boolean startsWith(final byte[] bytes, final int length, final String prefix)
+    {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (bytes[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
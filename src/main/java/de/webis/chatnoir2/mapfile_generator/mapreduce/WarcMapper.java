@@ -16,13 +16,27 @@
 
 package de.webis.chatnoir2.mapfile_generator.mapreduce;
 
+import de.webis.chatnoir2.mapfile_generator.jfr.RecordEvents;
+import de.webis.chatnoir2.mapfile_generator.util.CachedUUIDGenerator;
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
+import de.webis.chatnoir2.mapfile_generator.util.PayloadDigest;
+import de.webis.chatnoir2.mapfile_generator.warc.CharsetCache;
 import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -36,8 +50,46 @@ public class WarcMapper extends BaseMapper<LongWritable, WarcRecord>
     protected static Counter mSkippedRecordCounter;
     protected static Counter mGeneratedCounter;
     protected static Counter mBinaryRecordCounter;
+    protected static Counter mCdxSkippedCounter;
+    protected static Counter mDedupReferenceCounter;
+    protected static Counter mDedupSkippedCounter;
 
     protected static Text OUTPUT_KEY_PREFIXED;
+    protected static Text OUTPUT_CDX;
+    protected static Text OUTPUT_URI_VALUE;
+    protected static final Text OUTPUT_CDX_VALUE = new Text();
+    protected static Text OUTPUT_CONTENT_KEY;
+    protected static Text OUTPUT_CONTENT;
+    protected static Text OUTPUT_META_KEY;
+    protected static Text OUTPUT_META;
+    protected static Text OUTPUT_HOST_KEY;
+    protected static final Text OUTPUT_HOST_VALUE = new Text();
+
+    /**
+     * Bodies smaller than this are always stored inline, since a reference wouldn't save anything.
+     */
+    private static final int DEDUP_MIN_BODY_SIZE = 128;
+
+    private boolean mCdxEnabled = false;
+    private String mSourceFileName = "-";
+    private boolean mCombinedInput = false;
+    private StageProfiler mProfiler;
+
+    /**
+     * Prefixed data key buffer, the UUID string is written directly after the prefix.
+     */
+    private final byte[] mDataKeyBuffer = Arrays.copyOf(DATA_OUTPUT_NAME.getBytes(StandardCharsets.US_ASCII),
+            DATA_OUTPUT_NAME.length() + CachedUUIDGenerator.UUID_STRING_LENGTH);
+
+    private boolean mDedupEnabled = false;
+    private boolean mDedupUsePayloadDigest = true;
+    private PayloadDigest mPayloadDigest;
+    private String mRecordPayloadDigest = null;
+    private boolean mMetaEnabled = false;
+    private boolean mHostIndexEnabled = false;
+    private boolean mHostIndexReverse = true;
+    private Map<String, Boolean> mRecentContentKeys;
+    private CharsetCache mCharsetCache = null;
 
     @Override
     protected void setup(final Context context) throws IOException, InterruptedException
@@ -47,17 +99,75 @@ public class WarcMapper extends BaseMapper<LongWritable, WarcRecord>
         mSkippedRecordCounter = context.getCounter(RecordCounters.SKIPPED_RECORDS);
         mGeneratedCounter     = context.getCounter(RecordCounters.GENERATED_DOCS);
         mBinaryRecordCounter  = context.getCounter(RecordCounters.BINARY_RECORDS);
+        mCdxSkippedCounter    = context.getCounter(RecordCounters.CDX_SKIPPED_RECORDS);
+        mDedupReferenceCounter = context.getCounter(RecordCounters.DEDUP_REFERENCES);
+        mDedupSkippedCounter   = context.getCounter(RecordCounters.DEDUP_CONTENT_SKIPPED);
 
         OUTPUT_KEY_PREFIXED = new Text();
+        OUTPUT_CDX          = new Text();
+        OUTPUT_URI_VALUE    = new Text();
+        OUTPUT_CONTENT_KEY  = new Text();
+        OUTPUT_CONTENT      = new Text();
+        OUTPUT_META_KEY     = new Text();
+        OUTPUT_META         = new Text();
+        OUTPUT_HOST_KEY     = new Text();
+
+        mProfiler = new StageProfiler(context, false);
+
+        mCdxEnabled = context.getConfiguration().getBoolean("mapfile.cdx.enable", false);
+        mDedupEnabled = context.getConfiguration().getBoolean("mapfile.dedup.enable", false);
+        mMetaEnabled = context.getConfiguration().getBoolean("mapfile.meta.enable", false);
+        mHostIndexEnabled = context.getConfiguration().getBoolean(HostIndex.ENABLE_KEY, false);
+        mHostIndexReverse = context.getConfiguration().getBoolean(HostIndex.REVERSE_KEY, true);
+        if (mDedupEnabled || mMetaEnabled) {
+            mDedupUsePayloadDigest = context.getConfiguration().getBoolean("mapfile.dedup.payload.digest", true);
+            mPayloadDigest = new PayloadDigest();
+        }
+        if (mDedupEnabled) {
+            final int cacheSize = context.getConfiguration().getInt("mapfile.dedup.cache.size", 10000);
+            mRecentContentKeys = new LinkedHashMap<String, Boolean>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > cacheSize;
+                }
+            };
+        }
+
+        final int charsetCacheSize = context.getConfiguration().getInt("mapfile.charset.cache.size", 10000);
+        if (charsetCacheSize > 0) {
+            mCharsetCache = new CharsetCache(charsetCacheSize);
+        }
+
+        final InputSplit split = context.getInputSplit();
+        if (split instanceof FileSplit) {
+            mSourceFileName = ((FileSplit) split).getPath().getName();
+        } else if (split instanceof CombineFileSplit) {
+            // file name changes while reading the split and has to be retrieved for each record
+            mCombinedInput = true;
+        }
+    }
+
+    @Override
+    protected void cleanup(final Context context) throws IOException, InterruptedException
+    {
+        if (null != mCharsetCache) {
+            context.getCounter(RecordCounters.CHARSET_CACHE_HITS).increment(mCharsetCache.getHits());
+            context.getCounter(RecordCounters.CHARSET_CACHE_MISSES).increment(mCharsetCache.getMisses());
+            context.getCounter(RecordCounters.CHARSET_CACHE_REJECTIONS).increment(mCharsetCache.getRejections());
+        }
+        super.cleanup(context);
     }
 
     @Override
     public void map(final LongWritable key, final WarcRecord value, final Context context) throws IOException, InterruptedException
     {
         mRecordsCounter.increment(1);
+        mProfiler.nextRecord();
         OUTPUT_URI.clear();
         OUTPUT_KEY.clear();
         OUTPUT_DOC.clear();
+        mRecordPayloadDigest = null;
 
         final String recordId = value.getRecordId();
 
@@ -69,34 +179,238 @@ public class WarcMapper extends BaseMapper<LongWritable, WarcRecord>
 
         LOG.debug(String.format("Mapping document %s", recordId));
 
+        long t = mProfiler.start();
+        final Object charsetEvent = RecordEvents.begin(RecordEvents.Type.CHARSET_DETECTION);
+        final String recordEncoding = value.getContentEncoding(mCharsetCache);
+        mProfiler.stop(PerformanceCounters.CHARSET_DETECTION_NANOS, t);
+        RecordEvents.commit(charsetEvent, recordId, value.getRecordType(), value.getByteContent().length, recordEncoding);
+        if (null == recordEncoding) {
+            mBinaryRecordCounter.increment(1);
+        }
+
+        final Object serializationEvent = RecordEvents.begin(RecordEvents.Type.SERIALIZATION);
+        t = mProfiler.start();
+        final String body = value.getContent(recordEncoding);
+        mProfiler.stop(PerformanceCounters.BODY_ENCODING_NANOS, t);
+
+        t = mProfiler.start();
+
         // WARC headers
         final JSONObject outputJsonDoc = new JSONObject();
         final TreeMap<String, String> warcHeaders = value.getHeader().getHeaderMetadata();
         outputJsonDoc.put(JSON_METADATA_KEY, warcHeaders);
 
-        final String recordEncoding = value.getContentEncoding();
-        if (null == recordEncoding) {
-            mBinaryRecordCounter.increment(1);
-        }
-
         // content headers and body
         final JSONObject payloadJson = new JSONObject();
         payloadJson.put(JSON_HEADERS_KEY, value.getContentHeaders());
-        payloadJson.put(JSON_BODY_KEY, value.getContent(recordEncoding));
+        final String contentKey = getContentKey(value, recordEncoding);
+        if (null != contentKey) {
+            payloadJson.put(JSON_BODY_REF_KEY, contentKey);
+        } else {
+            payloadJson.put(JSON_BODY_KEY, body);
+        }
         payloadJson.put(JSON_PAYLOAD_ENCODING, null != recordEncoding ? "plain" : "base64");
         outputJsonDoc.put(JSON_PAYLOAD_KEY, payloadJson);
 
-        OUTPUT_KEY.set(generateUUID(recordId).toString());
-        OUTPUT_KEY_PREFIXED.set(DATA_OUTPUT_NAME + OUTPUT_KEY);
+        writeUUIDString(recordId, mDataKeyBuffer, DATA_OUTPUT_NAME.length());
+        OUTPUT_KEY_PREFIXED.set(mDataKeyBuffer, 0, mDataKeyBuffer.length);
+        OUTPUT_KEY.set(mDataKeyBuffer, DATA_OUTPUT_NAME.length(), CachedUUIDGenerator.UUID_STRING_LENGTH);
         OUTPUT_DOC.set(outputJsonDoc.toString());
+        mProfiler.stop(PerformanceCounters.JSON_NANOS, t);
+        RecordEvents.commit(serializationEvent, recordId, value.getRecordType(), OUTPUT_DOC.getLength(), recordEncoding);
+
+        t = mProfiler.start();
         context.write(OUTPUT_KEY_PREFIXED, OUTPUT_DOC);
+        mProfiler.stop(PerformanceCounters.WRITE_NANOS, t);
+        long bytesOut = OUTPUT_KEY_PREFIXED.getLength() + OUTPUT_DOC.getLength();
 
         final String uri = warcHeaders.get("WARC-Target-URI");
         if (null != uri && value.getRecordType().equals("response")) {
+            // prepend date, so the combiner and reducer can select the newest record for each URI
+            final String date = warcHeaders.get("WARC-Date");
             OUTPUT_URI.set(URI_OUTPUT_NAME + uri);
-            context.write(OUTPUT_URI, OUTPUT_KEY);
+            OUTPUT_URI_VALUE.set((null != date ? date : "") + WarcCombiner.URI_VALUE_SEPARATOR + OUTPUT_KEY);
+            t = mProfiler.start();
+            context.write(OUTPUT_URI, OUTPUT_URI_VALUE);
+            mProfiler.stop(PerformanceCounters.WRITE_NANOS, t);
+            bytesOut += OUTPUT_URI.getLength() + OUTPUT_URI_VALUE.getLength();
+            if (mHostIndexEnabled) {
+                bytesOut += writeHostEntry(uri, context);
+            }
+        }
+        if (null != contentKey) {
+            bytesOut += writeContentEntry(contentKey, body, context);
+        }
+        if (mMetaEnabled) {
+            bytesOut += writeMetaEntry(value, warcHeaders, recordEncoding, context);
+        }
+        mProfiler.increment(PerformanceCounters.BYTES_OUT, bytesOut);
+
+        if (mCdxEnabled) {
+            writeCdxEntry(value, uri, context);
         }
 
         mGeneratedCounter.increment(1);
     }
+
+    /**
+     * Get key under which the body of the given record is stored in the content MapFile.
+     * The key consists of the payload digest and the encoding used to decode the body,
+     * since the same payload bytes decode to different body strings in different encodings.
+     *
+     * @param record WARC record
+     * @param encoding detected content encoding (null for binary)
+     * @return content key or null if deduplication is disabled or not worthwhile for this record
+     */
+    private String getContentKey(final WarcRecord record, final String encoding)
+    {
+        if (!mDedupEnabled || !record.getRecordType().equals("response")) {
+            return null;
+        }
+        final byte[] payload = record.getByteContent();
+        if (null == payload || payload.length < DEDUP_MIN_BODY_SIZE) {
+            return null;
+        }
+
+        mDedupReferenceCounter.increment(1);
+        return getPayloadDigest(record) + ":" + (null != encoding ? encoding : "base64");
+    }
+
+    /**
+     * Get payload digest of the given record. Uses the <code>WARC-Payload-Digest</code> header
+     * if present (and trusted), otherwise the digest is computed. The result is cached for the current record.
+     *
+     * @param record WARC record
+     * @return payload digest
+     */
+    private String getPayloadDigest(final WarcRecord record)
+    {
+        if (null == mRecordPayloadDigest) {
+            String digest = mDedupUsePayloadDigest ? record.getHeader().getHeaderMetadataItem("WARC-Payload-Digest") : null;
+            if (null == digest || digest.isEmpty()) {
+                final byte[] payload = record.getByteContent();
+                digest = mPayloadDigest.digest(null != payload ? payload : new byte[0]);
+            }
+            mRecordPayloadDigest = digest.trim();
+        }
+        return mRecordPayloadDigest;
+    }
+
+    /**
+     * Write metadata entry with WARC headers, HTTP headers, body length and payload digest
+     * of the given record (everything except the body) under the record UUID.
+     *
+     * @param record WARC record
+     * @param warcHeaders WARC headers of the record
+     * @param encoding detected content encoding (null for binary)
+     * @param context mapper context
+     * @return number of bytes written
+     */
+    private long writeMetaEntry(final WarcRecord record, final Map<String, String> warcHeaders,
+                                final String encoding, final Context context) throws IOException, InterruptedException
+    {
+        long t = mProfiler.start();
+        final JSONObject metaJsonDoc = new JSONObject();
+        metaJsonDoc.put(JSON_METADATA_KEY, warcHeaders);
+
+        final JSONObject payloadJson = new JSONObject();
+        payloadJson.put(JSON_HEADERS_KEY, record.getContentHeaders());
+        payloadJson.put(JSON_PAYLOAD_ENCODING, null != encoding ? "plain" : "base64");
+        payloadJson.put(JSON_BODY_LENGTH_KEY, null != record.getByteContent() ? record.getByteContent().length : 0);
+        payloadJson.put(JSON_BODY_DIGEST_KEY, getPayloadDigest(record));
+        metaJsonDoc.put(JSON_PAYLOAD_KEY, payloadJson);
+
+        OUTPUT_META_KEY.set(META_OUTPUT_NAME);
+        OUTPUT_META_KEY.append(OUTPUT_KEY.getBytes(), 0, OUTPUT_KEY.getLength());
+        OUTPUT_META.set(metaJsonDoc.toString());
+        mProfiler.stop(PerformanceCounters.JSON_NANOS, t);
+
+        t = mProfiler.start();
+        context.write(OUTPUT_META_KEY, OUTPUT_META);
+        mProfiler.stop(PerformanceCounters.WRITE_NANOS, t);
+        return OUTPUT_META_KEY.getLength() + OUTPUT_META.getLength();
+    }
+
+    /**
+     * Write host index entry for the current record. The UUID is part of the shuffle key, so the
+     * reducer receives the UUIDs of each host already sorted and can write them in bounded chunks.
+     *
+     * @param uri target URI of the record
+     * @param context mapper context
+     * @return number of bytes written
+     */
+    private long writeHostEntry(final String uri, final Context context) throws IOException, InterruptedException
+    {
+        final String host = HostIndex.getHost(uri, mHostIndexReverse);
+        if (null == host) {
+            return 0;
+        }
+
+        OUTPUT_HOST_KEY.set(HOST_OUTPUT_NAME + host + HostIndex.KEY_SEPARATOR);
+        OUTPUT_HOST_KEY.append(OUTPUT_KEY.getBytes(), 0, OUTPUT_KEY.getLength());
+        final long t = mProfiler.start();
+        context.write(OUTPUT_HOST_KEY, OUTPUT_HOST_VALUE);
+        mProfiler.stop(PerformanceCounters.WRITE_NANOS, t);
+        return OUTPUT_HOST_KEY.getLength();
+    }
+
+    /**
+     * Write body to the content MapFile unless this mapper has emitted it recently.
+     * Remaining duplicates are dropped by the reducer.
+     *
+     * @param contentKey content key
+     * @param body record body
+     * @param context mapper context
+     * @return number of bytes written
+     */
+    private long writeContentEntry(final String contentKey, final String body, final Context context)
+            throws IOException, InterruptedException
+    {
+        if (null != mRecentContentKeys.put(contentKey, Boolean.TRUE)) {
+            mDedupSkippedCounter.increment(1);
+            return 0;
+        }
+
+        OUTPUT_CONTENT_KEY.set(CONTENT_OUTPUT_NAME + contentKey);
+        OUTPUT_CONTENT.set(body);
+        final long t = mProfiler.start();
+        context.write(OUTPUT_CONTENT_KEY, OUTPUT_CONTENT);
+        mProfiler.stop(PerformanceCounters.WRITE_NANOS, t);
+        return OUTPUT_CONTENT_KEY.getLength() + OUTPUT_CONTENT.getLength();
+    }
+
+    /**
+     * Write CDX-like index line for the given record with the following space-separated fields:
+     * URI, 14-digit timestamp, UUID, source file name, source file offset, source length.
+     * Records that cannot be retrieved individually from their source file are skipped.
+     *
+     * @param record WARC record
+     * @param uri target URI of the record
+     * @param context mapper context
+     */
+    private void writeCdxEntry(final WarcRecord record, final String uri, final Context context)
+            throws IOException, InterruptedException
+    {
+        if (null == uri || record.getSourceOffset() < 0 || record.getSourceLength() < 0) {
+            mCdxSkippedCounter.increment(1);
+            return;
+        }
+
+        final String date = record.getHeader().getHeaderMetadataItem("WARC-Date");
+        String timestamp = null != date ? date.replaceAll("\\D", "") : "";
+        if (timestamp.length() > 14) {
+            timestamp = timestamp.substring(0, 14);
+        } else if (timestamp.isEmpty()) {
+            timestamp = "-";
+        }
+
+        if (mCombinedInput) {
+            final String inputFile = context.getConfiguration().get(MRJobConfig.MAP_INPUT_FILE);
+            mSourceFileName = null != inputFile ? new Path(inputFile).getName() : "-";
+        }
+
+        OUTPUT_CDX.set(CDX_OUTPUT_NAME + uri.replace(" ", "%20") + " " + timestamp + " " + OUTPUT_KEY + " " +
+                mSourceFileName + " " + record.getSourceOffset() + " " + record.getSourceLength());
+        context.write(OUTPUT_CDX, OUTPUT_CDX_VALUE);
+    }
 }
@@ -16,13 +16,19 @@
 
 package de.webis.chatnoir2.mapfile_generator.mapreduce;
 
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDListWritable;
+import de.webis.chatnoir2.mapfile_generator.util.UUIDWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.UUID;
 
 /**
  * Reducer for writing JSON records generated from WARCs to multiple outputs.
@@ -33,7 +39,19 @@ public class WarcReducer extends Reducer<Text, Text, Text, Text> implements MapR
 {
     protected static Counter mMapFileDataCounter;
     protected static Counter mMapFileURICounter;
-    protected MultipleOutputs<Text, Text> mMultipleOutputs;
+    protected static Counter mCdxCounter;
+    protected static Counter mMapFileContentCounter;
+    protected static Counter mMapFileMetaCounter;
+    protected static Counter mMapFileHostCounter;
+    protected MultipleOutputs<Writable, Writable> mMultipleOutputs;
+    protected UUIDWritable mBinaryKey = null;
+
+    /**
+     * Host whose UUIDs are currently being collected and the UUIDs collected so far.
+     */
+    private final Text mHostKey = new Text();
+    private final UUIDListWritable mHostUUIDs = new UUIDListWritable();
+    private int mHostChunkSize;
 
     @Override
     @SuppressWarnings("unchecked")
@@ -43,6 +61,14 @@ public class WarcReducer extends Reducer<Text, Text, Text, Text> implements MapR
         mMultipleOutputs    = new MultipleOutputs(context);
         mMapFileDataCounter = context.getCounter(RecordCounters.MAPFILE_DATA_ENTRIES);
         mMapFileURICounter  = context.getCounter(RecordCounters.MAPFILE_URI_ENTRIES);
+        mCdxCounter         = context.getCounter(RecordCounters.CDX_ENTRIES);
+        mMapFileContentCounter = context.getCounter(RecordCounters.MAPFILE_CONTENT_ENTRIES);
+        mMapFileMetaCounter    = context.getCounter(RecordCounters.MAPFILE_META_ENTRIES);
+        mMapFileHostCounter    = context.getCounter(RecordCounters.MAPFILE_HOST_ENTRIES);
+        mHostChunkSize = context.getConfiguration().getInt(HostIndex.CHUNK_SIZE_KEY, HostIndex.DEFAULT_CHUNK_SIZE);
+        if (context.getConfiguration().getBoolean(UUIDWritable.BINARY_KEYS_KEY, false)) {
+            mBinaryKey = new UUIDWritable();
+        }
     }
 
     @Override
@@ -52,26 +78,90 @@ public class WarcReducer extends Reducer<Text, Text, Text, Text> implements MapR
         if (!it.hasNext())
             return;
 
-        final Text data = it.next();
         final String strKey = key.toString();
 
         // strip prefixes from composite keys
         if (strKey.startsWith(DATA_OUTPUT_NAME)) {
             key.set(strKey.substring(DATA_OUTPUT_NAME.length()));
-            mMultipleOutputs.write(DATA_OUTPUT_NAME, key, data);
+            writeUUIDEntry(DATA_OUTPUT_NAME, key, it.next());
             mMapFileDataCounter.increment(1);
+        } else if (strKey.startsWith(META_OUTPUT_NAME)) {
+            key.set(strKey.substring(META_OUTPUT_NAME.length()));
+            writeUUIDEntry(META_OUTPUT_NAME, key, it.next());
+            mMapFileMetaCounter.increment(1);
+        } else if (strKey.startsWith(HOST_OUTPUT_NAME)) {
+            addHostEntry(strKey);
         } else if (strKey.startsWith(URI_OUTPUT_NAME)) {
+            // keep newest record for each URI
+            final Text uuid = new Text(WarcCombiner.getUUIDFromUriValue(WarcCombiner.selectNewest(it, null)));
             key.set(strKey.substring(URI_OUTPUT_NAME.length()));
-            mMultipleOutputs.write(URI_OUTPUT_NAME, key, data);
+            mMultipleOutputs.write(URI_OUTPUT_NAME, key, uuid);
             mMapFileURICounter.increment(1);
+        } else if (strKey.startsWith(CDX_OUTPUT_NAME)) {
+            key.set(strKey.substring(CDX_OUTPUT_NAME.length()));
+            mMultipleOutputs.write(CDX_OUTPUT_NAME, key, NullWritable.get());
+            mCdxCounter.increment(1);
+        } else if (strKey.startsWith(CONTENT_OUTPUT_NAME)) {
+            // identical payloads: keep only the first value
+            key.set(strKey.substring(CONTENT_OUTPUT_NAME.length()));
+            mMultipleOutputs.write(CONTENT_OUTPUT_NAME, key, it.next());
+            mMapFileContentCounter.increment(1);
         } else {
             LOG.error("Key '" + strKey + "' doesn't start with known prefix!");
         }
     }
 
+    /**
+     * Write entry keyed by record UUID, converting the key to binary if enabled.
+     */
+    private void writeUUIDEntry(final String name, final Text key, final Text value) throws IOException, InterruptedException
+    {
+        if (null != mBinaryKey) {
+            // hex UUID strings sort in the same order as their binary form
+            mBinaryKey.set(key.toString());
+            mMultipleOutputs.write(name, mBinaryKey, value);
+        } else {
+            mMultipleOutputs.write(name, key, value);
+        }
+    }
+
+    /**
+     * Add UUID of a host index key to the UUID list of its host. Keys arrive sorted by host
+     * and UUID, so the list is written whenever the host changes or the list is full.
+     *
+     * @param strKey composite key consisting of prefix, host, separator and UUID
+     */
+    private void addHostEntry(final String strKey) throws IOException, InterruptedException
+    {
+        final int separator = strKey.lastIndexOf(HostIndex.KEY_SEPARATOR);
+        final String host = strKey.substring(HOST_OUTPUT_NAME.length(), separator);
+        if (mHostUUIDs.size() > 0 && !host.equals(mHostKey.toString())) {
+            flushHostEntry();
+        }
+        if (mHostUUIDs.size() >= mHostChunkSize) {
+            flushHostEntry();
+        }
+        mHostKey.set(host);
+        mHostUUIDs.add(UUID.fromString(strKey.substring(separator + 1)));
+    }
+
+    /**
+     * Write collected UUIDs of the current host.
+     */
+    private void flushHostEntry() throws IOException, InterruptedException
+    {
+        if (0 == mHostUUIDs.size()) {
+            return;
+        }
+        mMultipleOutputs.write(HOST_OUTPUT_NAME, mHostKey, mHostUUIDs);
+        mMapFileHostCounter.increment(1);
+        mHostUUIDs.clear();
+    }
+
     @Override
     protected void cleanup(final Context context) throws IOException, InterruptedException
     {
+        flushHostEntry();
         mMultipleOutputs.close();
     }
 }
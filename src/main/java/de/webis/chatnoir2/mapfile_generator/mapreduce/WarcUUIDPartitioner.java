@@ -16,6 +16,7 @@
 
 package de.webis.chatnoir2.mapfile_generator.mapreduce;
 
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Partitioner;
@@ -36,6 +37,24 @@ public class WarcUUIDPartitioner extends Partitioner<Text, Writable>
             str = str.substring(MapReduceBase.DATA_OUTPUT_NAME.length());
         } else if (str.startsWith(MapReduceBase.URI_OUTPUT_NAME)) {
             str = str.substring(MapReduceBase.URI_OUTPUT_NAME.length());
+        } else if (str.startsWith(MapReduceBase.CONTENT_OUTPUT_NAME)) {
+            str = str.substring(MapReduceBase.CONTENT_OUTPUT_NAME.length());
+        } else if (str.startsWith(MapReduceBase.META_OUTPUT_NAME)) {
+            str = str.substring(MapReduceBase.META_OUTPUT_NAME.length());
+        } else if (str.startsWith(MapReduceBase.HOST_OUTPUT_NAME)) {
+            // partition host index entries by host only
+            str = str.substring(MapReduceBase.HOST_OUTPUT_NAME.length());
+            final int hostEnd = str.indexOf(HostIndex.KEY_SEPARATOR);
+            if (-1 != hostEnd) {
+                str = str.substring(0, hostEnd);
+            }
+        } else if (str.startsWith(MapReduceBase.CDX_OUTPUT_NAME)) {
+            // partition CDX lines by URI only
+            str = str.substring(MapReduceBase.CDX_OUTPUT_NAME.length());
+            final int uriEnd = str.indexOf(' ');
+            if (-1 != uriEnd) {
+                str = str.substring(0, uriEnd);
+            }
         }
         return (str.hashCode() % numPartitions + numPartitions) % numPartitions;
     }
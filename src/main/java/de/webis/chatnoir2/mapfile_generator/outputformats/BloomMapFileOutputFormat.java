@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.outputformats;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * MapFile output format which writes {@link BloomMapFile}s instead of plain MapFiles.
+ * The resulting files can be read by any regular {@link MapFile.Reader}, but a
+ * {@link BloomMapFile.Reader} can use the additional Bloom filter for answering
+ * lookups of non-existent keys without touching the data file.
+ *
+ * The Bloom filter is configured with <code>io.mapfile.bloom.size</code> (expected
+ * number of keys per filter vector) and <code>io.mapfile.bloom.error.rate</code>
+ * (desired false positive rate).
+ */
+public class BloomMapFileOutputFormat extends MapFileOutputFormat
+{
+    @Override
+    public RecordWriter<WritableComparable<?>, Writable> getRecordWriter(final TaskAttemptContext context) throws IOException
+    {
+        final Configuration conf = context.getConfiguration();
+        CompressionCodec codec = null;
+        SequenceFile.CompressionType compressionType = SequenceFile.CompressionType.NONE;
+        if (getCompressOutput(context)) {
+            compressionType = SequenceFileOutputFormat.getOutputCompressionType(context);
+            final Class<?> codecClass = getOutputCompressorClass(context, DefaultCodec.class);
+            codec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
+        }
+
+        final Path file = getDefaultWorkFile(context, "");
+        final MapFile.Writer out = new BloomMapFile.Writer(conf, file,
+                MapFile.Writer.keyClass(context.getOutputKeyClass().asSubclass(WritableComparable.class)),
+                MapFile.Writer.valueClass(context.getOutputValueClass().asSubclass(Writable.class)),
+                MapFile.Writer.compression(compressionType, codec),
+                MapFile.Writer.progressable(context));
+
+        return new RecordWriter<WritableComparable<?>, Writable>()
+        {
+            @Override
+            public void write(final WritableComparable<?> key, final Writable value) throws IOException
+            {
+                out.append(key, value);
+            }
+
+            @Override
+            public void close(final TaskAttemptContext context) throws IOException
+            {
+                out.close();
+            }
+        };
+    }
+}
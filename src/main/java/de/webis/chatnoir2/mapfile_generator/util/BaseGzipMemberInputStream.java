@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import java.io.InputStream;
+
+/**
+ * Input stream for multi-member gzip files which keeps track of the exact compressed
+ * offset of each member. Members are read transparently one after another, but a single
+ * read never returns bytes from more than one member, so callers can tell from
+ * {@link #getMemberIndex()} and {@link #getMemberStart()} which member the last byte came from.
+ * The next member is started only by the first read after the previous member has been
+ * consumed completely.
+ *
+ * @author Janek Bevendorff
+ */
+public abstract class BaseGzipMemberInputStream extends InputStream
+{
+    /**
+     * @return compressed file offset of the current member, -1 if no member was started yet
+     */
+    public abstract long getMemberStart();
+
+    /**
+     * @return running number of the current member, -1 if no member was started yet
+     */
+    public abstract long getMemberIndex();
+
+    /**
+     * @return number of compressed bytes consumed so far (as file offset)
+     */
+    public abstract long getCompressedPos();
+
+    /**
+     * @return whether the end of the last member has been reached
+     */
+    public abstract boolean isEof();
+
+    /**
+     * Enable or disable measuring the time spent inflating data.
+     *
+     * @param enabled whether to measure inflation time
+     */
+    public abstract void setTimingEnabled(boolean enabled);
+
+    /**
+     * @return cumulative nanoseconds spent inflating data while timing was enabled
+     */
+    public abstract long getInflateNanos();
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache for decompressed SequenceFile blocks.
+ * A single instance can be shared by any number of {@link CachingMapFileReader}s.
+ *
+ * @author Janek Bevendorff
+ */
+public class BlockCache
+{
+    /**
+     * Configuration key for the maximum size of the shared cache in bytes.
+     */
+    public static final String CACHE_SIZE_KEY = "mapfile.reader.blockcache.size";
+    public static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+
+    private static BlockCache sSharedInstance = null;
+
+    private final long mMaxSize;
+    private long mSize = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+    private final LinkedHashMap<BlockKey, Block> mBlocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxSize maximum total size of cached blocks in bytes
+     */
+    public BlockCache(final long maxSize)
+    {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Get process-wide shared cache instance. The cache size is read from the
+     * configuration on first access.
+     *
+     * @param conf Hadoop configuration
+     * @return shared cache
+     */
+    public static synchronized BlockCache getSharedInstance(final Configuration conf)
+    {
+        if (null == sSharedInstance) {
+            sSharedInstance = new BlockCache(conf.getLong(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+        }
+        return sSharedInstance;
+    }
+
+    /**
+     * Retrieve cached block.
+     *
+     * @param file data file path
+     * @param offset block offset in data file
+     * @return cached block or null
+     */
+    public synchronized Block get(final String file, final long offset)
+    {
+        final Block block = mBlocks.get(new BlockKey(file, offset));
+        if (null != block) {
+            ++mHits;
+        } else {
+            ++mMisses;
+        }
+        return block;
+    }
+
+    /**
+     * Add block to the cache and evict least recently used blocks if cache is full.
+     * Blocks larger than the cache itself are not cached.
+     *
+     * @param file data file path
+     * @param offset block offset in data file
+     * @param block decompressed block
+     */
+    public synchronized void put(final String file, final long offset, final Block block)
+    {
+        if (block.getSize() > mMaxSize) {
+            return;
+        }
+
+        final Block previous = mBlocks.put(new BlockKey(file, offset), block);
+        if (null != previous) {
+            mSize -= previous.getSize();
+        }
+        mSize += block.getSize();
+
+        final Iterator<Map.Entry<BlockKey, Block>> it = mBlocks.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            mSize -= it.next().getValue().getSize();
+            it.remove();
+            ++mEvictions;
+        }
+    }
+
+    /**
+     * Remove all blocks from the cache.
+     */
+    public synchronized void clear()
+    {
+        mBlocks.clear();
+        mSize = 0;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return mHits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount()
+    {
+        return mEvictions;
+    }
+
+    /**
+     * @return ratio of cache hits to total requests
+     */
+    public synchronized double getHitRate()
+    {
+        return mHits + mMisses > 0 ? mHits / (double) (mHits + mMisses) : 0.0;
+    }
+
+    /**
+     * @return current size of all cached blocks in bytes
+     */
+    public synchronized long getSize()
+    {
+        return mSize;
+    }
+
+    public synchronized int getBlockCount()
+    {
+        return mBlocks.size();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("BlockCache[blocks=%d, size=%d, maxSize=%d, hits=%d, misses=%d, hitRate=%.3f, evictions=%d]",
+                mBlocks.size(), mSize, mMaxSize, mHits, mMisses, getHitRate(), mEvictions);
+    }
+
+    /**
+     * Decompressed SequenceFile block with all serialized keys and values.
+     */
+    public static class Block
+    {
+        private final byte[] mKeys;
+        private final int[] mKeyOffsets;
+        private final byte[] mValues;
+        private final int[] mValueOffsets;
+        private final long mNextBlockOffset;
+
+        /**
+         * @param keys serialized keys
+         * @param keyOffsets start offsets of keys (plus end offset of the last key)
+         * @param values serialized values
+         * @param valueOffsets start offsets of values (plus end offset of the last value)
+         * @param nextBlockOffset file offset of the following block
+         */
+        public Block(final byte[] keys, final int[] keyOffsets, final byte[] values, final int[] valueOffsets,
+                     final long nextBlockOffset)
+        {
+            mKeys            = keys;
+            mKeyOffsets      = keyOffsets;
+            mValues          = values;
+            mValueOffsets    = valueOffsets;
+            mNextBlockOffset = nextBlockOffset;
+        }
+
+        public int getRecordCount()
+        {
+            return mKeyOffsets.length - 1;
+        }
+
+        public byte[] getKeys()
+        {
+            return mKeys;
+        }
+
+        public int getKeyOffset(final int i)
+        {
+            return mKeyOffsets[i];
+        }
+
+        public int getKeyLength(final int i)
+        {
+            return mKeyOffsets[i + 1] - mKeyOffsets[i];
+        }
+
+        public byte[] getValues()
+        {
+            return mValues;
+        }
+
+        public int getValueOffset(final int i)
+        {
+            return mValueOffsets[i];
+        }
+
+        public int getValueLength(final int i)
+        {
+            return mValueOffsets[i + 1] - mValueOffsets[i];
+        }
+
+        public long getNextBlockOffset()
+        {
+            return mNextBlockOffset;
+        }
+
+        /**
+         * @return approximate heap size of this block in bytes
+         */
+        public long getSize()
+        {
+            return mKeys.length + mValues.length + 4L * (mKeyOffsets.length + mValueOffsets.length) + 64;
+        }
+    }
+
+    /**
+     * Cache key consisting of file name and block offset.
+     */
+    private static class BlockKey
+    {
+        private final String mFile;
+        private final long mOffset;
+
+        BlockKey(final String file, final long offset)
+        {
+            mFile   = file;
+            mOffset = offset;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            final BlockKey other = (BlockKey) o;
+            return mOffset == other.mOffset && mFile.equals(other.mFile);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * mFile.hashCode() + Long.hashCode(mOffset);
+        }
+    }
+}
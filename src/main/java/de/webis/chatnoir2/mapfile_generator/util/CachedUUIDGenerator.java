@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import de.webis.WebisUUID;
+import org.apache.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Wrapper around {@link WebisUUID} for generating many name-based UUIDs with the same prefix.
+ *
+ * The namespace and prefix bytes are prepared once, each thread reuses its own {@link MessageDigest}
+ * and scratch buffers, and UUIDs can be written directly as string bytes into an output buffer.
+ * On construction, generated UUIDs are compared with {@link WebisUUID} for a sample of IDs. If they
+ * differ, all calls are delegated to {@link WebisUUID}, so results are always identical.
+ *
+ * @author Janek Bevendorff
+ */
+public class CachedUUIDGenerator
+{
+    private static final Logger LOG = Logger.getLogger(CachedUUIDGenerator.class);
+
+    /**
+     * Length of a UUID string.
+     */
+    public static final int UUID_STRING_LENGTH = 36;
+
+    /**
+     * RFC 4122 URL namespace.
+     */
+    private static final UUID NAMESPACE_URL = UUID.fromString("6ba7b811-9dad-11d1-80b4-00c04fd430c8");
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Number of sample IDs checked against {@link WebisUUID} on construction.
+     */
+    private static final int VERIFICATION_SAMPLES = 64;
+
+    private final WebisUUID mReference;
+    private final byte[] mNamePrefix;
+    private final MessageDigest mDigestTemplate;
+    private final boolean mFastPath;
+    private final ThreadLocal<State> mState = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Per-thread digest and scratch buffers.
+     */
+    private final class State
+    {
+        private final MessageDigest mDigest;
+        private final byte[] mHash = new byte[20];
+        private byte[] mName = new byte[256];
+
+        private State()
+        {
+            try {
+                mDigest = (MessageDigest) mDigestTemplate.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @param prefix UUID prefix
+     */
+    public CachedUUIDGenerator(final String prefix)
+    {
+        mReference = new WebisUUID(prefix);
+
+        final byte[] prefixBytes = (prefix + ":").getBytes(StandardCharsets.UTF_8);
+        mNamePrefix = new byte[16 + prefixBytes.length];
+        writeLong(NAMESPACE_URL.getMostSignificantBits(), mNamePrefix, 0);
+        writeLong(NAMESPACE_URL.getLeastSignificantBits(), mNamePrefix, 8);
+        System.arraycopy(prefixBytes, 0, mNamePrefix, 16, prefixBytes.length);
+
+        MessageDigest template = null;
+        try {
+            template = MessageDigest.getInstance("SHA-1");
+            // each thread gets its own clone of the template
+            template.clone();
+        } catch (NoSuchAlgorithmException | CloneNotSupportedException e) {
+            LOG.warn("SHA-1 digest not available or not cloneable, falling back to WebisUUID");
+        }
+        mDigestTemplate = template;
+        mFastPath = null != mDigestTemplate && verify(prefix);
+    }
+
+    /**
+     * Compare generated UUIDs with {@link WebisUUID} for a sample of IDs.
+     */
+    private boolean verify(final String prefix)
+    {
+        final byte[] buffer = new byte[UUID_STRING_LENGTH];
+        for (int i = 0; i < VERIFICATION_SAMPLES; ++i) {
+            final String id = "<urn:uuid:" + new UUID(i * 0x9e3779b97f4a7c15L, ~i) + ">" + (i % 2 == 0 ? "" : "-ä€");
+            writeUUIDStringFast(id, buffer, 0);
+            final String expected = mReference.generateUUID(id).toString();
+            if (!expected.equals(new String(buffer, StandardCharsets.US_ASCII))) {
+                LOG.warn("Cached UUID generation does not match WebisUUID for prefix '" + prefix +
+                        "', falling back to WebisUUID");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether UUIDs are generated by the cached implementation instead of {@link WebisUUID}
+     */
+    public boolean isCached()
+    {
+        return mFastPath;
+    }
+
+    /**
+     * Generate UUID for the given internal ID.
+     *
+     * @param internalId internal record ID
+     * @return UUID
+     */
+    public UUID generateUUID(final String internalId)
+    {
+        if (!mFastPath) {
+            return mReference.generateUUID(internalId);
+        }
+        final byte[] hash = digest(internalId);
+        return new UUID(readLong(hash, 0), readLong(hash, 8));
+    }
+
+    /**
+     * Write the string representation of the UUID for the given internal ID as
+     * {@link #UUID_STRING_LENGTH} ASCII bytes into a buffer.
+     *
+     * @param internalId internal record ID
+     * @param out output buffer
+     * @param offset offset in the output buffer
+     */
+    public void writeUUIDString(final String internalId, final byte[] out, final int offset)
+    {
+        if (!mFastPath) {
+            final byte[] uuid = mReference.generateUUID(internalId).toString().getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(uuid, 0, out, offset, uuid.length);
+            return;
+        }
+        writeUUIDStringFast(internalId, out, offset);
+    }
+
+    private void writeUUIDStringFast(final String internalId, final byte[] out, int offset)
+    {
+        final byte[] hash = digest(internalId);
+        for (int i = 0; i < 16; ++i) {
+            if (4 == i || 6 == i || 8 == i || 10 == i) {
+                out[offset++] = '-';
+            }
+            out[offset++] = HEX_DIGITS[(hash[i] >> 4) & 0x0f];
+            out[offset++] = HEX_DIGITS[hash[i] & 0x0f];
+        }
+    }
+
+    /**
+     * Compute name-based (version 5) UUID bytes of the given ID in the first 16 bytes of the
+     * returned per-thread buffer.
+     */
+    private byte[] digest(final String internalId)
+    {
+        final State state = mState.get();
+        final int nameLength = encodeName(state, internalId);
+
+        state.mDigest.update(mNamePrefix);
+        state.mDigest.update(state.mName, 0, nameLength);
+        try {
+            state.mDigest.digest(state.mHash, 0, state.mHash.length);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        }
+
+        final byte[] hash = state.mHash;
+        hash[6] = (byte) ((hash[6] & 0x0f) | 0x50);
+        hash[8] = (byte) ((hash[8] & 0x3f) | 0x80);
+        return hash;
+    }
+
+    /**
+     * Encode ID as UTF-8 into the per-thread name buffer without allocating for ASCII IDs.
+     *
+     * @return encoded length
+     */
+    private static int encodeName(final State state, final String internalId)
+    {
+        final int length = internalId.length();
+        if (state.mName.length < length) {
+            state.mName = new byte[Math.max(length, state.mName.length * 2)];
+        }
+        for (int i = 0; i < length; ++i) {
+            final char c = internalId.charAt(i);
+            if (c >= 0x80) {
+                final byte[] utf8 = internalId.getBytes(StandardCharsets.UTF_8);
+                if (state.mName.length < utf8.length) {
+                    state.mName = new byte[utf8.length];
+                }
+                System.arraycopy(utf8, 0, state.mName, 0, utf8.length);
+                return utf8.length;
+            }
+            state.mName[i] = (byte) c;
+        }
+        return length;
+    }
+
+    private static void writeLong(final long value, final byte[] out, final int offset)
+    {
+        for (int i = 0; i < 8; ++i) {
+            out[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long readLong(final byte[] in, final int offset)
+    {
+        long value = 0;
+        for (int i = 0; i < 8; ++i) {
+            value = (value << 8) | (in[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
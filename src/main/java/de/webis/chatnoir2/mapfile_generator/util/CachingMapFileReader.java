@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Random-access reader for block-compressed MapFiles which keeps decompressed
+ * SequenceFile blocks in a {@link BlockCache}. Repeated lookups of the same key
+ * or of neighbouring keys in the same block do not need to decompress anything.
+ *
+ * If the MapFile has been written as a {@link BloomMapFile}, the Bloom filter
+ * is consulted before the data file is touched.
+ *
+ * Set <code>mapfile.reader.index.offheap</code> to keep the MapFile index in off-heap
+ * memory when many readers are open at the same time.
+ *
+ * @author Janek Bevendorff
+ */
+public class CachingMapFileReader implements MapFileLookupReader
+{
+    private static final int SYNC_ESCAPE    = -1;
+    private static final int SYNC_HASH_SIZE = 16;
+
+    /**
+     * Configuration key for loading MapFile indexes into off-heap memory.
+     */
+    public static final String OFF_HEAP_INDEX_KEY = "mapfile.reader.index.offheap";
+
+    private final String mDataFileName;
+    private final long mFileLength;
+    private final FSDataInputStream mIn;
+    private final MapFileIndex mIndex;
+    private final BlockCache mCache;
+    private final Class<? extends WritableComparable> mKeyClass;
+    private final Class<? extends Writable> mValueClass;
+    private final RawComparator<?> mComparator;
+    private final CompressionCodec mCodec;
+    private final Decompressor mDecompressor;
+    private final byte[] mSync = new byte[SYNC_HASH_SIZE];
+    private final byte[] mSyncCheck = new byte[SYNC_HASH_SIZE];
+    private final DynamicBloomFilter mBloomFilter;
+
+    private final DataOutputBuffer mKeyBuffer = new DataOutputBuffer();
+    private final DataOutputBuffer mDecompressBuffer = new DataOutputBuffer();
+    private final DataInputBuffer mDataInBuffer = new DataInputBuffer();
+
+    private long mLookups = 0;
+    private long mBloomNegatives = 0;
+    private long mBlocksDecompressed = 0;
+
+    /**
+     * Open MapFile using the process-wide shared {@link BlockCache}.
+     *
+     * @param mapFile MapFile directory
+     * @param conf Hadoop configuration
+     * @throws IOException if MapFile cannot be opened or is not block-compressed
+     */
+    public CachingMapFileReader(final Path mapFile, final Configuration conf) throws IOException
+    {
+        this(mapFile, conf, BlockCache.getSharedInstance(conf));
+    }
+
+    /**
+     * Open MapFile using the given {@link BlockCache}.
+     *
+     * @param mapFile MapFile directory
+     * @param conf Hadoop configuration
+     * @param cache block cache to use
+     * @throws IOException if MapFile cannot be opened or is not block-compressed
+     */
+    public CachingMapFileReader(final Path mapFile, final Configuration conf, final BlockCache cache) throws IOException
+    {
+        final Path dataFile = new Path(mapFile, MapFile.DATA_FILE_NAME);
+        final FileSystem fs = dataFile.getFileSystem(conf);
+        mDataFileName = fs.makeQualified(dataFile).toString();
+        mCache        = cache;
+
+        final long headerEnd;
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(dataFile))) {
+            if (!reader.isBlockCompressed()) {
+                throw new IOException("MapFile '" + mapFile + "' is not block-compressed");
+            }
+            mKeyClass   = reader.getKeyClass().asSubclass(WritableComparable.class);
+            mValueClass = reader.getValueClass().asSubclass(Writable.class);
+            mCodec      = reader.getCompressionCodec();
+            headerEnd   = reader.getPosition();
+        }
+
+        mComparator   = WritableComparator.get(mKeyClass, conf);
+        mDecompressor = CodecPool.getDecompressor(mCodec);
+        mFileLength   = fs.getFileStatus(dataFile).getLen();
+        mIn           = fs.open(dataFile);
+        mIn.readFully(headerEnd - SYNC_HASH_SIZE, mSync);
+        mIndex        = conf.getBoolean(OFF_HEAP_INDEX_KEY, false) ?
+                new OffHeapMapFileIndex(mapFile, conf) : new HeapMapFileIndex(mapFile, conf);
+
+        mBloomFilter = readBloomFilter(mapFile, conf);
+    }
+
+    /**
+     * Read Bloom filter of a MapFile written as {@link BloomMapFile}.
+     *
+     * @param mapFile MapFile directory
+     * @param conf Hadoop configuration
+     * @return Bloom filter or null if the MapFile has none
+     */
+    static DynamicBloomFilter readBloomFilter(final Path mapFile, final Configuration conf) throws IOException
+    {
+        final Path bloomFile = new Path(mapFile, BloomMapFile.BLOOM_FILE_NAME);
+        final FileSystem fs = bloomFile.getFileSystem(conf);
+        if (!fs.exists(bloomFile)) {
+            return null;
+        }
+        try (FSDataInputStream bloomIn = fs.open(bloomFile)) {
+            final DynamicBloomFilter bloomFilter = new DynamicBloomFilter();
+            bloomFilter.readFields(bloomIn);
+            return bloomFilter;
+        }
+    }
+
+    @Override
+    public boolean hasBloomFilter()
+    {
+        return null != mBloomFilter;
+    }
+
+    @Override
+    public synchronized boolean probablyHasKey(final WritableComparable key) throws IOException
+    {
+        if (null == mBloomFilter) {
+            return true;
+        }
+        mKeyBuffer.reset();
+        key.write(mKeyBuffer);
+        return mBloomFilter.membershipTest(new Key(Arrays.copyOf(mKeyBuffer.getData(), mKeyBuffer.getLength())));
+    }
+
+    /**
+     * Retrieve value for the given key. The Bloom filter is consulted first if there is one.
+     *
+     * @param key key to look up
+     * @param value value instance to populate
+     * @return <code>value</code> or null if key was not found
+     * @throws IOException on read errors
+     */
+    @Override
+    public synchronized Writable get(final WritableComparable key, final Writable value) throws IOException
+    {
+        ++mLookups;
+        mKeyBuffer.reset();
+        key.write(mKeyBuffer);
+        final byte[] keyBytes = mKeyBuffer.getData();
+        final int keyLength   = mKeyBuffer.getLength();
+
+        if (null != mBloomFilter && !mBloomFilter.membershipTest(new Key(Arrays.copyOf(keyBytes, keyLength)))) {
+            ++mBloomNegatives;
+            return null;
+        }
+
+        long pos = mIndex.findPosition(keyBytes, 0, keyLength);
+        if (pos < 0) {
+            return null;
+        }
+
+        while (pos < mFileLength) {
+            final BlockCache.Block block = readBlock(pos);
+
+            int low  = 0;
+            int high = block.getRecordCount() - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = mComparator.compare(block.getKeys(), block.getKeyOffset(mid), block.getKeyLength(mid),
+                        keyBytes, 0, keyLength);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    mDataInBuffer.reset(block.getValues(), block.getValueOffset(mid), block.getValueLength(mid));
+                    value.readFields(mDataInBuffer);
+                    return value;
+                }
+            }
+
+            if (low < block.getRecordCount()) {
+                // key would be inside this block, but isn't
+                return null;
+            }
+            pos = block.getNextBlockOffset();
+        }
+
+        return null;
+    }
+
+    /**
+     * Read and decompress block at the given offset or retrieve it from the cache.
+     */
+    private BlockCache.Block readBlock(final long offset) throws IOException
+    {
+        BlockCache.Block block = mCache.get(mDataFileName, offset);
+        if (null != block) {
+            return block;
+        }
+
+        mIn.seek(offset);
+        if (mIn.readInt() != SYNC_ESCAPE) {
+            throw new IOException("Missing sync marker at offset " + offset + " in " + mDataFileName);
+        }
+        mIn.readFully(mSyncCheck);
+        if (!Arrays.equals(mSync, mSyncCheck)) {
+            throw new IOException("Invalid sync marker at offset " + offset + " in " + mDataFileName);
+        }
+
+        final int numRecords = WritableUtils.readVInt(mIn);
+        final int[] keyOffsets = readLengthsBuffer(numRecords);
+        final byte[] keys = readDataBuffer(keyOffsets[numRecords]);
+        final int[] valueOffsets = readLengthsBuffer(numRecords);
+        final byte[] values = readDataBuffer(valueOffsets[numRecords]);
+
+        block = new BlockCache.Block(keys, keyOffsets, values, valueOffsets, mIn.getPos());
+        ++mBlocksDecompressed;
+        mCache.put(mDataFileName, offset, block);
+        return block;
+    }
+
+    /**
+     * Read compressed buffer of vint record lengths and convert them to offsets.
+     */
+    private int[] readLengthsBuffer(final int numRecords) throws IOException
+    {
+        decompressNextBuffer();
+        mDataInBuffer.reset(mDecompressBuffer.getData(), mDecompressBuffer.getLength());
+        final int[] offsets = new int[numRecords + 1];
+        for (int i = 0; i < numRecords; ++i) {
+            offsets[i + 1] = offsets[i] + WritableUtils.readVInt(mDataInBuffer);
+        }
+        return offsets;
+    }
+
+    /**
+     * Read compressed buffer of serialized keys or values.
+     */
+    private byte[] readDataBuffer(final int expectedLength) throws IOException
+    {
+        decompressNextBuffer();
+        if (mDecompressBuffer.getLength() != expectedLength) {
+            throw new IOException("Corrupt block in " + mDataFileName + ": expected " + expectedLength +
+                    " bytes, got " + mDecompressBuffer.getLength());
+        }
+        return Arrays.copyOf(mDecompressBuffer.getData(), expectedLength);
+    }
+
+    /**
+     * Decompress next length-prefixed buffer from the data file into the decompression buffer.
+     */
+    private void decompressNextBuffer() throws IOException
+    {
+        final byte[] compressed = new byte[WritableUtils.readVInt(mIn)];
+        mIn.readFully(compressed);
+
+        if (null != mDecompressor) {
+            mDecompressor.reset();
+        }
+        mDecompressBuffer.reset();
+        try (CompressionInputStream in = mCodec.createInputStream(new ByteArrayInputStream(compressed), mDecompressor)) {
+            IOUtils.copyBytes(in, mDecompressBuffer, 65536, false);
+        }
+    }
+
+    @Override
+    public Class<? extends WritableComparable> getKeyClass()
+    {
+        return mKeyClass;
+    }
+
+    @Override
+    public Class<? extends Writable> getValueClass()
+    {
+        return mValueClass;
+    }
+
+    public BlockCache getCache()
+    {
+        return mCache;
+    }
+
+    /**
+     * @return number of lookups performed by this reader
+     */
+    public synchronized long getLookupCount()
+    {
+        return mLookups;
+    }
+
+    /**
+     * @return number of lookups answered negatively by the Bloom filter
+     */
+    public synchronized long getBloomNegativeCount()
+    {
+        return mBloomNegatives;
+    }
+
+    /**
+     * @return number of blocks this reader had to decompress because they weren't cached
+     */
+    public synchronized long getDecompressedBlockCount()
+    {
+        return mBlocksDecompressed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        mIndex.close();
+        CodecPool.returnDecompressor(mDecompressor);
+        mIn.close();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Layout of incremental (delta) MapFiles. Deltas are stored in the <code>_deltas</code>
+ * directory of a base MapFile directory, named <code>delta-TIMESTAMP</code>, and have the
+ * same partitioning as the base.
+ *
+ * @author Janek Bevendorff
+ */
+public final class DeltaMapFiles
+{
+    /**
+     * Name of the directory holding the deltas of a base MapFile directory.
+     */
+    public static final String DELTAS_DIR = "_deltas";
+
+    /**
+     * Name prefix of delta directories.
+     */
+    public static final String DELTA_PREFIX = "delta-";
+
+    private static final String TIMESTAMP_FORMAT = "yyyyMMddHHmmssSSS";
+
+    private DeltaMapFiles()
+    {
+    }
+
+    /**
+     * Create path for a new delta of the given base.
+     *
+     * @param base base MapFile directory
+     * @return delta directory path (not created)
+     */
+    public static Path newDeltaPath(final Path base)
+    {
+        final SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return new Path(new Path(base, DELTAS_DIR), DELTA_PREFIX + format.format(new Date()));
+    }
+
+    /**
+     * List deltas of a base MapFile directory, newest first. Deltas without
+     * partition manifest are incomplete (e.g. failed jobs) and are ignored.
+     *
+     * @param base base MapFile directory
+     * @param conf Hadoop configuration
+     * @return list of delta directories
+     */
+    public static List<Path> listDeltas(final Path base, final Configuration conf) throws IOException
+    {
+        final Path deltasDir = new Path(base, DELTAS_DIR);
+        final FileSystem fs = deltasDir.getFileSystem(conf);
+        final List<Path> deltas = new ArrayList<>();
+        if (!fs.exists(deltasDir)) {
+            return deltas;
+        }
+
+        for (final FileStatus status : fs.listStatus(deltasDir)) {
+            if (status.isDirectory() && status.getPath().getName().startsWith(DELTA_PREFIX) &&
+                    fs.exists(new Path(status.getPath(), PartitionManifest.FILE_NAME))) {
+                deltas.add(status.getPath());
+            }
+        }
+        // timestamps sort lexicographically
+        deltas.sort((a, b) -> b.getName().compareTo(a.getName()));
+        return deltas;
+    }
+
+    /**
+     * Get path of a single partition MapFile.
+     *
+     * @param dir base or delta directory
+     * @param name output name (e.g. "data")
+     * @param partition partition number
+     * @return MapFile path
+     */
+    public static Path getPartitionPath(final Path dir, final String name, final int partition)
+    {
+        return new Path(dir, String.format("%s-r-%05d", name, partition));
+    }
+
+    /**
+     * Get partition number for a key in the same way as during MapFile generation.
+     *
+     * @param key MapFile key
+     * @param numPartitions total number of partitions
+     * @return partition number
+     */
+    public static int getPartition(final String key, final int numPartitions)
+    {
+        return (key.hashCode() % numPartitions + numPartitions) % numPartitions;
+    }
+}
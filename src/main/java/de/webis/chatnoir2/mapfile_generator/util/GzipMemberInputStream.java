@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Sequential {@link BaseGzipMemberInputStream}, which inflates one member after another.
+ *
+ * @author Janek Bevendorff
+ */
+public class GzipMemberInputStream extends BaseGzipMemberInputStream
+{
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final int FLAG_FHCRC    = 2;
+    private static final int FLAG_FEXTRA   = 4;
+    private static final int FLAG_FNAME    = 8;
+    private static final int FLAG_FCOMMENT = 16;
+
+    private final InputStream mIn;
+    private final Inflater mInflater = new Inflater(true);
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mBuf = new byte[BUFFER_SIZE];
+    private final byte[] mSingleByte = new byte[1];
+    private int mBufPos = 0;
+    private int mBufLen = 0;
+    private long mBufOffset;
+    private boolean mInflaterHasInput = false;
+
+    private long mMemberStart = -1;
+    private long mMemberIndex = -1;
+    private boolean mInMember = false;
+    private boolean mEof = false;
+    private boolean mSingleMember = false;
+
+    private boolean mTimingEnabled = false;
+    private long mInflateNanos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param in raw compressed input stream
+     * @param startOffset file offset of the first byte in <code>in</code>
+     */
+    public GzipMemberInputStream(final InputStream in, final long startOffset)
+    {
+        mIn = in;
+        mBufOffset = startOffset;
+    }
+
+    /**
+     * @return compressed file offset of the current member, -1 if no member was started yet
+     */
+    @Override
+    public long getMemberStart()
+    {
+        return mMemberStart;
+    }
+
+    /**
+     * @return running number of the current member, -1 if no member was started yet
+     */
+    @Override
+    public long getMemberIndex()
+    {
+        return mMemberIndex;
+    }
+
+    /**
+     * @return number of compressed bytes consumed so far (as file offset)
+     */
+    @Override
+    public long getCompressedPos()
+    {
+        return mBufOffset + mBufPos;
+    }
+
+    /**
+     * @return whether the end of the last member has been reached
+     */
+    @Override
+    public boolean isEof()
+    {
+        return mEof;
+    }
+
+    /**
+     * Enable or disable measuring the time spent inflating data.
+     *
+     * @param enabled whether to measure inflation time
+     */
+    @Override
+    public void setTimingEnabled(final boolean enabled)
+    {
+        mTimingEnabled = enabled;
+    }
+
+    /**
+     * @return cumulative nanoseconds spent inflating data while timing was enabled
+     */
+    @Override
+    public long getInflateNanos()
+    {
+        return mInflateNanos;
+    }
+
+    /**
+     * Stop after the first member instead of continuing with the next one (default: false).
+     * Afterwards, {@link #getCompressedPos()} is the offset directly after the member's trailer.
+     *
+     * @param singleMember whether to read only a single member
+     */
+    public void setSingleMember(final boolean singleMember)
+    {
+        mSingleMember = singleMember;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return read(mSingleByte, 0, 1) == -1 ? -1 : mSingleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!mInMember && !nextMember()) {
+            return -1;
+        }
+
+        try {
+            int n;
+            while ((n = inflate(b, off, len)) == 0) {
+                if (mInflater.finished() || mInflater.needsDictionary()) {
+                    finishMember();
+                    if (!nextMember()) {
+                        return -1;
+                    }
+                    continue;
+                }
+                if (mInflater.needsInput()) {
+                    syncBufferPos();
+                    if (!fillBuffer()) {
+                        throw new EOFException("Unexpected end of gzip member at offset " + getCompressedPos());
+                    }
+                    mInflater.setInput(mBuf, mBufPos, mBufLen - mBufPos);
+                    mInflaterHasInput = true;
+                }
+            }
+            mCrc.update(b, off, n);
+            syncBufferPos();
+            return n;
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid gzip data at offset " + getCompressedPos() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return mEof ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        mInflater.end();
+        mIn.close();
+    }
+
+    private int inflate(final byte[] b, final int off, final int len) throws DataFormatException
+    {
+        if (!mTimingEnabled) {
+            return mInflater.inflate(b, off, len);
+        }
+        final long start = System.nanoTime();
+        final int n = mInflater.inflate(b, off, len);
+        mInflateNanos += System.nanoTime() - start;
+        return n;
+    }
+
+    /**
+     * Update buffer position from the amount of input the inflater has consumed.
+     */
+    private void syncBufferPos()
+    {
+        if (mInflaterHasInput) {
+            mBufPos = mBufLen - mInflater.getRemaining();
+        }
+    }
+
+    /**
+     * Start reading the next gzip member.
+     *
+     * @return false if there are no more members
+     */
+    private boolean nextMember() throws IOException
+    {
+        if (mEof || (mSingleMember && mMemberIndex >= 0) || !fillBuffer()) {
+            mEof = true;
+            return false;
+        }
+
+        mMemberStart = getCompressedPos();
+        ++mMemberIndex;
+        readHeader();
+        mCrc.reset();
+        mInMember = true;
+        return true;
+    }
+
+    /**
+     * Verify gzip trailer and mark member as finished.
+     */
+    private void finishMember() throws IOException
+    {
+        syncBufferPos();
+        mInflaterHasInput = false;
+        final long crc  = readUInt32();
+        final long size = readUInt32();
+        if (crc != mCrc.getValue() || size != (mInflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip trailer at offset " + getCompressedPos());
+        }
+        mInMember = false;
+    }
+
+    /**
+     * Parse gzip member header as per RFC 1952.
+     */
+    private void readHeader() throws IOException
+    {
+        if (readUByte() != 0x1f || readUByte() != 0x8b) {
+            throw new ZipException("Not in gzip format at offset " + mMemberStart);
+        }
+        if (readUByte() != 8) {
+            throw new ZipException("Unsupported gzip compression method at offset " + mMemberStart);
+        }
+        final int flags = readUByte();
+        skipBytes(6);
+        if ((flags & FLAG_FEXTRA) != 0) {
+            skipBytes(readUByte() | (readUByte() << 8));
+        }
+        if ((flags & FLAG_FNAME) != 0) {
+            //noinspection StatementWithEmptyBody
+            while (readUByte() != 0) ;
+        }
+        if ((flags & FLAG_FCOMMENT) != 0) {
+            //noinspection StatementWithEmptyBody
+            while (readUByte() != 0) ;
+        }
+        if ((flags & FLAG_FHCRC) != 0) {
+            skipBytes(2);
+        }
+        mInflater.reset();
+        mInflaterHasInput = false;
+    }
+
+    private long readUInt32() throws IOException
+    {
+        return readUByte() | (readUByte() << 8) | (readUByte() << 16) | ((long) readUByte() << 24);
+    }
+
+    private void skipBytes(int n) throws IOException
+    {
+        while (n-- > 0) {
+            readUByte();
+        }
+    }
+
+    private int readUByte() throws IOException
+    {
+        if (!fillBuffer()) {
+            throw new EOFException("Unexpected end of gzip stream at offset " + getCompressedPos());
+        }
+        return mBuf[mBufPos++] & 0xff;
+    }
+
+    /**
+     * Refill buffer if it has been consumed completely.
+     *
+     * @return false if there is no more input
+     */
+    private boolean fillBuffer() throws IOException
+    {
+        if (mBufPos < mBufLen) {
+            return true;
+        }
+
+        mBufOffset += mBufLen;
+        mBufPos = 0;
+        mBufLen = 0;
+        final int n = mIn.read(mBuf, 0, mBuf.length);
+        if (n <= 0) {
+            return false;
+        }
+        mBufLen = n;
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link MapFileIndex} which keeps all serialized index keys in one heap byte array.
+ *
+ * @author Janek Bevendorff
+ */
+public class HeapMapFileIndex implements MapFileIndex
+{
+    private final RawComparator<?> mComparator;
+    private byte[] mKeys;
+    private int[] mKeyOffsets;
+    private long[] mPositions;
+    private int mSize = 0;
+
+    /**
+     * Load index of the given MapFile.
+     *
+     * @param mapFile MapFile directory
+     * @param conf Hadoop configuration
+     * @throws IOException if index cannot be read
+     */
+    public HeapMapFileIndex(final Path mapFile, final Configuration conf) throws IOException
+    {
+        final Path indexFile = new Path(mapFile, MapFile.INDEX_FILE_NAME);
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(indexFile))) {
+            final Class<? extends WritableComparable> keyClass = reader.getKeyClass().asSubclass(WritableComparable.class);
+            mComparator = WritableComparator.get(keyClass, conf);
+
+            final WritableComparable key = ReflectionUtils.newInstance(keyClass, conf);
+            final LongWritable position  = new LongWritable();
+            final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+
+            mKeyOffsets = new int[1024];
+            mPositions  = new long[1024];
+            while (reader.next(key, position)) {
+                if (mSize == mPositions.length) {
+                    mKeyOffsets = Arrays.copyOf(mKeyOffsets, mSize * 2);
+                    mPositions  = Arrays.copyOf(mPositions, mSize * 2);
+                }
+                mKeyOffsets[mSize] = keyBuffer.getLength();
+                mPositions[mSize]  = position.get();
+                key.write(keyBuffer);
+                ++mSize;
+            }
+
+            mKeys       = Arrays.copyOf(keyBuffer.getData(), keyBuffer.getLength());
+            mKeyOffsets = Arrays.copyOf(mKeyOffsets, mSize + 1);
+            mKeyOffsets[mSize] = mKeys.length;
+            mPositions  = Arrays.copyOf(mPositions, mSize);
+        }
+    }
+
+    @Override
+    public long findPosition(final byte[] key, final int offset, final int length)
+    {
+        int low  = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = mComparator.compare(mKeys, mKeyOffsets[mid], mKeyOffsets[mid + 1] - mKeyOffsets[mid],
+                    key, offset, length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mPositions[mid];
+            }
+        }
+        return high < 0 ? -1 : mPositions[high];
+    }
+
+    @Override
+    public int size()
+    {
+        return mSize;
+    }
+
+    @Override
+    public void close()
+    {
+        mKeys       = null;
+        mKeyOffsets = null;
+        mPositions  = null;
+    }
+}
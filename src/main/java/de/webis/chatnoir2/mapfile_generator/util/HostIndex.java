@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import java.util.Locale;
+
+/**
+ * Layout of the host secondary index. The <code>host</code> MapFiles map normalized
+ * host names to sorted lists of record UUIDs ({@link UUIDListWritable}). Host names are
+ * lower-cased, stripped of user info, port and trailing dots and, by default, stored with
+ * reversed labels (<code>www.example.com</code> becomes <code>com.example.www</code>), so
+ * all subdomains of a domain are stored next to each other and can be found with a prefix scan.
+ *
+ * Lists of popular hosts are split into several entries with the same key of at most
+ * {@link #CHUNK_SIZE_KEY} UUIDs each, so neither the reducer nor readers have to hold
+ * the UUIDs of a whole host in memory.
+ *
+ * @author Janek Bevendorff
+ */
+public final class HostIndex
+{
+    /**
+     * Configuration key for enabling the host index.
+     */
+    public static final String ENABLE_KEY = "mapfile.host.enable";
+
+    /**
+     * Configuration key for storing host names with reversed labels (default: true).
+     */
+    public static final String REVERSE_KEY = "mapfile.host.reverse";
+
+    /**
+     * Configuration key for the maximum number of UUIDs in a single index entry.
+     */
+    public static final String CHUNK_SIZE_KEY = "mapfile.host.chunk.size";
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    /**
+     * Partition manifest property telling whether host names are reversed.
+     */
+    public static final String REVERSED_PROPERTY = "host.reversed";
+
+    /**
+     * Separator between host name and UUID in composite shuffle keys.
+     */
+    public static final char KEY_SEPARATOR = '\t';
+
+    private HostIndex()
+    {
+    }
+
+    /**
+     * Extract normalized host name from a URI.
+     *
+     * @param uri absolute URI
+     * @param reverse reverse host name labels
+     * @return normalized host name, null if the URI has no (valid) host
+     */
+    public static String getHost(final String uri, final boolean reverse)
+    {
+        int start = uri.indexOf("://");
+        if (-1 == start) {
+            return null;
+        }
+        start += 3;
+        int end = start;
+        while (end < uri.length() && -1 == "/?#".indexOf(uri.charAt(end))) {
+            ++end;
+        }
+        final int userInfoEnd = uri.lastIndexOf('@', end - 1);
+        if (userInfoEnd >= start) {
+            start = userInfoEnd + 1;
+        }
+
+        String host = uri.substring(start, end);
+        if (host.startsWith("[")) {
+            // IPv6 literal
+            final int literalEnd = host.indexOf(']');
+            if (-1 != literalEnd) {
+                host = host.substring(0, literalEnd + 1);
+            }
+        } else if (-1 != host.indexOf(':')) {
+            host = host.substring(0, host.indexOf(':'));
+        }
+        return normalizeHost(host, reverse);
+    }
+
+    /**
+     * Normalize a host name (or host name prefix) the same way as for the index.
+     *
+     * @param host host name
+     * @param reverse reverse host name labels
+     * @return normalized host name, null if the host name is empty or contains whitespace
+     */
+    public static String normalizeHost(String host, final boolean reverse)
+    {
+        host = host.toLowerCase(Locale.ROOT);
+        int length = host.length();
+        while (length > 0 && host.charAt(length - 1) == '.') {
+            --length;
+        }
+        if (0 == length) {
+            return null;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (host.charAt(i) <= ' ') {
+                return null;
+            }
+        }
+        host = host.substring(0, length);
+        return reverse && !isIPAddress(host) ? reverseLabels(host) : host;
+    }
+
+    /**
+     * Check whether an index key belongs to the given normalized host or, if host names
+     * are reversed, to one of its subdomains. Non-reversed keys are matched by plain prefix.
+     *
+     * @param key index key
+     * @param host normalized host name
+     * @param reversed whether host names are reversed
+     * @return true if key matches
+     */
+    public static boolean matches(final String key, final String host, final boolean reversed)
+    {
+        if (!reversed || key.length() == host.length()) {
+            return key.startsWith(host);
+        }
+        return key.startsWith(host) && key.charAt(host.length()) == '.';
+    }
+
+    private static boolean isIPAddress(final String host)
+    {
+        if (host.startsWith("[")) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); ++i) {
+            final char c = host.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String reverseLabels(final String host)
+    {
+        final StringBuilder reversed = new StringBuilder(host.length());
+        int end = host.length();
+        for (int i = end - 1; i >= -1; --i) {
+            if (-1 == i || host.charAt(i) == '.') {
+                if (reversed.length() > 0) {
+                    reversed.append('.');
+                }
+                reversed.append(host, i + 1, end);
+                end = i;
+            }
+        }
+        return reversed.toString();
+    }
+}
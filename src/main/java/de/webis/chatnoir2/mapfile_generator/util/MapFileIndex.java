@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+/**
+ * Sorted in-memory representation of a MapFile <code>index</code> file, which maps
+ * every n-th key of the data file to the file position of its enclosing block or record.
+ * Keys are handled in their serialized form and compared with the raw comparator
+ * of the MapFile key class.
+ *
+ * @author Janek Bevendorff
+ */
+public interface MapFileIndex
+{
+    /**
+     * Find the data file position from which a sequential scan for the given key has to start,
+     * i.e., the position of the largest index key which is less than or equal to the given key.
+     *
+     * @param key serialized key
+     * @param offset start offset of key in <code>key</code>
+     * @param length length of serialized key
+     * @return data file position, -1 if key is smaller than the first index key
+     */
+    long findPosition(byte[] key, int offset, int length);
+
+    /**
+     * @return number of index entries
+     */
+    int size();
+
+    /**
+     * Release any resources held by this index.
+     */
+    void close();
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Random-access reader for a single MapFile, as used by {@link OverlayMapFileReader}.
+ *
+ * @author Janek Bevendorff
+ */
+public interface MapFileLookupReader extends Closeable
+{
+    /**
+     * @return MapFile key class
+     */
+    Class<? extends WritableComparable> getKeyClass();
+
+    /**
+     * @return MapFile value class
+     */
+    Class<? extends Writable> getValueClass();
+
+    /**
+     * @return true if the MapFile has a Bloom filter
+     */
+    boolean hasBloomFilter();
+
+    /**
+     * Check the Bloom filter of the MapFile for the given key.
+     *
+     * @param key key to check
+     * @return false if the key is definitely not in the MapFile, true if it may be (or there is no Bloom filter)
+     */
+    boolean probablyHasKey(WritableComparable key) throws IOException;
+
+    /**
+     * Retrieve value for the given key.
+     *
+     * @param key key to look up
+     * @param value value instance to populate
+     * @return <code>value</code> or null if key was not found
+     */
+    Writable get(WritableComparable key, Writable value) throws IOException;
+}
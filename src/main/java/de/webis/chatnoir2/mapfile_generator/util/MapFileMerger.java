@@ -17,6 +17,7 @@
 
 package de.webis.chatnoir2.mapfile_generator.util;
 
+import de.webis.chatnoir2.mapfile_generator.jfr.RecordEvents;
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -39,13 +40,19 @@ public class MapFileMerger {
     private MapFile.Writer outWriter;
     private Class<Writable> valueClass = null;
     private Class<WritableComparable> keyClass = null;
+    private boolean skipDuplicateKeys = false;
+    private int maxMergedUUIDs = 0;
+    private WritableComparable pendingKey = null;
+    private UUIDListWritable pendingValue = null;
 
     public enum MapFileMergeCounters {
         MAPFILES_TO_BE_MERGED,
         MAPFILE_MERGES_FINISHED,
         EMPTY_INPUT_MAPFILES,
         MAPFILE_INPUTS_EXHAUSTED,
-        MAPFILE_ENTRIES_WRITTEN
+        MAPFILE_ENTRIES_WRITTEN,
+        MAPFILE_DUPLICATE_ENTRIES_SKIPPED,
+        MAPFILE_UUID_LISTS_MERGED
     }
 
     private static Counter mapFilesToBeMergedCounter = null;
@@ -53,6 +60,8 @@ public class MapFileMerger {
     private static Counter emptyInputMapFilesCounter = null;
     private static Counter mapFileInputsExhaustedCounter = null;
     private static Counter mapFileEntriesWrittenCounter = null;
+    private static Counter mapFileDuplicateEntriesSkippedCounter = null;
+    private static Counter mapFileUUIDListsMergedCounter = null;
 
     public MapFileMerger(TaskAttemptContext context) throws IOException {
         this.context = context;
@@ -64,9 +73,28 @@ public class MapFileMerger {
             emptyInputMapFilesCounter     = context.getCounter(MapFileMergeCounters.EMPTY_INPUT_MAPFILES);
             mapFileInputsExhaustedCounter = context.getCounter(MapFileMergeCounters.MAPFILE_INPUTS_EXHAUSTED);
             mapFileEntriesWrittenCounter  = context.getCounter(MapFileMergeCounters.MAPFILE_ENTRIES_WRITTEN);
+            mapFileDuplicateEntriesSkippedCounter = context.getCounter(MapFileMergeCounters.MAPFILE_DUPLICATE_ENTRIES_SKIPPED);
+            mapFileUUIDListsMergedCounter = context.getCounter(MapFileMergeCounters.MAPFILE_UUID_LISTS_MERGED);
         }
     }
 
+    /**
+     * Write only the first of several entries with the same key (default: false).
+     * Useful for content MapFiles, where equal keys imply equal values.
+     */
+    public void setSkipDuplicateKeys(boolean skipDuplicateKeys) {
+        this.skipDuplicateKeys = skipDuplicateKeys;
+    }
+
+    /**
+     * Combine {@link UUIDListWritable} values of entries with the same key into one entry,
+     * as long as the combined list has at most the given number of UUIDs (default: 0, disabled).
+     * Useful for host index MapFiles, whose inputs contain partial UUID lists of the same hosts.
+     */
+    public void setMaxMergedUUIDs(int maxMergedUUIDs) {
+        this.maxMergedUUIDs = maxMergedUUIDs;
+    }
+
     /**
      * Merge multiple MapFiles to one Mapfile
      */
@@ -116,9 +144,20 @@ public class MapFileMerger {
                             + " specified comparator");
         }
 
-        outWriter = new MapFile.Writer(conf, outMapFile,
-                MapFile.Writer.keyClass(keyClass),
-                MapFile.Writer.valueClass(valueClass));
+        if (maxMergedUUIDs > 0 && !UUIDListWritable.class.equals(valueClass)) {
+            throw new HadoopIllegalArgumentException(
+                    "UUID lists can only be merged for " + UUIDListWritable.class.getSimpleName() + " values");
+        }
+
+        if (conf.getBoolean("mapfile.bloom.enable", false)) {
+            outWriter = new BloomMapFile.Writer(conf, outMapFile,
+                    MapFile.Writer.keyClass(keyClass),
+                    MapFile.Writer.valueClass(valueClass));
+        } else {
+            outWriter = new MapFile.Writer(conf, outMapFile,
+                    MapFile.Writer.keyClass(keyClass),
+                    MapFile.Writer.valueClass(valueClass));
+        }
     }
 
     /**
@@ -147,6 +186,8 @@ public class MapFileMerger {
             mapFilesToBeMergedCounter.increment(1);
         }
 
+        WritableComparable lastKey = skipDuplicateKeys ? ReflectionUtils.newInstance(keyClass, null) : null;
+        boolean first = true;
         do {
             int currentEntry = -1;
             WritableComparable currentKey = null;
@@ -164,12 +205,24 @@ public class MapFileMerger {
             }
             if (currentKey == null) {
                 // Merge Complete
+                if (null != pendingValue && pendingValue.size() > 0) {
+                    append(pendingKey, pendingValue);
+                }
                 mapFileMergesFinishedCounter.increment(1);
                 break;
             }
-            // Write the selected key/value to merge stream
-            outWriter.append(currentKey, currentValue);
-            mapFileEntriesWrittenCounter.increment(1);
+            if (skipDuplicateKeys && !first && comparator.compare(lastKey, currentKey) == 0) {
+                mapFileDuplicateEntriesSkippedCounter.increment(1);
+            } else if (maxMergedUUIDs > 0) {
+                mergeUUIDList(currentKey, (UUIDListWritable) currentValue);
+            } else {
+                // Write the selected key/value to merge stream
+                append(currentKey, currentValue);
+                if (skipDuplicateKeys) {
+                    ReflectionUtils.copy(conf, currentKey, lastKey);
+                    first = false;
+                }
+            }
             // Replace the already written key/value in keys/values arrays with the
             // next key/value from the selected input
             if (!inReaders[currentEntry].next(keys[currentEntry], values[currentEntry])) {
@@ -183,6 +236,38 @@ public class MapFileMerger {
         } while (true);
     }
 
+    /**
+     * Combine UUID list with the pending list of the same key or write the pending list
+     * and start a new one if the key changes or the combined list would be too long.
+     */
+    private void mergeUUIDList(WritableComparable key, UUIDListWritable value) throws IOException {
+        if (pendingValue == null) {
+            pendingKey = ReflectionUtils.newInstance(keyClass, null);
+            pendingValue = new UUIDListWritable();
+        }
+        if (pendingValue.size() > 0 && comparator.compare(pendingKey, key) == 0
+                && pendingValue.size() + value.size() <= maxMergedUUIDs) {
+            pendingValue.merge(value);
+            mapFileUUIDListsMergedCounter.increment(1);
+            return;
+        }
+        if (pendingValue.size() > 0) {
+            append(pendingKey, pendingValue);
+        }
+        ReflectionUtils.copy(conf, key, pendingKey);
+        pendingValue.set(value);
+    }
+
+    private void append(WritableComparable key, Writable value) throws IOException {
+        final Object mergeEvent = RecordEvents.begin(RecordEvents.Type.MERGE);
+        outWriter.append(key, value);
+        if (RecordEvents.shouldCommit(mergeEvent)) {
+            RecordEvents.commit(mergeEvent, key.toString(), null,
+                    value instanceof Text ? ((Text) value).getLength() : -1, null);
+        }
+        mapFileEntriesWrittenCounter.increment(1);
+    }
+
     private void close() throws IOException {
         for (int i = 0; i < inReaders.length; i++) {
             IOUtils.closeStream(inReaders[i]);
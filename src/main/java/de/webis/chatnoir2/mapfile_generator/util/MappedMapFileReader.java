@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random-access reader for MapFiles on a local file system. The data file is
+ * memory-mapped and lookups operate directly on the mapped pages without going
+ * through the Hadoop {@link org.apache.hadoop.fs.FileSystem} stream stack.
+ *
+ * Only uncompressed and record-compressed MapFiles are supported. Use
+ * {@link CachingMapFileReader} for block-compressed MapFiles. The index file is
+ * compressed, so it cannot be mapped and is loaded into an {@link OffHeapMapFileIndex}.
+ * If the MapFile has been written as a {@link BloomMapFile}, the Bloom filter is consulted first.
+ *
+ * @author Janek Bevendorff
+ */
+public class MappedMapFileReader implements MapFileLookupReader
+{
+    private static final int SYNC_ESCAPE    = -1;
+    private static final int SYNC_HASH_SIZE = 16;
+
+    /**
+     * Maximum size of a single mapped segment.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final File mDataFile;
+    private final long mFileLength;
+    private final MappedByteBuffer[] mSegments;
+    private final MapFileIndex mIndex;
+    private final Class<? extends WritableComparable> mKeyClass;
+    private final Class<? extends Writable> mValueClass;
+    private final RawComparator<?> mComparator;
+    private final CompressionCodec mCodec;
+    private final byte[] mSync = new byte[SYNC_HASH_SIZE];
+    private final DynamicBloomFilter mBloomFilter;
+
+    private final DataOutputBuffer mKeyBuffer = new DataOutputBuffer();
+    private final DataInputBuffer mDataInBuffer = new DataInputBuffer();
+    private byte[] mKeyScratch = new byte[256];
+
+    /**
+     * Open local MapFile.
+     *
+     * @param mapFile local MapFile directory
+     * @param conf Hadoop configuration
+     * @throws IOException if MapFile cannot be opened or is block-compressed
+     */
+    public MappedMapFileReader(final File mapFile, final Configuration conf) throws IOException
+    {
+        mDataFile = new File(mapFile, MapFile.DATA_FILE_NAME);
+        final Path mapFilePath  = new Path(mapFile.getAbsoluteFile().toURI());
+        final Path dataFilePath = new Path(mDataFile.getAbsoluteFile().toURI());
+
+        final long headerEnd;
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(dataFilePath))) {
+            if (reader.isBlockCompressed()) {
+                throw new IOException("MapFile '" + mapFile + "' is block-compressed");
+            }
+            mKeyClass   = reader.getKeyClass().asSubclass(WritableComparable.class);
+            mValueClass = reader.getValueClass().asSubclass(Writable.class);
+            mCodec      = reader.isCompressed() ? reader.getCompressionCodec() : null;
+            headerEnd   = reader.getPosition();
+        }
+        mComparator = WritableComparator.get(mKeyClass, conf);
+
+        try (RandomAccessFile file = new RandomAccessFile(mDataFile, "r")) {
+            final FileChannel channel = file.getChannel();
+            mFileLength = channel.size();
+            mSegments   = new MappedByteBuffer[(int) ((mFileLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < mSegments.length; ++i) {
+                final long start = i * SEGMENT_SIZE;
+                mSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, mFileLength - start));
+            }
+        }
+
+        for (int i = 0; i < SYNC_HASH_SIZE; ++i) {
+            mSync[i] = getByte(headerEnd - SYNC_HASH_SIZE + i);
+        }
+
+        mIndex = new OffHeapMapFileIndex(mapFilePath, conf);
+        mBloomFilter = CachingMapFileReader.readBloomFilter(mapFilePath, conf);
+    }
+
+    @Override
+    public boolean hasBloomFilter()
+    {
+        return null != mBloomFilter;
+    }
+
+    @Override
+    public synchronized boolean probablyHasKey(final WritableComparable key) throws IOException
+    {
+        if (null == mBloomFilter) {
+            return true;
+        }
+        mKeyBuffer.reset();
+        key.write(mKeyBuffer);
+        return mBloomFilter.membershipTest(new Key(Arrays.copyOf(mKeyBuffer.getData(), mKeyBuffer.getLength())));
+    }
+
+    /**
+     * Retrieve raw serialized value for the given key as a read-only view of the mapped data file.
+     * For record-compressed MapFiles, the returned bytes are compressed.
+     * Values spanning more than one mapped segment are copied.
+     *
+     * @param key key to look up
+     * @return serialized value or null if key was not found
+     * @throws IOException on read errors
+     */
+    public synchronized ByteBuffer getRaw(final WritableComparable key) throws IOException
+    {
+        mKeyBuffer.reset();
+        key.write(mKeyBuffer);
+        final byte[] keyBytes = mKeyBuffer.getData();
+        final int keyLength   = mKeyBuffer.getLength();
+
+        if (null != mBloomFilter && !mBloomFilter.membershipTest(new Key(Arrays.copyOf(keyBytes, keyLength)))) {
+            return null;
+        }
+
+        long pos = mIndex.findPosition(keyBytes, 0, keyLength);
+        if (pos < 0) {
+            return null;
+        }
+
+        while (pos < mFileLength) {
+            int recordLength = getInt(pos);
+            if (recordLength == SYNC_ESCAPE) {
+                checkSync(pos + 4);
+                pos += 4 + SYNC_HASH_SIZE;
+                continue;
+            }
+
+            final int recordKeyLength = getInt(pos + 4);
+            final long keyStart = pos + 8;
+            final int cmp = compareKey(keyStart, recordKeyLength, keyBytes, keyLength);
+            if (cmp == 0) {
+                return slice(keyStart + recordKeyLength, recordLength - recordKeyLength);
+            } else if (cmp > 0) {
+                return null;
+            }
+            pos = keyStart + recordLength;
+        }
+
+        return null;
+    }
+
+    /**
+     * Retrieve value for the given key.
+     *
+     * @param key key to look up
+     * @param value value instance to populate
+     * @return <code>value</code> or null if key was not found
+     * @throws IOException on read errors
+     */
+    @Override
+    public synchronized Writable get(final WritableComparable key, final Writable value) throws IOException
+    {
+        final ByteBuffer raw = getRaw(key);
+        if (null == raw) {
+            return null;
+        }
+
+        final byte[] valueBytes = new byte[raw.remaining()];
+        raw.get(valueBytes);
+
+        if (null == mCodec) {
+            mDataInBuffer.reset(valueBytes, valueBytes.length);
+            value.readFields(mDataInBuffer);
+            return value;
+        }
+
+        final Decompressor decompressor = CodecPool.getDecompressor(mCodec);
+        try (DataInputStream in = new DataInputStream(
+                mCodec.createInputStream(new ByteArrayInputStream(valueBytes), decompressor))) {
+            value.readFields(in);
+        } finally {
+            CodecPool.returnDecompressor(decompressor);
+        }
+        return value;
+    }
+
+    private int compareKey(final long keyStart, final int recordKeyLength, final byte[] key, final int keyLength)
+    {
+        if (mKeyScratch.length < recordKeyLength) {
+            mKeyScratch = new byte[recordKeyLength];
+        }
+        final ByteBuffer recordKey = slice(keyStart, recordKeyLength);
+        recordKey.get(mKeyScratch, 0, recordKeyLength);
+        return mComparator.compare(mKeyScratch, 0, recordKeyLength, key, 0, keyLength);
+    }
+
+    private void checkSync(final long pos) throws IOException
+    {
+        for (int i = 0; i < SYNC_HASH_SIZE; ++i) {
+            if (getByte(pos + i) != mSync[i]) {
+                throw new IOException("Invalid sync marker at offset " + pos + " in " + mDataFile);
+            }
+        }
+    }
+
+    /**
+     * Get read-only view of the given file region. Regions spanning two segments are copied.
+     */
+    private ByteBuffer slice(final long pos, final int length)
+    {
+        final int segment = (int) (pos / SEGMENT_SIZE);
+        final int offset  = (int) (pos % SEGMENT_SIZE);
+        if (offset + (long) length <= mSegments[segment].capacity()) {
+            final ByteBuffer view = mSegments[segment].duplicate();
+            view.position(offset).limit(offset + length);
+            return view.slice().asReadOnlyBuffer();
+        }
+
+        final ByteBuffer copy = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; ++i) {
+            copy.put(getByte(pos + i));
+        }
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    private byte getByte(final long pos)
+    {
+        return mSegments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+    }
+
+    private int getInt(final long pos)
+    {
+        return ((getByte(pos) & 0xff) << 24) | ((getByte(pos + 1) & 0xff) << 16) |
+                ((getByte(pos + 2) & 0xff) << 8) | (getByte(pos + 3) & 0xff);
+    }
+
+    @Override
+    public Class<? extends WritableComparable> getKeyClass()
+    {
+        return mKeyClass;
+    }
+
+    @Override
+    public Class<? extends Writable> getValueClass()
+    {
+        return mValueClass;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        // mapped segments are unmapped once they become unreachable
+        mIndex.close();
+    }
+}
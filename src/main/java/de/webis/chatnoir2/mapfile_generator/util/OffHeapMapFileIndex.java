@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.*;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * {@link MapFileIndex} which keeps serialized index keys, key offsets and data file
+ * positions in direct (off-heap) buffers. Apart from a few objects per index,
+ * nothing is allocated on the heap, so the number of open indexes does not
+ * affect heap size or garbage collection times. Lookups copy index keys into a
+ * single scratch buffer per index, so they must not run concurrently.
+ *
+ * @author Janek Bevendorff
+ */
+public class OffHeapMapFileIndex implements MapFileIndex
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final RawComparator<?> mComparator;
+    private ByteBuffer mKeys;
+    private IntBuffer mKeyOffsets;
+    private LongBuffer mPositions;
+    private int mSize = 0;
+    private int mMaxKeyLength = 0;
+    private ByteBuffer mKeyView;
+    private byte[] mScratch;
+
+    /**
+     * Load index of the given MapFile.
+     *
+     * @param mapFile MapFile directory
+     * @param conf Hadoop configuration
+     * @throws IOException if index cannot be read
+     */
+    public OffHeapMapFileIndex(final Path mapFile, final Configuration conf) throws IOException
+    {
+        final Path indexFile = new Path(mapFile, MapFile.INDEX_FILE_NAME);
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(indexFile))) {
+            final Class<? extends WritableComparable> keyClass = reader.getKeyClass().asSubclass(WritableComparable.class);
+            mComparator = WritableComparator.get(keyClass, conf);
+
+            final WritableComparable key = ReflectionUtils.newInstance(keyClass, conf);
+            final LongWritable position  = new LongWritable();
+            final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+
+            ByteBuffer keys       = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 64);
+            IntBuffer keyOffsets  = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 4).asIntBuffer();
+            LongBuffer positions  = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 8).asLongBuffer();
+            while (reader.next(key, position)) {
+                keyBuffer.reset();
+                key.write(keyBuffer);
+
+                if (keys.remaining() < keyBuffer.getLength()) {
+                    keys = grow(keys, keyBuffer.getLength());
+                }
+                if (positions.remaining() < 1) {
+                    keyOffsets = grow(keyOffsets);
+                    positions  = grow(positions);
+                }
+
+                keyOffsets.put(keys.position());
+                positions.put(position.get());
+                keys.put(keyBuffer.getData(), 0, keyBuffer.getLength());
+                mMaxKeyLength = Math.max(mMaxKeyLength, keyBuffer.getLength());
+                ++mSize;
+            }
+
+            // shrink buffers to actual size
+            keys.flip();
+            mKeys = ByteBuffer.allocateDirect(keys.remaining()).put(keys);
+            mKeyOffsets = ByteBuffer.allocateDirect((mSize + 1) * 4).asIntBuffer();
+            keyOffsets.flip();
+            mKeyOffsets.put(keyOffsets).put(mKeys.capacity());
+            mPositions = ByteBuffer.allocateDirect(mSize * 8).asLongBuffer();
+            positions.flip();
+            mPositions.put(positions);
+        }
+        mKeyView = mKeys.duplicate();
+        mScratch = new byte[mMaxKeyLength];
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buffer, final int minAdditional)
+    {
+        final ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.capacity() + minAdditional));
+        buffer.flip();
+        return newBuffer.put(buffer);
+    }
+
+    private static IntBuffer grow(final IntBuffer buffer)
+    {
+        final IntBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 8).asIntBuffer();
+        buffer.flip();
+        return newBuffer.put(buffer);
+    }
+
+    private static LongBuffer grow(final LongBuffer buffer)
+    {
+        final LongBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 16).asLongBuffer();
+        buffer.flip();
+        return newBuffer.put(buffer);
+    }
+
+    @Override
+    public long findPosition(final byte[] key, final int offset, final int length)
+    {
+        int low  = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int keyStart  = mKeyOffsets.get(mid);
+            final int keyLength = mKeyOffsets.get(mid + 1) - keyStart;
+            mKeyView.position(keyStart);
+            mKeyView.get(mScratch, 0, keyLength);
+
+            final int cmp = mComparator.compare(mScratch, 0, keyLength, key, offset, length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mPositions.get(mid);
+            }
+        }
+        return high < 0 ? -1 : mPositions.get(high);
+    }
+
+    @Override
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * @return total size of all off-heap buffers in bytes
+     */
+    public long getOffHeapSize()
+    {
+        return null == mKeys ? 0 : mKeys.capacity() + 4L * mKeyOffsets.capacity() + 8L * mPositions.capacity();
+    }
+
+    @Override
+    public void close()
+    {
+        // direct buffers are released once they become unreachable
+        mKeys       = null;
+        mKeyView    = null;
+        mKeyOffsets = null;
+        mPositions  = null;
+    }
+}
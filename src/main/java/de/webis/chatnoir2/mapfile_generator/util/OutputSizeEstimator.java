@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import de.webis.chatnoir2.mapfile_generator.warc.WarcRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Estimates the total (uncompressed) output size of a MapFile generation job by reading
+ * a sample of records from a sample of input files and extrapolating the ratio of output
+ * to input bytes to the whole input.
+ *
+ * @author Janek Bevendorff
+ */
+public class OutputSizeEstimator
+{
+    /**
+     * Configuration key for the number of input splits to sample.
+     */
+    public static final String SAMPLE_FILES_KEY = "mapfile.sample.files";
+
+    /**
+     * Configuration key for the maximum number of records to read per sampled split.
+     */
+    public static final String SAMPLE_RECORDS_KEY = "mapfile.sample.records";
+
+    /**
+     * Approximate JSON and URI entry overhead per generated document.
+     */
+    private static final int DOC_OVERHEAD_BYTES = 200;
+
+    private final int mSampleFiles;
+    private final int mSampleRecords;
+
+    private long mTotalInputBytes = 0;
+    private long mSampledInputBytes = 0;
+    private long mSampledOutputBytes = 0;
+    private long mSampledRecords = 0;
+    private int mSampledSplits = 0;
+
+    public OutputSizeEstimator(final Configuration conf)
+    {
+        mSampleFiles   = conf.getInt(SAMPLE_FILES_KEY, 10);
+        mSampleRecords = conf.getInt(SAMPLE_RECORDS_KEY, 1000);
+    }
+
+    /**
+     * Sample the input of the given job.
+     *
+     * @param job configured job (input paths must be set)
+     * @param inputFormatClass job input format
+     * @return estimated total output bytes
+     */
+    @SuppressWarnings("unchecked")
+    public long estimate(final Job job, final Class<? extends InputFormat> inputFormatClass)
+            throws IOException, InterruptedException
+    {
+        final Configuration conf = job.getConfiguration();
+        final InputFormat<LongWritable, WarcRecord> inputFormat = ReflectionUtils.newInstance(inputFormatClass, conf);
+        final List<InputSplit> splits = new ArrayList<>(inputFormat.getSplits(job));
+        if (splits.isEmpty()) {
+            return 0;
+        }
+
+        // sort splits for deterministic sampling
+        splits.sort(Comparator.comparing(Object::toString));
+        for (final InputSplit split : splits) {
+            mTotalInputBytes += split.getLength();
+        }
+
+        final int numSamples = Math.min(mSampleFiles, splits.size());
+        for (int i = 0; i < numSamples; ++i) {
+            sampleSplit(inputFormat, splits.get((int) ((long) i * splits.size() / numSamples)), conf);
+        }
+
+        return getEstimatedOutputBytes();
+    }
+
+    /**
+     * Read up to the configured number of records from a single split.
+     */
+    private void sampleSplit(final InputFormat<LongWritable, WarcRecord> inputFormat, final InputSplit split,
+                             final Configuration conf) throws IOException, InterruptedException
+    {
+        final TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        final RecordReader<LongWritable, WarcRecord> reader = inputFormat.createRecordReader(split, context);
+        try {
+            reader.initialize(split, context);
+            int records = 0;
+            boolean exhausted = true;
+            while (reader.nextKeyValue()) {
+                final WarcRecord record = reader.getCurrentValue();
+                if (record.getRecordType().equals("response") || record.getRecordType().equals("request")) {
+                    final byte[] content = record.getByteContent();
+                    mSampledOutputBytes += DOC_OVERHEAD_BYTES + record.getHeader().toString().length() +
+                            (null != content ? content.length : 0);
+                }
+                ++mSampledRecords;
+                if (++records >= mSampleRecords) {
+                    exhausted = false;
+                    break;
+                }
+            }
+
+            final long length = split.getLength();
+            mSampledInputBytes += exhausted ? length : Math.max(1, (long) (reader.getProgress() * length));
+            ++mSampledSplits;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return estimated total output bytes
+     */
+    public long getEstimatedOutputBytes()
+    {
+        if (0 == mSampledInputBytes) {
+            return 0;
+        }
+        return (long) (mTotalInputBytes * (mSampledOutputBytes / (double) mSampledInputBytes));
+    }
+
+    /**
+     * @return total input bytes
+     */
+    public long getTotalInputBytes()
+    {
+        return mTotalInputBytes;
+    }
+
+    /**
+     * @return number of sampled records
+     */
+    public long getSampledRecords()
+    {
+        return mSampledRecords;
+    }
+
+    /**
+     * @return number of sampled input splits
+     */
+    public int getSampledSplits()
+    {
+        return mSampledSplits;
+    }
+
+    /**
+     * @return ratio of output bytes to input bytes in the sample
+     */
+    public double getExpansionRatio()
+    {
+        return 0 == mSampledInputBytes ? 0.0 : mSampledOutputBytes / (double) mSampledInputBytes;
+    }
+
+    /**
+     * Determine number of reducers needed to achieve the given target partition size.
+     *
+     * @param targetPartitionBytes target uncompressed partition size
+     * @param maxReducers upper bound for the number of reducers
+     * @return number of reducers
+     */
+    public int getReducerCount(final long targetPartitionBytes, final int maxReducers)
+    {
+        final long reducers = (getEstimatedOutputBytes() + targetPartitionBytes - 1) / targetPartitionBytes;
+        return (int) Math.max(1, Math.min(maxReducers, reducers));
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Lookup reader for a base MapFile directory and its incremental deltas.
+ * Keys are looked up in all deltas from newest to oldest and then in the base,
+ * the first match wins. Partition MapFiles are opened lazily and kept open until
+ * the reader is closed. Bloom filters are consulted if present.
+ *
+ * Block-compressed MapFiles are read with {@link CachingMapFileReader}s which share the
+ * process-wide {@link BlockCache}, so repeated lookups in the same block don't decompress it again.
+ * If {@link #MMAP_KEY} is set, uncompressed and record-compressed MapFiles on the local file system
+ * are memory-mapped with {@link MappedMapFileReader}s.
+ *
+ * @author Janek Bevendorff
+ */
+public class OverlayMapFileReader implements Closeable
+{
+    /**
+     * Configuration key for memory-mapping local MapFiles which are not block-compressed.
+     */
+    public static final String MMAP_KEY = "mapfile.reader.mmap";
+
+    private final Configuration mConf;
+    private final FileSystem mFs;
+    private final List<Path> mLayers = new ArrayList<>();
+    private final int mNumPartitions;
+    private final Map<Path, MapFileLookupReader> mReaders = new HashMap<>();
+    private final BlockCache mBlockCache;
+    private final boolean mMapLocalFiles;
+
+    private Path mLastMatch = null;
+    private int mLastBloomNegatives = 0;
+    private int mLastBloomFalsePositives = 0;
+    private int mLastProbedLayers = 0;
+
+    private long mLookups = 0;
+    private long mProbes = 0;
+    private long mBloomNegatives = 0;
+    private long mBloomFalsePositives = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param base base MapFile directory
+     * @param numPartitions number of partitions (read from the partition manifest if &lt;= 0)
+     * @param conf Hadoop configuration
+     * @throws IOException if the number of partitions is not given and the base has no manifest
+     */
+    public OverlayMapFileReader(final Path base, final int numPartitions, final Configuration conf) throws IOException
+    {
+        mConf = conf;
+        mFs = base.getFileSystem(conf);
+        mBlockCache = BlockCache.getSharedInstance(conf);
+        mMapLocalFiles = conf.getBoolean(MMAP_KEY, false) && "file".equals(mFs.getUri().getScheme());
+        mLayers.addAll(DeltaMapFiles.listDeltas(base, conf));
+        mLayers.add(base);
+
+        if (numPartitions > 0) {
+            mNumPartitions = numPartitions;
+        } else {
+            final PartitionManifest manifest = PartitionManifest.read(base, conf);
+            if (null == manifest) {
+                throw new IOException("No partition manifest found in " + base);
+            }
+            mNumPartitions = manifest.getNumPartitions();
+        }
+    }
+
+    /**
+     * Look up a key. The key is converted to the key format of each MapFile
+     * (Text or binary {@link UUIDWritable}), so layers may use different formats.
+     *
+     * @param name output name (e.g. "data" or "uri")
+     * @param keyStr key to look up
+     * @param value value instance to fill
+     * @return value or null if no layer contains the key
+     */
+    public Text get(final String name, final String keyStr, final Text value) throws IOException
+    {
+        final int partition = getPartition(keyStr);
+        final Text textKey = new Text(keyStr);
+        UUIDWritable uuidKey = null;
+        mLastMatch = null;
+        mLastBloomNegatives = 0;
+        mLastBloomFalsePositives = 0;
+        mLastProbedLayers = 0;
+        ++mLookups;
+
+        for (final Path layer : mLayers) {
+            final MapFileLookupReader reader = getReader(DeltaMapFiles.getPartitionPath(layer, name, partition));
+            if (null == reader) {
+                continue;
+            }
+            final WritableComparable key;
+            if (UUIDWritable.class.equals(reader.getKeyClass())) {
+                if (null == uuidKey) {
+                    try {
+                        uuidKey = new UUIDWritable(UUID.fromString(keyStr));
+                    } catch (IllegalArgumentException e) {
+                        continue;
+                    }
+                }
+                key = uuidKey;
+            } else {
+                key = textKey;
+            }
+
+            ++mLastProbedLayers;
+            ++mProbes;
+            if (!reader.probablyHasKey(key)) {
+                ++mLastBloomNegatives;
+                ++mBloomNegatives;
+                continue;
+            }
+            if (null != reader.get(key, value)) {
+                mLastMatch = DeltaMapFiles.getPartitionPath(layer, name, partition);
+                return value;
+            }
+            if (reader.hasBloomFilter()) {
+                ++mLastBloomFalsePositives;
+                ++mBloomFalsePositives;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visit all entries whose key starts with the given prefix. Keys are hash-partitioned, so
+     * every partition of every layer has to be searched. Entries are visited in key order within
+     * each MapFile, layer by layer (newest first) and partition by partition. Partition MapFiles
+     * opened for the scan are closed again afterwards.
+     *
+     * @param name output name (e.g. "host"), MapFiles must have {@link Text} keys
+     * @param prefix key prefix
+     * @param visitor entry visitor
+     * @throws IOException if a MapFile cannot be read or does not have Text keys
+     */
+    public void scanPrefix(final String name, final String prefix, final EntryVisitor visitor) throws IOException
+    {
+        final Text prefixKey = new Text(prefix);
+        final Text key = new Text();
+        for (final Path layer : mLayers) {
+            for (int partition = 0; partition < mNumPartitions; ++partition) {
+                final Path mapFile = DeltaMapFiles.getPartitionPath(layer, name, partition);
+                if (!mFs.exists(mapFile)) {
+                    continue;
+                }
+                try (MapFile.Reader reader = new MapFile.Reader(mapFile, mConf)) {
+                    if (!Text.class.equals(reader.getKeyClass())) {
+                        throw new IOException("Cannot scan " + mapFile + ", keys are not of type Text");
+                    }
+                    final Writable value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), mConf);
+                    final WritableComparable first = reader.getClosest(prefixKey, value);
+                    if (null == first) {
+                        continue;
+                    }
+                    key.set((Text) first);
+                    do {
+                        if (!key.toString().startsWith(prefix)) {
+                            break;
+                        }
+                        if (!visitor.visit(mapFile, key, value)) {
+                            return;
+                        }
+                    } while (reader.next(key, value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Visitor for entries found by {@link #scanPrefix(String, String, EntryVisitor)}.
+     */
+    public interface EntryVisitor
+    {
+        /**
+         * @param mapFile MapFile containing the entry
+         * @param key entry key
+         * @param value entry value
+         * @return false to stop the scan
+         */
+        boolean visit(Path mapFile, Text key, Writable value) throws IOException;
+    }
+
+    /**
+     * @param key MapFile key
+     * @return partition of the key
+     */
+    public int getPartition(final String key)
+    {
+        return DeltaMapFiles.getPartition(key, mNumPartitions);
+    }
+
+    /**
+     * @return number of partitions
+     */
+    public int getNumPartitions()
+    {
+        return mNumPartitions;
+    }
+
+    /**
+     * @return layer directories, newest first (base last)
+     */
+    public List<Path> getLayers()
+    {
+        return mLayers;
+    }
+
+    /**
+     * @return MapFile in which the last successful lookup found its key, null if the last lookup failed
+     */
+    public Path getLastMatch()
+    {
+        return mLastMatch;
+    }
+
+    /**
+     * @return number of MapFiles whose Bloom filter ruled out the key in the last lookup
+     */
+    public int getLastBloomNegatives()
+    {
+        return mLastBloomNegatives;
+    }
+
+    /**
+     * @return number of MapFiles whose Bloom filter did not rule out the key in the last lookup,
+     *         although they did not contain it
+     */
+    public int getLastBloomFalsePositives()
+    {
+        return mLastBloomFalsePositives;
+    }
+
+    /**
+     * @return number of existing MapFiles probed in the last lookup
+     */
+    public int getLastProbedLayers()
+    {
+        return mLastProbedLayers;
+    }
+
+    /**
+     * @return total number of lookups
+     */
+    public long getLookupCount()
+    {
+        return mLookups;
+    }
+
+    /**
+     * @return total number of existing MapFiles probed by all lookups
+     */
+    public long getProbeCount()
+    {
+        return mProbes;
+    }
+
+    /**
+     * @return total number of MapFile probes answered negatively by a Bloom filter
+     */
+    public long getBloomNegativeCount()
+    {
+        return mBloomNegatives;
+    }
+
+    /**
+     * @return total number of MapFile probes which passed a Bloom filter, but did not find the key
+     */
+    public long getBloomFalsePositiveCount()
+    {
+        return mBloomFalsePositives;
+    }
+
+    /**
+     * @return block cache shared by the readers of block-compressed MapFiles
+     */
+    public BlockCache getBlockCache()
+    {
+        return mBlockCache;
+    }
+
+    /**
+     * Get (cached) reader for a partition MapFile.
+     *
+     * @return reader or null if the layer has no such MapFile
+     */
+    private MapFileLookupReader getReader(final Path mapFile) throws IOException
+    {
+        if (mReaders.containsKey(mapFile)) {
+            return mReaders.get(mapFile);
+        }
+        MapFileLookupReader reader = null;
+        if (mFs.exists(mapFile)) {
+            if (isBlockCompressed(mapFile)) {
+                reader = new CachingMapFileReader(mapFile, mConf, mBlockCache);
+            } else if (mMapLocalFiles) {
+                reader = new MappedMapFileReader(new File(mFs.makeQualified(mapFile).toUri()), mConf);
+            } else {
+                reader = new BloomMapFileLookupReader(new BloomMapFile.Reader(mapFile, mConf));
+            }
+        }
+        mReaders.put(mapFile, reader);
+        return reader;
+    }
+
+    private boolean isBlockCompressed(final Path mapFile) throws IOException
+    {
+        final Path dataFile = new Path(mapFile, MapFile.DATA_FILE_NAME);
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(mConf, SequenceFile.Reader.file(dataFile))) {
+            return reader.isBlockCompressed();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        for (final MapFileLookupReader reader : mReaders.values()) {
+            IOUtils.closeStream(reader);
+        }
+        mReaders.clear();
+    }
+
+    /**
+     * {@link MapFileLookupReader} for MapFiles which are not block-compressed.
+     */
+    private static class BloomMapFileLookupReader implements MapFileLookupReader
+    {
+        private final BloomMapFile.Reader mReader;
+
+        BloomMapFileLookupReader(final BloomMapFile.Reader reader)
+        {
+            mReader = reader;
+        }
+
+        @Override
+        public Class<? extends WritableComparable> getKeyClass()
+        {
+            return mReader.getKeyClass().asSubclass(WritableComparable.class);
+        }
+
+        @Override
+        public Class<? extends Writable> getValueClass()
+        {
+            return mReader.getValueClass().asSubclass(Writable.class);
+        }
+
+        @Override
+        public boolean hasBloomFilter()
+        {
+            return null != mReader.getBloomFilter();
+        }
+
+        @Override
+        public boolean probablyHasKey(final WritableComparable key) throws IOException
+        {
+            return mReader.probablyHasKey(key);
+        }
+
+        @Override
+        public Writable get(final WritableComparable key, final Writable value) throws IOException
+        {
+            return mReader.get(key, value);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            mReader.close();
+        }
+    }
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link BaseGzipMemberInputStream} which inflates several members concurrently.
+ *
+ * Member boundaries are only known once the previous member has been inflated, so the stream
+ * reads the compressed input ahead into a bounded window, scans it for gzip member headers and
+ * inflates a member from each candidate offset speculatively on a small worker pool. The reader
+ * then follows the chain of actual boundaries (each member ends where the next one starts) and
+ * takes the members in their original order. Candidates which turn out to lie inside another
+ * member are discarded. Inflated members are verified against their CRC32 and size trailers
+ * like in sequential mode.
+ *
+ * Members which inflate to more than the maximum member size or which extend beyond the
+ * read-ahead window are inflated by the reading thread without buffering instead. Memory usage
+ * is therefore bounded by the read-ahead window plus the number of pending members times the
+ * maximum member size. The compressed input is read sequentially by the reading thread only.
+ *
+ * @author Janek Bevendorff
+ */
+public class ParallelGzipMemberInputStream extends BaseGzipMemberInputStream
+{
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int INITIAL_MEMBER_BUFFER_SIZE = 65536;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * Marker for members which could not be inflated from the read-ahead window.
+     */
+    private static final Member INCOMPLETE = new Member(null, 0, -1);
+
+    private final InputStream mIn;
+    private final int mMaxMemberSize;
+    private final long mReadAhead;
+    private final int mMaxPending;
+    private final ExecutorService mExecutor;
+
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+    private long mLoadedEnd;
+    private boolean mInputEof = false;
+    private long mScanPos;
+    private final ArrayDeque<Candidate> mPending = new ArrayDeque<>();
+
+    private final byte[] mSingleByte = new byte[1];
+    private byte[] mData = null;
+    private int mDataPos = 0;
+    private int mDataLen = 0;
+    private GzipMemberInputStream mStreamingMember = null;
+
+    private long mMemberStart = -1;
+    private long mMemberIndex = -1;
+    private long mMemberEnd;
+    private boolean mInMember = false;
+    private boolean mEof = false;
+
+    private boolean mTimingEnabled = false;
+    private long mInflateNanos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param in raw compressed input stream
+     * @param startOffset file offset of the first byte in <code>in</code>
+     * @param numThreads number of inflater threads
+     * @param maxMemberSize maximum uncompressed size of members inflated by the worker threads
+     * @param readAhead maximum number of compressed bytes read ahead of the current member
+     */
+    public ParallelGzipMemberInputStream(final InputStream in, final long startOffset, final int numThreads,
+                                         final int maxMemberSize, final long readAhead)
+    {
+        mIn = in;
+        mLoadedEnd = startOffset;
+        mScanPos = startOffset;
+        mMemberEnd = startOffset;
+        mMaxMemberSize = maxMemberSize;
+        mReadAhead = Math.max(readAhead, 2 * CHUNK_SIZE);
+        mMaxPending = 2 * numThreads;
+        mExecutor = Executors.newFixedThreadPool(numThreads, r -> {
+            final Thread t = new Thread(r, "gzip-inflater-" + THREAD_COUNTER.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public long getMemberStart()
+    {
+        return mMemberStart;
+    }
+
+    @Override
+    public long getMemberIndex()
+    {
+        return mMemberIndex;
+    }
+
+    /**
+     * Members are inflated as a whole, so compressed bytes of the current member count
+     * as consumed only once all of its data has been read.
+     */
+    @Override
+    public long getCompressedPos()
+    {
+        return mInMember ? mMemberStart : mMemberEnd;
+    }
+
+    @Override
+    public boolean isEof()
+    {
+        return mEof;
+    }
+
+    /**
+     * Enable or disable measuring the time the reading thread spends inflating data itself
+     * or waiting for members to be inflated by the worker threads.
+     *
+     * @param enabled whether to measure inflation time
+     */
+    @Override
+    public void setTimingEnabled(final boolean enabled)
+    {
+        mTimingEnabled = enabled;
+    }
+
+    @Override
+    public long getInflateNanos()
+    {
+        return mInflateNanos;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return read(mSingleByte, 0, 1) == -1 ? -1 : mSingleByte[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (mInMember) {
+                final int n = readMember(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                mInMember = false;
+            }
+            if (!nextMember()) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return mEof ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        mExecutor.shutdownNow();
+        mPending.clear();
+        mChunks.clear();
+        if (null != mStreamingMember) {
+            mStreamingMember.close();
+        }
+        mIn.close();
+    }
+
+    /**
+     * Read from the current member.
+     *
+     * @return number of bytes read, -1 if the member has been consumed completely
+     */
+    private int readMember(final byte[] b, final int off, final int len) throws IOException
+    {
+        if (null != mStreamingMember) {
+            final long start = mTimingEnabled ? System.nanoTime() : 0;
+            final int n = mStreamingMember.read(b, off, len);
+            if (mTimingEnabled) {
+                mInflateNanos += System.nanoTime() - start;
+            }
+            if (n == -1) {
+                mMemberEnd = mStreamingMember.getCompressedPos();
+                mStreamingMember.close();
+                mStreamingMember = null;
+            }
+            return n;
+        }
+
+        if (mDataPos >= mDataLen) {
+            return -1;
+        }
+        final int n = Math.min(len, mDataLen - mDataPos);
+        System.arraycopy(mData, mDataPos, b, off, n);
+        mDataPos += n;
+        return n;
+    }
+
+    /**
+     * Start reading the next member, which begins where the previous one ended.
+     *
+     * @return false if there are no more members
+     */
+    private boolean nextMember() throws IOException
+    {
+        final long start = mMemberEnd;
+        discardChunks(start);
+        if (mEof || (start >= mLoadedEnd && !loadChunk())) {
+            mEof = true;
+            mExecutor.shutdown();
+            return false;
+        }
+
+        final long t = mTimingEnabled ? System.nanoTime() : 0;
+        final Member member = takeMember(start);
+        if (mTimingEnabled) {
+            mInflateNanos += System.nanoTime() - t;
+        }
+
+        mMemberStart = start;
+        ++mMemberIndex;
+        mInMember = true;
+        mDataPos = 0;
+        if (null == member || INCOMPLETE == member) {
+            // not inflated in advance, inflate on this thread without buffering
+            mStreamingMember = new GzipMemberInputStream(new WindowInputStream(start), start);
+            mStreamingMember.setSingleMember(true);
+            mData = null;
+            mDataLen = 0;
+        } else {
+            mData = member.mData;
+            mDataLen = member.mLength;
+            mMemberEnd = member.mEnd;
+        }
+        scheduleCandidates();
+        return true;
+    }
+
+    /**
+     * Get member starting at the given offset if it has been inflated by a worker thread.
+     *
+     * @return inflated member, null or {@link #INCOMPLETE} if it has to be inflated by the reading thread
+     */
+    private Member takeMember(final long start) throws IOException
+    {
+        // candidates before the start lie inside previous members
+        while (!mPending.isEmpty() && mPending.peekFirst().mOffset < start) {
+            mPending.pollFirst().mFuture.cancel(false);
+        }
+        if (mScanPos < start) {
+            mScanPos = start;
+        }
+        scheduleCandidates();
+
+        final Candidate candidate = mPending.peekFirst();
+        if (null == candidate || candidate.mOffset != start) {
+            return null;
+        }
+        mPending.pollFirst();
+        try {
+            return candidate.mFuture.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for gzip member at offset " + start);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Scan read-ahead window for member header candidates and submit them to the worker pool
+     * until the maximum number of pending members is reached. Candidates are only submitted
+     * once at least one more chunk has been read after them (or the input is exhausted).
+     */
+    private void scheduleCandidates() throws IOException
+    {
+        while (mPending.size() < mMaxPending && !mExecutor.isShutdown()) {
+            final long offset = nextCandidate();
+            if (-1 == offset) {
+                return;
+            }
+            while (!mInputEof && offset + CHUNK_SIZE > mLoadedEnd) {
+                if (!canReadAhead() || !loadChunk()) {
+                    break;
+                }
+            }
+            if (!mInputEof && offset + CHUNK_SIZE > mLoadedEnd) {
+                // retry when the window has moved
+                mScanPos = offset;
+                return;
+            }
+            final Chunk[] window = mChunks.toArray(new Chunk[0]);
+            final boolean complete = mInputEof;
+            mPending.addLast(new Candidate(offset, mExecutor.submit(() -> inflateMember(window, offset, complete))));
+        }
+    }
+
+    /**
+     * Find next offset at or after the scan position which looks like the start of a gzip member
+     * (ID1, ID2, deflate compression method and no reserved flags set).
+     *
+     * @return candidate offset, -1 if the end of the input or the read-ahead limit has been reached
+     */
+    private long nextCandidate() throws IOException
+    {
+        while (true) {
+            if (mScanPos + 4 > mLoadedEnd) {
+                if (!canReadAhead() || !loadChunk()) {
+                    return -1;
+                }
+                continue;
+            }
+
+            final Chunk chunk = getChunk(mScanPos);
+            final byte[] data = chunk.mData;
+            int i = (int) (mScanPos - chunk.mOffset);
+            for (final int end = chunk.mLength - 3; i < end; ++i) {
+                if (data[i] == (byte) 0x1f && data[i + 1] == (byte) 0x8b && data[i + 2] == 8 && (data[i + 3] & 0xe0) == 0) {
+                    mScanPos = chunk.mOffset + i + 1;
+                    return chunk.mOffset + i;
+                }
+            }
+            // headers spanning two chunks
+            for (; i < chunk.mLength && chunk.mOffset + i + 4 <= mLoadedEnd; ++i) {
+                final long offset = chunk.mOffset + i;
+                if (getByte(offset) == (byte) 0x1f && getByte(offset + 1) == (byte) 0x8b &&
+                        getByte(offset + 2) == 8 && (getByte(offset + 3) & 0xe0) == 0) {
+                    mScanPos = offset + 1;
+                    return offset;
+                }
+            }
+            mScanPos = chunk.mOffset + i;
+        }
+    }
+
+    private boolean canReadAhead()
+    {
+        return !mInputEof && mLoadedEnd - mMemberEnd < mReadAhead;
+    }
+
+    /**
+     * Read next chunk of compressed input into the window.
+     *
+     * @return false if there is no more input
+     */
+    private boolean loadChunk() throws IOException
+    {
+        if (mInputEof) {
+            return false;
+        }
+        final byte[] data = new byte[CHUNK_SIZE];
+        int len = 0;
+        int n;
+        while (len < data.length && (n = mIn.read(data, len, data.length - len)) != -1) {
+            len += n;
+        }
+        if (len < data.length) {
+            mInputEof = true;
+        }
+        if (0 == len) {
+            return false;
+        }
+        mChunks.addLast(new Chunk(mLoadedEnd, data, len));
+        mLoadedEnd += len;
+        return true;
+    }
+
+    /**
+     * Remove chunks which end before the given offset from the window.
+     */
+    private void discardChunks(final long offset)
+    {
+        while (!mChunks.isEmpty() && mChunks.peekFirst().mOffset + mChunks.peekFirst().mLength <= offset) {
+            mChunks.pollFirst();
+        }
+        if (!mChunks.isEmpty() && mScanPos < mChunks.peekFirst().mOffset) {
+            mScanPos = mChunks.peekFirst().mOffset;
+        }
+    }
+
+    private Chunk getChunk(final long offset)
+    {
+        for (final Chunk chunk : mChunks) {
+            if (offset < chunk.mOffset + chunk.mLength) {
+                return chunk;
+            }
+        }
+        throw new IllegalStateException("Offset " + offset + " is not in read-ahead window");
+    }
+
+    private byte getByte(final long offset)
+    {
+        final Chunk chunk = getChunk(offset);
+        return chunk.mData[(int) (offset - chunk.mOffset)];
+    }
+
+    /**
+     * Inflate and verify a single member from a snapshot of the read-ahead window (runs on a worker thread).
+     *
+     * @param window window chunks
+     * @param start member offset
+     * @param complete whether the window contains the end of the input
+     * @return inflated member, null if it is larger than the maximum member size,
+     *         {@link #INCOMPLETE} if it extends beyond the window
+     * @throws IOException if there is no valid gzip member at the given offset
+     */
+    private Member inflateMember(final Chunk[] window, final long start, final boolean complete) throws IOException
+    {
+        try (GzipMemberInputStream in = new GzipMemberInputStream(new ChunkInputStream(window, start), start)) {
+            in.setSingleMember(true);
+            byte[] buf = new byte[Math.min(INITIAL_MEMBER_BUFFER_SIZE, mMaxMemberSize + 1)];
+            int len = 0;
+            int n;
+            while ((n = in.read(buf, len, buf.length - len)) != -1) {
+                len += n;
+                if (len > mMaxMemberSize) {
+                    return null;
+                }
+                if (len == buf.length) {
+                    buf = Arrays.copyOf(buf, (int) Math.min(2L * buf.length, mMaxMemberSize + 1L));
+                }
+            }
+            return new Member(buf, len, in.getCompressedPos());
+        } catch (EOFException e) {
+            if (complete) {
+                throw e;
+            }
+            return INCOMPLETE;
+        }
+    }
+
+    /**
+     * Member candidate being inflated.
+     */
+    private static final class Candidate
+    {
+        private final long mOffset;
+        private final Future<Member> mFuture;
+
+        Candidate(final long offset, final Future<Member> future)
+        {
+            mOffset = offset;
+            mFuture = future;
+        }
+    }
+
+    /**
+     * Inflated member.
+     */
+    private static final class Member
+    {
+        private final byte[] mData;
+        private final int mLength;
+        private final long mEnd;
+
+        Member(final byte[] data, final int length, final long end)
+        {
+            mData = data;
+            mLength = length;
+            mEnd = end;
+        }
+    }
+
+    /**
+     * Chunk of compressed input. Chunks are immutable once they have been added to the window.
+     */
+    private static final class Chunk
+    {
+        private final long mOffset;
+        private final byte[] mData;
+        private final int mLength;
+
+        Chunk(final long offset, final byte[] data, final int length)
+        {
+            mOffset = offset;
+            mData = data;
+            mLength = length;
+        }
+    }
+
+    /**
+     * Input stream over a fixed set of chunks, starting at the given offset.
+     */
+    private static class ChunkInputStream extends InputStream
+    {
+        private final Chunk[] mChunks;
+        private int mChunk = 0;
+        protected long mPos;
+
+        ChunkInputStream(final Chunk[] chunks, final long start)
+        {
+            mChunks = chunks;
+            mPos = start;
+        }
+
+        /**
+         * @return chunk containing the current position, null if it is not available
+         */
+        protected Chunk currentChunk() throws IOException
+        {
+            while (mChunk < mChunks.length && mPos >= mChunks[mChunk].mOffset + mChunks[mChunk].mLength) {
+                ++mChunk;
+            }
+            return mChunk < mChunks.length ? mChunks[mChunk] : null;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            final Chunk chunk = currentChunk();
+            if (null == chunk) {
+                return -1;
+            }
+            final int chunkPos = (int) (mPos - chunk.mOffset);
+            final int n = Math.min(len, chunk.mLength - chunkPos);
+            System.arraycopy(chunk.mData, chunkPos, b, off, n);
+            mPos += n;
+            return n;
+        }
+    }
+
+    /**
+     * Input stream over the read-ahead window of this stream, which reads more input as needed
+     * and drops chunks behind its position (used on the reading thread only).
+     */
+    private class WindowInputStream extends InputStream
+    {
+        private long mPos;
+
+        WindowInputStream(final long start)
+        {
+            mPos = start;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            discardChunks(mPos);
+            if (mPos >= mLoadedEnd && !loadChunk()) {
+                return -1;
+            }
+            final Chunk chunk = getChunk(mPos);
+            final int chunkPos = (int) (mPos - chunk.mOffset);
+            final int n = Math.min(len, chunk.mLength - chunkPos);
+            System.arraycopy(chunk.mData, chunkPos, b, off, n);
+            mPos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Partition manifest stored alongside generated MapFiles, so that readers know
+ * the number of partitions without having to be told explicitly.
+ *
+ * @author Janek Bevendorff
+ */
+public class PartitionManifest
+{
+    /**
+     * Manifest file name (hidden from input formats by the leading underscore).
+     */
+    public static final String FILE_NAME = "_partitions";
+
+    private static final String PARTITIONS_KEY = "partitions";
+
+    private final Properties mProperties = new Properties();
+
+    /**
+     * @param numPartitions number of partitions
+     */
+    public PartitionManifest(final int numPartitions)
+    {
+        mProperties.setProperty(PARTITIONS_KEY, Integer.toString(numPartitions));
+    }
+
+    private PartitionManifest()
+    {
+    }
+
+    /**
+     * @return number of partitions
+     */
+    public int getNumPartitions()
+    {
+        return Integer.parseInt(mProperties.getProperty(PARTITIONS_KEY));
+    }
+
+    /**
+     * Add informational property.
+     */
+    public void setProperty(final String key, final Object value)
+    {
+        mProperties.setProperty(key, String.valueOf(value));
+    }
+
+    /**
+     * Get informational property.
+     */
+    public String getProperty(final String key)
+    {
+        return mProperties.getProperty(key);
+    }
+
+    /**
+     * Write manifest to the given MapFile output directory.
+     *
+     * @param outputDir MapFile output directory
+     * @param conf Hadoop configuration
+     */
+    public void write(final Path outputDir, final Configuration conf) throws IOException
+    {
+        final Path path = new Path(outputDir, FILE_NAME);
+        final FileSystem fs = path.getFileSystem(conf);
+        try (OutputStream out = fs.create(path, true)) {
+            mProperties.store(out, "MapFile partition manifest");
+        }
+    }
+
+    /**
+     * Read manifest from the given MapFile directory.
+     *
+     * @param dir MapFile directory
+     * @param conf Hadoop configuration
+     * @return manifest or null if the directory has no manifest
+     */
+    public static PartitionManifest read(final Path dir, final Configuration conf) throws IOException
+    {
+        final Path path = new Path(dir, FILE_NAME);
+        final FileSystem fs = path.getFileSystem(conf);
+        if (!fs.exists(path)) {
+            return null;
+        }
+
+        final PartitionManifest manifest = new PartitionManifest();
+        try (InputStream in = fs.open(path)) {
+            manifest.mProperties.load(in);
+        }
+        if (null == manifest.mProperties.getProperty(PARTITIONS_KEY)) {
+            throw new IOException("Invalid partition manifest " + path);
+        }
+        return manifest;
+    }
+}
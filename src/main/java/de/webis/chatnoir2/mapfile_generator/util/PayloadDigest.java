@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes WARC-style payload digests (<code>sha1:BASE32</code>) of record bodies.
+ *
+ * @author Janek Bevendorff
+ */
+public class PayloadDigest
+{
+    private static final char[] BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+
+    private final MessageDigest mDigest;
+
+    public PayloadDigest()
+    {
+        try {
+            mDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compute digest of the given payload in the same format as the <code>WARC-Payload-Digest</code> header.
+     *
+     * @param payload payload bytes
+     * @return digest string
+     */
+    public String digest(final byte[] payload)
+    {
+        mDigest.reset();
+        return "sha1:" + base32(mDigest.digest(payload));
+    }
+
+    /**
+     * Encode bytes as RFC 4648 Base32 without padding.
+     */
+    private static String base32(final byte[] bytes)
+    {
+        final StringBuilder sb = new StringBuilder((bytes.length * 8 + 4) / 5);
+        int buffer = 0;
+        int bits = 0;
+        for (final byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                sb.append(BASE32_ALPHABET[(buffer >> (bits - 5)) & 0x1f]);
+                bits -= 5;
+            }
+        }
+        if (bits > 0) {
+            sb.append(BASE32_ALPHABET[(buffer << (5 - bits)) & 0x1f]);
+        }
+        return sb.toString();
+    }
+}
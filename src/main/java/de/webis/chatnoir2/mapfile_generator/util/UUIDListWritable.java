@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Sorted list of distinct UUIDs, serialized as a VInt count followed by the 16-byte
+ * big-endian representation of each UUID (see {@link UUIDWritable}). UUIDs are sorted in
+ * the same order as {@link UUIDWritable} keys.
+ *
+ * @author Janek Bevendorff
+ */
+public class UUIDListWritable implements Writable
+{
+    /**
+     * Most and least significant bits of all UUIDs, interleaved.
+     */
+    private long[] mBits = new long[32];
+    private int mSize = 0;
+
+    /**
+     * @return number of UUIDs
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * Remove all UUIDs.
+     */
+    public void clear()
+    {
+        mSize = 0;
+    }
+
+    /**
+     * Append a UUID, which must not be smaller than the last UUID in the list.
+     * Duplicates of the last UUID are ignored.
+     *
+     * @param uuid UUID
+     * @return true if the UUID was added
+     * @throws IllegalArgumentException if the UUID is smaller than the last UUID
+     */
+    public boolean add(final UUID uuid)
+    {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        if (mSize > 0) {
+            final int cmp = compare(msb, lsb, mBits[2 * mSize - 2], mBits[2 * mSize - 1]);
+            if (0 == cmp) {
+                return false;
+            }
+            if (cmp < 0) {
+                throw new IllegalArgumentException("UUID " + uuid + " added out of order");
+            }
+        }
+        ensureCapacity(mSize + 1);
+        mBits[2 * mSize]     = msb;
+        mBits[2 * mSize + 1] = lsb;
+        ++mSize;
+        return true;
+    }
+
+    /**
+     * @param index list index
+     * @return UUID at the given position
+     */
+    public UUID get(final int index)
+    {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+        return new UUID(mBits[2 * index], mBits[2 * index + 1]);
+    }
+
+    /**
+     * Merge UUIDs of another list into this list, keeping it sorted and free of duplicates.
+     *
+     * @param other other list
+     */
+    public void merge(final UUIDListWritable other)
+    {
+        final long[] merged = new long[2 * (mSize + other.mSize)];
+        int i = 0, j = 0, n = 0;
+        while (i < mSize || j < other.mSize) {
+            final int cmp;
+            if (i == mSize) {
+                cmp = 1;
+            } else if (j == other.mSize) {
+                cmp = -1;
+            } else {
+                cmp = compare(mBits[2 * i], mBits[2 * i + 1], other.mBits[2 * j], other.mBits[2 * j + 1]);
+            }
+            if (cmp <= 0) {
+                merged[2 * n]     = mBits[2 * i];
+                merged[2 * n + 1] = mBits[2 * i + 1];
+                ++i;
+                if (0 == cmp) {
+                    ++j;
+                }
+            } else {
+                merged[2 * n]     = other.mBits[2 * j];
+                merged[2 * n + 1] = other.mBits[2 * j + 1];
+                ++j;
+            }
+            ++n;
+        }
+        mBits = merged;
+        mSize = n;
+    }
+
+    /**
+     * Replace the contents of this list with a copy of another list.
+     *
+     * @param other other list
+     */
+    public void set(final UUIDListWritable other)
+    {
+        ensureCapacity(other.mSize);
+        System.arraycopy(other.mBits, 0, mBits, 0, 2 * other.mSize);
+        mSize = other.mSize;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException
+    {
+        WritableUtils.writeVInt(out, mSize);
+        for (int i = 0; i < 2 * mSize; ++i) {
+            out.writeLong(mBits[i]);
+        }
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException
+    {
+        final int size = WritableUtils.readVInt(in);
+        if (size < 0) {
+            throw new IOException("Invalid UUID list size " + size);
+        }
+        mSize = 0;
+        ensureCapacity(size);
+        for (int i = 0; i < 2 * size; ++i) {
+            mBits[i] = in.readLong();
+        }
+        mSize = size;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder str = new StringBuilder(mSize * 37);
+        for (int i = 0; i < mSize; ++i) {
+            if (i > 0) {
+                str.append(',');
+            }
+            str.append(get(i));
+        }
+        return str.toString();
+    }
+
+    private void ensureCapacity(final int size)
+    {
+        if (2 * size > mBits.length) {
+            mBits = Arrays.copyOf(mBits, Math.max(2 * size, 2 * mBits.length));
+        }
+    }
+
+    private static int compare(final long msb1, final long lsb1, final long msb2, final long lsb2)
+    {
+        final int cmp = Long.compareUnsigned(msb1, msb2);
+        return 0 != cmp ? cmp : Long.compareUnsigned(lsb1, lsb2);
+    }
+}
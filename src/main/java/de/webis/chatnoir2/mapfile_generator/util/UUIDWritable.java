@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.util;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Fixed-width 16-byte binary UUID key. The serialized form is the big-endian
+ * representation of the UUID, so raw keys can be compared byte by byte. The sort
+ * order is identical to the lexicographic order of lower-case UUID strings, which
+ * allows converting sorted {@link org.apache.hadoop.io.Text} keys without re-sorting.
+ *
+ * MapFiles store the key class in their header, so readers can tell from
+ * {@link org.apache.hadoop.io.MapFile.Reader#getKeyClass()} which key format a file uses.
+ *
+ * @author Janek Bevendorff
+ */
+public class UUIDWritable implements WritableComparable<UUIDWritable>
+{
+    /**
+     * Configuration key for enabling binary keys in <code>data</code> MapFiles.
+     */
+    public static final String BINARY_KEYS_KEY = "mapfile.keys.binary";
+
+    /**
+     * Partition manifest property naming the key format of <code>data</code> MapFiles.
+     */
+    public static final String KEY_FORMAT_PROPERTY = "key.format";
+    public static final String KEY_FORMAT_TEXT     = "text";
+    public static final String KEY_FORMAT_BINARY   = "uuid16";
+
+    /**
+     * Serialized size in bytes.
+     */
+    public static final int SIZE = 16;
+
+    private long mMostSigBits;
+    private long mLeastSigBits;
+
+    static {
+        WritableComparator.define(UUIDWritable.class, new Comparator());
+    }
+
+    public UUIDWritable()
+    {
+    }
+
+    public UUIDWritable(final UUID uuid)
+    {
+        set(uuid);
+    }
+
+    /**
+     * Set UUID.
+     */
+    public void set(final UUID uuid)
+    {
+        mMostSigBits  = uuid.getMostSignificantBits();
+        mLeastSigBits = uuid.getLeastSignificantBits();
+    }
+
+    /**
+     * Set UUID from its string representation.
+     *
+     * @throws IllegalArgumentException if the string is not a valid UUID
+     */
+    public void set(final String uuid)
+    {
+        set(UUID.fromString(uuid));
+    }
+
+    /**
+     * @return UUID
+     */
+    public UUID get()
+    {
+        return new UUID(mMostSigBits, mLeastSigBits);
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException
+    {
+        out.writeLong(mMostSigBits);
+        out.writeLong(mLeastSigBits);
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException
+    {
+        mMostSigBits  = in.readLong();
+        mLeastSigBits = in.readLong();
+    }
+
+    @Override
+    public int compareTo(final UUIDWritable o)
+    {
+        final int cmp = Long.compareUnsigned(mMostSigBits, o.mMostSigBits);
+        return 0 != cmp ? cmp : Long.compareUnsigned(mLeastSigBits, o.mLeastSigBits);
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        if (!(o instanceof UUIDWritable)) {
+            return false;
+        }
+        final UUIDWritable other = (UUIDWritable) o;
+        return mMostSigBits == other.mMostSigBits && mLeastSigBits == other.mLeastSigBits;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(mMostSigBits) * 31 + Long.hashCode(mLeastSigBits);
+    }
+
+    @Override
+    public String toString()
+    {
+        return get().toString();
+    }
+
+    /**
+     * Raw comparator working directly on serialized keys.
+     */
+    public static class Comparator extends WritableComparator
+    {
+        public Comparator()
+        {
+            super(UUIDWritable.class);
+        }
+
+        @Override
+        public int compare(final byte[] b1, final int s1, final int l1, final byte[] b2, final int s2, final int l2)
+        {
+            return compareBytes(b1, s1, SIZE, b2, s2, SIZE);
+        }
+    }
+}
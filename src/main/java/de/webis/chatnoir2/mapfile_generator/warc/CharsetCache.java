@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.webis.chatnoir2.mapfile_generator.warc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of detected content charsets by host name.
+ *
+ * Pages of the same host almost always share a charset, so a charset detected for one record
+ * is tried first for the next record of the same host. A cached charset is only used if it
+ * decodes the new body without errors. Since single-byte charsets decode almost anything,
+ * they are additionally rejected if the decoded body contains C1 control characters or if
+ * the body is valid UTF-8. Not thread-safe.
+ *
+ * @author Janek Bevendorff
+ */
+public class CharsetCache
+{
+    private final Map<String, Entry> mEntries;
+    private final Map<Charset, CharsetDecoder> mDecoders = new HashMap<>();
+    private CharBuffer mCharBuffer = CharBuffer.allocate(0);
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mRejections = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize maximum number of hosts in the cache
+     */
+    public CharsetCache(final int maxSize)
+    {
+        mEntries = new LinkedHashMap<String, Entry>(maxSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get cached charset of a host if it is valid for the given content.
+     *
+     * @param host host name
+     * @param content raw body content
+     * @return charset name, null if no charset is cached for this host or if the cached charset is not valid
+     */
+    public String get(final String host, final byte[] content)
+    {
+        final Entry entry = mEntries.get(host);
+        if (null == entry) {
+            ++mMisses;
+            return null;
+        }
+
+        if (!decode(entry.mCharset, content) ||
+                (entry.mSingleByte && (containsC1Controls() || decode(StandardCharsets.UTF_8, content)))) {
+            ++mRejections;
+            return null;
+        }
+        ++mHits;
+        return entry.mName;
+    }
+
+    /**
+     * Cache detected charset of a host. Charsets unknown to the JVM are ignored.
+     *
+     * @param host host name
+     * @param charsetName detected charset name
+     */
+    public void put(final String host, final String charsetName)
+    {
+        final Charset charset;
+        final boolean singleByte;
+        try {
+            charset = Charset.forName(charsetName);
+            singleByte = charset.newEncoder().maxBytesPerChar() <= 1.0f;
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            return;
+        }
+        mEntries.put(host, new Entry(charsetName, charset, singleByte));
+    }
+
+    /**
+     * @return number of lookups which returned a valid cached charset
+     */
+    public long getHits()
+    {
+        return mHits;
+    }
+
+    /**
+     * @return number of lookups for hosts without cached charset
+     */
+    public long getMisses()
+    {
+        return mMisses;
+    }
+
+    /**
+     * @return number of lookups whose cached charset was not valid for the content
+     */
+    public long getRejections()
+    {
+        return mRejections;
+    }
+
+    /**
+     * Decode content strictly into the char buffer.
+     *
+     * @return true if content was decoded without errors
+     */
+    private boolean decode(final Charset charset, final byte[] content)
+    {
+        final CharsetDecoder decoder = mDecoders.computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT));
+        final int capacity = (int) Math.min(Integer.MAX_VALUE,
+                (long) Math.ceil(decoder.maxCharsPerByte()) * content.length + 1);
+        if (mCharBuffer.capacity() < capacity) {
+            mCharBuffer = CharBuffer.allocate(capacity);
+        }
+        mCharBuffer.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(ByteBuffer.wrap(content), mCharBuffer, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(mCharBuffer);
+        }
+        mCharBuffer.flip();
+        return result.isUnderflow();
+    }
+
+    /**
+     * @return true if the last decoded content contains C1 control characters
+     */
+    private boolean containsC1Controls()
+    {
+        for (int i = 0; i < mCharBuffer.limit(); ++i) {
+            final char c = mCharBuffer.get(i);
+            if (c >= '\u0080' && c <= '\u009f') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry
+    {
+        private final String mName;
+        private final Charset mCharset;
+        private final boolean mSingleByte;
+
+        Entry(final String name, final Charset charset, final boolean singleByte)
+        {
+            mName = name;
+            mCharset = charset;
+            mSingleByte = singleByte;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015-2018 Janek Bevendorff, Webis Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.webis.chatnoir2.mapfile_generator.warc;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Compact container for a block of "Name: Value" header lines.
+ * Keeps the raw header bytes and an offset table of the (trimmed) names and values,
+ * which is built in a single scan. Names and values are decoded only when accessed.
+ * Lookups are case-insensitive and work directly on the raw bytes.
+ *
+ * Semantics match a case-insensitive {@link TreeMap} filled line by line: lines with
+ * an empty name are skipped, lines without a colon get an empty value, and later
+ * duplicates replace the values of earlier fields.
+ *
+ * @author Janek Bevendorff
+ */
+final class HeaderFields
+{
+    /**
+     * Offset table entries per field: name start, name end, value start, value end.
+     */
+    private static final int STRIDE = 4;
+
+    private final byte[] mRaw;
+    private final Charset mCharset;
+    private final String mStatusName;
+    private int[] mOffsets = new int[8 * STRIDE];
+    private int mSize = 0;
+
+    /**
+     * @param raw raw header bytes (lines separated by LF or CRLF), not copied
+     * @param length number of valid bytes in <code>raw</code>
+     * @param charset charset for decoding names and values
+     * @param statusName if not null, a line without colon starting with "HTTP/1." is stored
+     *                   as value of a field with this name (used for HTTP status lines)
+     */
+    HeaderFields(final byte[] raw, final int length, final Charset charset, final String statusName)
+    {
+        mRaw        = raw;
+        mCharset    = charset;
+        mStatusName = statusName;
+
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            int colon = -1;
+            while (lineEnd < length && mRaw[lineEnd] != '\n') {
+                if (-1 == colon && mRaw[lineEnd] == ':') {
+                    colon = lineEnd;
+                }
+                ++lineEnd;
+            }
+            addLine(lineStart, lineEnd, colon);
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Add one header line to the offset table.
+     */
+    private void addLine(final int start, final int end, final int colon)
+    {
+        final int nameEnd = trimEnd(start, -1 != colon ? colon : end);
+        final int nameStart = trimStart(start, nameEnd);
+        if (nameStart == nameEnd) {
+            return;
+        }
+
+        int valueStart = end;
+        int valueEnd = end;
+        if (-1 != colon) {
+            valueEnd = trimEnd(colon + 1, end);
+            valueStart = trimStart(colon + 1, valueEnd);
+        }
+
+        if (-1 == colon && null != mStatusName && startsWith(nameStart, nameEnd, "HTTP/1.")) {
+            setField(indexOf(mStatusName), -1, -1, nameStart, nameEnd);
+            return;
+        }
+
+        int index = -1;
+        for (int i = 0; i < mSize; ++i) {
+            if (rawNameEquals(i, nameStart, nameEnd)) {
+                index = i;
+                break;
+            }
+        }
+        if (-1 != index) {
+            // keep name of first occurrence, replace value
+            setField(index, mOffsets[index * STRIDE], mOffsets[index * STRIDE + 1], valueStart, valueEnd);
+        } else {
+            setField(-1, nameStart, nameEnd, valueStart, valueEnd);
+        }
+    }
+
+    /**
+     * Set offsets of field at <code>index</code> or append a new field if index is -1.
+     */
+    private void setField(int index, final int nameStart, final int nameEnd, final int valueStart, final int valueEnd)
+    {
+        if (-1 == index) {
+            if ((mSize + 1) * STRIDE > mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mOffsets.length * 2);
+            }
+            index = mSize++;
+        }
+        final int o = index * STRIDE;
+        mOffsets[o]     = nameStart;
+        mOffsets[o + 1] = nameEnd;
+        mOffsets[o + 2] = valueStart;
+        mOffsets[o + 3] = valueEnd;
+    }
+
+    private int trimStart(int start, final int end)
+    {
+        while (start < end && (mRaw[start] & 0xff) <= ' ') {
+            ++start;
+        }
+        return start;
+    }
+
+    private int trimEnd(final int start, int end)
+    {
+        while (end > start && (mRaw[end - 1] & 0xff) <= ' ') {
+            --end;
+        }
+        return end;
+    }
+
+    private boolean startsWith(final int start, final int end, final String prefix)
+    {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (mRaw[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare name of field <code>index</code> with another raw name.
+     */
+    private boolean rawNameEquals(final int index, final int start, final int end)
+    {
+        final int o = index * STRIDE;
+        if (-1 == mOffsets[o]) {
+            return mStatusName.equalsIgnoreCase(new String(mRaw, start, end - start, mCharset));
+        }
+        if (mOffsets[o + 1] - mOffsets[o] != end - start) {
+            return false;
+        }
+        for (int i = 0; i < end - start; ++i) {
+            final byte a = mRaw[mOffsets[o] + i];
+            final byte b = mRaw[start + i];
+            if (a < 0 || b < 0) {
+                return getName(index).equalsIgnoreCase(new String(mRaw, start, end - start, mCharset));
+            }
+            if (a != b && Character.toLowerCase((char) a) != Character.toLowerCase((char) b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare name of field <code>index</code> with a String (case-insensitive).
+     */
+    private boolean nameEquals(final int index, final String name)
+    {
+        final int o = index * STRIDE;
+        final int start = mOffsets[o];
+        if (-1 == start) {
+            return mStatusName.equalsIgnoreCase(name);
+        }
+        final int length = mOffsets[o + 1] - start;
+        if (length != name.length()) {
+            // lengths of non-ASCII names may differ in bytes and chars
+            return length > name.length() && !isAscii(start, length) && getName(index).equalsIgnoreCase(name);
+        }
+        for (int i = 0; i < length; ++i) {
+            final byte b = mRaw[start + i];
+            if (b < 0) {
+                return getName(index).equalsIgnoreCase(name);
+            }
+            final char c1 = (char) b;
+            final char c2 = name.charAt(i);
+            if (c1 != c2 && Character.toUpperCase(c1) != Character.toUpperCase(c2)
+                    && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAscii(final int start, final int length)
+    {
+        for (int i = start; i < start + length; ++i) {
+            if (mRaw[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of fields
+     */
+    int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * Find field by name (case-insensitive).
+     *
+     * @param name field name
+     * @return field index or -1 if no such field exists
+     */
+    int indexOf(final String name)
+    {
+        for (int i = 0; i < mSize; ++i) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return decoded name of field <code>index</code>
+     */
+    String getName(final int index)
+    {
+        final int o = index * STRIDE;
+        if (-1 == mOffsets[o]) {
+            return mStatusName;
+        }
+        return new String(mRaw, mOffsets[o], mOffsets[o + 1] - mOffsets[o], mCharset);
+    }
+
+    /**
+     * @return decoded value of field <code>index</code>
+     */
+    String getValue(final int index)
+    {
+        final int o = index * STRIDE;
+        return new String(mRaw, mOffsets[o + 2], mOffsets[o + 3] - mOffsets[o + 2], mCharset);
+    }
+
+    /**
+     * Get value of a field by name (case-insensitive).
+     *
+     * @param name field name
+     * @return decoded value or null if no such field exists
+     */
+    String get(final String name)
+    {
+        final int index = indexOf(name);
+        return -1 != index ? getValue(index) : null;
+    }
+
+    /**
+     * Decode all fields into a new case-insensitive TreeMap.
+     *
+     * @return map of all fields
+     */
+    TreeMap<String, String> toMap()
+    {
+        final TreeMap<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < mSize; ++i) {
+            map.put(getName(i), getValue(i));
+        }
+        return map;
+    }
+}
@@ -16,17 +16,24 @@
 
 package de.webis.chatnoir2.mapfile_generator.warc;
 
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * WARC header class.
  *
+ * Headers parsed from a WARC file keep their raw bytes and decode fields only on access.
+ * A case-insensitive map of all fields is built once the full map view is requested
+ * or the header is modified.
+ *
  * @author Janek Bevendorff
  */
 public class WarcHeader implements Writable
@@ -46,9 +53,55 @@ public class WarcHeader implements Writable
 
     private static final String NEWLINE = "\r\n";
 
+    /**
+     * Serialization format version. Written with the high bit set as the first byte, which
+     * distinguishes it from the legacy format starting with a (non-negative) big-endian field count.
+     */
+    private static final int SERIALIZATION_VERSION = 1;
+    private static final int SERIALIZATION_VERSION_FLAG = 0x80;
+
+    /**
+     * Dictionary of common header names, serialized as their index + 1 (0 marks a literal name).
+     * Entries must never be removed or reordered, only appended.
+     */
+    private static final String[] NAME_DICTIONARY = {
+            "WARC-Type",
+            "WARC-Record-ID",
+            "WARC-Date",
+            "Content-Length",
+            "Content-Type",
+            "WARC-Target-URI",
+            "WARC-IP-Address",
+            "WARC-Warcinfo-ID",
+            "WARC-Concurrent-To",
+            "WARC-Block-Digest",
+            "WARC-Payload-Digest",
+            "WARC-Identified-Payload-Type",
+            "WARC-Truncated",
+            "WARC-Filename",
+            "WARC-Profile",
+            "WARC-Refers-To",
+            "WARC-Refers-To-Target-URI",
+            "WARC-Refers-To-Date",
+            "WARC-Segment-Number",
+            "WARC-Segment-Origin-ID",
+            "WARC-Segment-Total-Length",
+            "WARC-TREC-ID",
+            "WARC-Number-Of-Documents",
+            "WARC-File-Length",
+            "WARC-Data-Type"
+    };
+    private static final Map<String, Integer> NAME_IDS = new HashMap<>();
+    static {
+        for (int i = 0; i < NAME_DICTIONARY.length; ++i) {
+            NAME_IDS.put(NAME_DICTIONARY[i], i + 1);
+        }
+    }
+
     private final WarcVersion mVersion;
     private int mContentLength = 0;
-    private final TreeMap<String, String> mMetadata = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private HeaderFields mFields = null;
+    private TreeMap<String, String> mMetadata = null;
 
     public WarcHeader(final WarcVersion version)
     {
@@ -65,41 +118,107 @@ public class WarcHeader implements Writable
     {
         mVersion       = header.mVersion;
         mContentLength = header.mContentLength;
-        mMetadata.putAll(header.mMetadata);
+        mFields        = header.mFields;
+        if (null != header.mMetadata) {
+            mMetadata = new TreeMap<>(header.mMetadata);
+        }
+    }
+
+    /**
+     * Create header from raw header lines.
+     *
+     * @param version WARC version
+     * @param contentLength content length
+     * @param fields parsed raw header fields
+     */
+    WarcHeader(final WarcVersion version, final int contentLength, final HeaderFields fields)
+    {
+        this(version, contentLength);
+        mFields = fields;
     }
 
     /**
      * Serialization output.
+     * Header names found in the name dictionary are written as a single VInt, all other
+     * names and values as VInt-length-prefixed UTF-8 strings without size limit.
      *
      * @param out the data output stream
      * @throws java.io.IOException
      */
     @Override
     public void write(final DataOutput out) throws IOException {
-        out.writeInt(mMetadata.size());
-        for (Map.Entry<String, String> thisEntry : mMetadata.entrySet()) {
-            out.writeUTF(thisEntry.getKey());
-            out.writeUTF(thisEntry.getValue());
+        out.writeByte(SERIALIZATION_VERSION_FLAG | SERIALIZATION_VERSION);
+        if (null == mMetadata && null != mFields) {
+            WritableUtils.writeVInt(out, mFields.size());
+            for (int i = 0; i < mFields.size(); ++i) {
+                writeField(out, mFields.getName(i), mFields.getValue(i));
+            }
+        } else {
+            final TreeMap<String, String> metadata = getHeaderMetadata();
+            WritableUtils.writeVInt(out, metadata.size());
+            for (Map.Entry<String, String> thisEntry : metadata.entrySet()) {
+                writeField(out, thisEntry.getKey(), thisEntry.getValue());
+            }
+        }
+        WritableUtils.writeVInt(out, mContentLength);
+    }
+
+    private static void writeField(final DataOutput out, final String name, final String value) throws IOException
+    {
+        final Integer id = NAME_IDS.get(name);
+        if (null != id) {
+            WritableUtils.writeVInt(out, id);
+        } else {
+            WritableUtils.writeVInt(out, 0);
+            Text.writeString(out, name);
         }
-        out.writeInt(mContentLength);
+        Text.writeString(out, value);
     }
 
     /**
      * Serialization input.
+     * Reads the current format as well as the legacy format written by older versions.
      *
      * @param in the data input stream
      * @throws java.io.IOException
      */
     @Override
     public void readFields(final DataInput in) throws IOException {
-        mMetadata.clear();
-        int numMetaItems = in.readInt();
+        clearHeaderMetadata();
+        final TreeMap<String, String> metadata = getHeaderMetadata();
+
+        final int firstByte = in.readUnsignedByte();
+        if (0 == (firstByte & SERIALIZATION_VERSION_FLAG)) {
+            // legacy format: int field count followed by writeUTF() strings
+            final int numMetaItems = (firstByte << 24) | (in.readUnsignedByte() << 16) |
+                    (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+            for (int i = 0; i < numMetaItems; ++i) {
+                String thisKey   = in.readUTF();
+                String thisValue = in.readUTF();
+                metadata.put(thisKey, thisValue);
+            }
+            mContentLength = in.readInt();
+            return;
+        }
+
+        final int version = firstByte & ~SERIALIZATION_VERSION_FLAG;
+        if (version != SERIALIZATION_VERSION) {
+            throw new IOException("Unsupported WARC header serialization version " + version);
+        }
+        final int numMetaItems = WritableUtils.readVInt(in);
         for (int i = 0; i < numMetaItems; ++i) {
-            String thisKey   = in.readUTF();
-            String thisValue = in.readUTF();
-            mMetadata.put(thisKey, thisValue);
+            final int id = WritableUtils.readVInt(in);
+            final String thisKey;
+            if (0 == id) {
+                thisKey = Text.readString(in);
+            } else if (id <= NAME_DICTIONARY.length) {
+                thisKey = NAME_DICTIONARY[id - 1];
+            } else {
+                throw new IOException("Invalid WARC header name ID " + id);
+            }
+            metadata.put(thisKey, Text.readString(in));
         }
-        mContentLength = in.readInt();
+        mContentLength = WritableUtils.readVInt(in);
     }
 
     /**
@@ -130,7 +249,7 @@ public class WarcHeader implements Writable
      */
     public void addHeaderMetadata(final String key, final String value)
     {
-        mMetadata.put(key, value);
+        getHeaderMetadata().put(key, value);
     }
 
     /**
@@ -138,16 +257,23 @@ public class WarcHeader implements Writable
      */
     public void clearHeaderMetadata()
     {
-        mMetadata.clear();
+        mFields = null;
+        if (null != mMetadata) {
+            mMetadata.clear();
+        }
     }
 
     /**
      * Get WARC headers as case-insensitive TreeMap.
+     * The map is decoded from the raw header on first access. Changes to it are reflected in this header.
      *
      * @return Headers as Key-&gt;Value TreeMap
      */
     public TreeMap<String, String> getHeaderMetadata()
     {
+        if (null == mMetadata) {
+            mMetadata = null != mFields ? mFields.toMap() : new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
         return mMetadata;
     }
 
@@ -158,7 +284,10 @@ public class WarcHeader implements Writable
      * @return header value
      */
     public String getHeaderMetadataItem(final String key) {
-        return mMetadata.get(key);
+        if (null != mMetadata) {
+            return mMetadata.get(key);
+        }
+        return null != mFields ? mFields.get(key) : null;
     }
 
     /**
@@ -175,7 +304,7 @@ public class WarcHeader implements Writable
     public String toString() {
         final StringBuilder retBuffer = new StringBuilder();
         retBuffer.append(mVersion).append(NEWLINE);
-        for (Map.Entry<String, String> thisEntry : mMetadata.entrySet()) {
+        for (Map.Entry<String, String> thisEntry : getHeaderMetadata().entrySet()) {
             retBuffer.append(thisEntry.getKey()).
                     append(": ").
                     append(thisEntry.getValue()).
@@ -16,12 +16,14 @@
 
 package de.webis.chatnoir2.mapfile_generator.warc;
 
+import de.webis.chatnoir2.mapfile_generator.util.HostIndex;
 import org.apache.hadoop.io.Writable;
 import org.apache.xerces.impl.dv.util.Base64;
 import org.mozilla.universalchardet.UniversalDetector;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.TreeMap;
 import java.util.UUID;
 
@@ -34,9 +36,15 @@ public class WarcRecord implements Writable
 {
     private static final String NEWLINE = "\r\n";
 
+    /**
+     * Name under which the HTTP status line is available as a content header.
+     */
+    public static final String HTTP_STATUS_HEADER = "__HTTP_STATUS__";
+
     private final WarcHeader mWarcHeader;
     private byte[] mBodyHeaders = null;
     private byte[] mBodyContent = null;
+    private HeaderFields mHttpHeaders = null;
     private TreeMap<String, String> mHttpHeaderCache = null;
 
     /**
@@ -44,6 +52,12 @@ public class WarcRecord implements Writable
      */
     private String mRecordIdField = "WARC-Record-ID";
 
+    /**
+     * Position and length of this record in its (possibly compressed) source file.
+     */
+    private long mSourceOffset = -1;
+    private long mSourceLength = -1;
+
     protected WarcRecord(final WarcHeader header)
     {
         if (null == header)
@@ -53,102 +67,138 @@ public class WarcRecord implements Writable
     }
 
     /**
-     * Our read line implementation. We cannot allow buffering here (for gzip
-     * streams) so, we need to use DataInputStream. Also - we need to account
-     * for java's UTF-8 implementation
-     * This method is based on the implementation in ClueWeb Tools &lt;https://github.com/lintool/clueweb&gt;.
+     * Create record from a WARC header and its content block (including HTTP headers).
      *
-     * @param in the input data stream
-     * @return the read line (or null if eof)
-     * @throws java.io.IOException
+     * @param header WARC header
+     * @param content record content block
      */
-    private static String readLineFromInputStream(final DataInputStream in) throws IOException
+    public WarcRecord(final WarcHeader header, final byte[] content)
     {
-        final byte MASK_THREE_BYTE_CHAR  = (byte) (0xE0);
-        final byte MASK_TWO_BYTE_CHAR    = (byte) (0xC0);
-        final byte MASK_TOPMOST_BIT      = (byte) (0x80);
-        final byte MASK_BOTTOM_SIX_BITS  = (byte) (0x1F);
-        final byte MASK_BOTTOM_FIVE_BITS = (byte) (0x3F);
-        final byte MASK_BOTTOM_FOUR_BITS = (byte) (0x0F);
-
-        final StringBuilder retString = new StringBuilder();
-        boolean keepReading = true;
-        try {
-            do {
-                char thisChar;
-                byte readByte = in.readByte();
-                // check to see if it's a multibyte character
-                if ((readByte & MASK_THREE_BYTE_CHAR) == MASK_THREE_BYTE_CHAR) {
-                    // need to read the next 2 bytes
-                    if (in.available() < 2) {
-                        // treat these all as individual characters
-                        retString.append((char) readByte);
-                        int numAvailable = in.available();
-                        for (int i = 0; i < numAvailable; i++) {
-                            retString.append((char) (in.readByte()));
-                        }
-                        continue;
-                    }
-                    byte secondByte = in.readByte();
-                    byte thirdByte = in.readByte();
-                    // ensure the topmost bit is set
-                    if (((secondByte & MASK_TOPMOST_BIT) != MASK_TOPMOST_BIT)
-                            || ((thirdByte & MASK_TOPMOST_BIT) != MASK_TOPMOST_BIT)) {
-                        // treat these as individual characters
-                        retString.append((char) readByte);
-                        retString.append((char) secondByte);
-                        retString.append((char) thirdByte);
-                        continue;
-                    }
-                    int finalVal = (thirdByte & MASK_BOTTOM_FIVE_BITS) + 64
-                            * (secondByte & MASK_BOTTOM_FIVE_BITS) + 4096
-                            * (readByte & MASK_BOTTOM_FOUR_BITS);
-                    thisChar = (char) finalVal;
-                } else if ((readByte & MASK_TWO_BYTE_CHAR) == MASK_TWO_BYTE_CHAR) {
-                    // need to read next byte
-                    if (in.available() < 1) {
-                        // treat this as individual characters
-                        retString.append((char) readByte);
-                        continue;
-                    }
-                    byte secondByte = in.readByte();
-                    if ((secondByte & MASK_TOPMOST_BIT) != MASK_TOPMOST_BIT) {
-                        retString.append((char) readByte);
-                        retString.append((char) secondByte);
-                        continue;
-                    }
-                    int finalVal = (secondByte & MASK_BOTTOM_FIVE_BITS) + 64
-                            * (readByte & MASK_BOTTOM_SIX_BITS);
-                    thisChar = (char) finalVal;
-                } else {
-                    // interpret it as a single byte
-                    thisChar = (char) readByte;
+        this(header);
+        setContent(content);
+    }
+
+    /**
+     * Growable byte buffer for reading raw header lines.
+     */
+    private static final class HeaderLineBuffer
+    {
+        private byte[] mBytes = new byte[2048];
+        private int mLength = 0;
+
+        /**
+         * Append the next line (without its terminating LF) to the buffer. We cannot allow
+         * buffering here (for gzip streams), so the stream is read byte by byte.
+         *
+         * @param in the input data stream
+         * @return start offset of the line in the buffer or -1 on EOF
+         * @throws java.io.IOException
+         */
+        int readLine(final DataInputStream in) throws IOException
+        {
+            final int start = mLength;
+            try {
+                byte b;
+                while ((b = in.readByte()) != '\n') {
+                    append(b);
                 }
-                if (thisChar == '\n') {
-                    keepReading = false;
-                } else {
-                    retString.append(thisChar);
+            } catch (EOFException eofEx) {
+                mLength = start;
+                return -1;
+            }
+            return start;
+        }
+
+        void append(final byte b)
+        {
+            if (mLength == mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+            }
+            mBytes[mLength++] = b;
+        }
+
+        void truncate(final int length)
+        {
+            mLength = length;
+        }
+
+        /**
+         * @return whether the line starting at <code>start</code> consists only of whitespace
+         */
+        boolean isBlank(final int start)
+        {
+            for (int i = start; i < mLength; ++i) {
+                if ((mBytes[i] & 0xff) > ' ') {
+                    return false;
                 }
-            } while (keepReading);
-        } catch (EOFException eofEx) {
-            return null;
+            }
+            return true;
         }
-        if (retString.length() == 0) {
-            return "";
+
+        /**
+         * @return whether the line starting at <code>start</code> starts with the given ASCII prefix
+         */
+        boolean startsWith(final int start, final String prefix)
+        {
+            if (mLength - start < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); ++i) {
+                if (mBytes[start + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parse the line starting at <code>start</code> as Content-Length header.
+         *
+         * @return content length, -1 if the header value is invalid, -2 if this is no Content-Length header
+         */
+        int parseContentLength(final int start)
+        {
+            final String name = "content-length";
+            int pos = start;
+            while (pos < mLength && (mBytes[pos] & 0xff) <= ' ') {
+                ++pos;
+            }
+            if (mLength - pos < name.length()) {
+                return -2;
+            }
+            for (int i = 0; i < name.length(); ++i) {
+                if (Character.toLowerCase((char) mBytes[pos + i]) != name.charAt(i)) {
+                    return -2;
+                }
+            }
+            pos += name.length();
+            while (pos < mLength && mBytes[pos] != ':') {
+                if ((mBytes[pos] & 0xff) > ' ') {
+                    return -2;
+                }
+                ++pos;
+            }
+            if (pos == mLength) {
+                return -1;
+            }
+            try {
+                return Integer.parseInt(new String(mBytes, pos + 1, mLength - pos - 1, StandardCharsets.US_ASCII).trim());
+            } catch (NumberFormatException nfEx) {
+                return -1;
+            }
         }
-        return retString.toString();
     }
 
     /**
      * The actual heavy lifting of reading in the next WARC record.
      *
      * @param in           the data input stream
-     * @param headerBuffer a blank string buffer to contain the WARC header
+     * @param headerBuffer an empty buffer to contain the raw WARC header lines
      * @param warcVersion  WARC version
      * @return the content bytes (w/ the headerBuffer populated)
      * @throws java.io.IOException
      */
-    private static byte[] readNextRecord(final DataInputStream in, final StringBuilder headerBuffer,
+    private static byte[] readNextRecord(final DataInputStream in, final HeaderLineBuffer headerBuffer,
                                          final WarcHeader.WarcVersion warcVersion) throws IOException
     {
         if (in == null) {
@@ -157,15 +207,17 @@ public class WarcRecord implements Writable
         if (headerBuffer == null) {
             return null;
         }
-        String line;
+        int line;
         boolean foundMark = false;
         byte[] retContent;
 
         // find the next WARC header
-        while (!foundMark && ((line = readLineFromInputStream(in)) != null)) {
-            if (line.startsWith(warcVersion.toString())) {
+        final String mark = warcVersion.toString();
+        while (!foundMark && ((line = headerBuffer.readLine(in)) != -1)) {
+            if (headerBuffer.startsWith(line, mark)) {
                 foundMark = true;
             }
+            headerBuffer.truncate(line);
         }
         if (!foundMark) {
             return null;
@@ -173,8 +225,9 @@ public class WarcRecord implements Writable
 
         // read WARC header block
         int contentLength = -1;
-        while ((line = readLineFromInputStream(in)) != null) {
-            if (line.trim().length() == 0) {
+        while ((line = headerBuffer.readLine(in)) != -1) {
+            if (headerBuffer.isBlank(line)) {
+                headerBuffer.truncate(line);
                 if (contentLength < 0) {
                     // continue when we haven't found a Content-Length header yet,
                     // since we are probably dealing with not sufficiently sanitized WARC-Target-URI headers
@@ -183,20 +236,11 @@ public class WarcRecord implements Writable
                 // break once we reached the end of the header block
                 break;
             }
-            headerBuffer.append(line);
-            headerBuffer.append(NEWLINE);
-            String[] thisHeaderPieceParts = line.split(":", 2);
-            if (thisHeaderPieceParts[0].toLowerCase().trim().equals("content-length")) {
-                try {
-                    if (2 == thisHeaderPieceParts.length) {
-                        contentLength = Integer.parseInt(thisHeaderPieceParts[1].trim());
-                    } else {
-                        contentLength = -1;
-                    }
-                } catch (NumberFormatException nfEx) {
-                    contentLength = -1;
-                }
+            final int lineContentLength = headerBuffer.parseContentLength(line);
+            if (lineContentLength != -2) {
+                contentLength = lineContentLength;
             }
+            headerBuffer.append((byte) '\n');
         }
 
         if (contentLength < 0) {
@@ -241,31 +285,17 @@ public class WarcRecord implements Writable
      */
     public static WarcRecord readNextWarcRecord(final DataInputStream in, final WarcHeader.WarcVersion warcVersion) throws IOException
     {
-        final StringBuilder recordHeader = new StringBuilder();
+        final HeaderLineBuffer recordHeader = new HeaderLineBuffer();
         final byte[] recordContent = readNextRecord(in, recordHeader, warcVersion);
 
         if (recordContent == null) {
             return null;
         }
 
-        // extract out our header information
-        final String thisHeaderString = recordHeader.toString();
-        final String[] headerLines = thisHeaderString.split(NEWLINE);
-
-        final WarcRecord retRecord = new WarcRecord(new WarcHeader(warcVersion));
-        retRecord.mWarcHeader.setContentLength(recordContent.length);
-        for (final String headerLine : headerLines) {
-            final String[] pieces = headerLine.split(":", 2);
-            if (pieces[0].trim().isEmpty()) {
-                continue;
-            }
-            if (2 != pieces.length) {
-                retRecord.mWarcHeader.addHeaderMetadata(pieces[0].trim(), "");
-                continue;
-            }
-            retRecord.mWarcHeader.addHeaderMetadata(pieces[0].trim(), pieces[1].trim());
-        }
-
+        // keep raw header lines, fields are decoded on access
+        final HeaderFields fields = new HeaderFields(Arrays.copyOf(recordHeader.mBytes, recordHeader.mLength),
+                recordHeader.mLength, StandardCharsets.UTF_8, null);
+        final WarcRecord retRecord = new WarcRecord(new WarcHeader(warcVersion, recordContent.length, fields));
         retRecord.setContent(recordContent);
         return retRecord;
     }
@@ -296,6 +326,36 @@ public class WarcRecord implements Writable
         out.write(mBodyContent);
     }
 
+    /**
+     * Write record in WARC file format. The <code>Content-Length</code> field is set
+     * to the actual length of the content block.
+     *
+     * @param out output stream
+     * @throws IOException
+     */
+    public void writeWarc(final OutputStream out) throws IOException
+    {
+        final byte[] newline = NEWLINE.getBytes(StandardCharsets.US_ASCII);
+        int blockLength = null != mBodyContent ? mBodyContent.length : 0;
+        if (null != mBodyHeaders) {
+            blockLength += mBodyHeaders.length + newline.length;
+        }
+        mWarcHeader.setContentLength(blockLength);
+        mWarcHeader.addHeaderMetadata("Content-Length", Integer.toString(blockLength));
+
+        out.write(mWarcHeader.toString().getBytes(StandardCharsets.UTF_8));
+        out.write(newline);
+        if (null != mBodyHeaders) {
+            out.write(mBodyHeaders);
+            out.write(newline);
+        }
+        if (null != mBodyContent) {
+            out.write(mBodyContent);
+        }
+        out.write(newline);
+        out.write(newline);
+    }
+
     /**
      * Serialization input.
      *
@@ -336,6 +396,40 @@ public class WarcRecord implements Writable
         mRecordIdField = null != idField ? idField : "WARC-Record-ID";
     }
 
+    /**
+     * Get byte offset of this record in its source file.
+     * For compressed files, this is the offset of the compressed member the record starts in.
+     *
+     * @return offset, -1 if unknown
+     */
+    public long getSourceOffset()
+    {
+        return mSourceOffset;
+    }
+
+    /**
+     * Get number of bytes this record occupies in its source file.
+     * For compressed files, this is the length of the compressed member(s) holding only this record.
+     *
+     * @return length, -1 if unknown or the record cannot be addressed individually
+     */
+    public long getSourceLength()
+    {
+        return mSourceLength;
+    }
+
+    /**
+     * Set position of this record in its source file.
+     *
+     * @param offset byte offset, -1 if unknown
+     * @param length number of bytes, -1 if unknown
+     */
+    public void setSourcePosition(final long offset, final long length)
+    {
+        mSourceOffset = offset;
+        mSourceLength = length;
+    }
+
     /**
      * Get type of WARC record, i.e. the value of WARC-Type.
      * Allowed values according to the specification are 'warcinfo', 'response', 'resource',
@@ -355,7 +449,7 @@ public class WarcRecord implements Writable
      */
     public void setContent(final byte[] c)
     {
-        final String warcContentType = mWarcHeader.getHeaderMetadata().get("Content-Type");
+        final String warcContentType = mWarcHeader.getHeaderMetadataItem("Content-Type");
         if (null != warcContentType) {
             String[] parts = warcContentType.split(";");
             if (parts.length < 2 || !parts[0].trim().equals("application/http") || !parts[1].trim().equals("msgtype=response")) {
@@ -388,6 +482,7 @@ public class WarcRecord implements Writable
             mBodyContent = c;
         }
 
+        mHttpHeaders = null;
         mHttpHeaderCache = null;
         updateRecordContentLength();
     }
@@ -456,6 +551,33 @@ public class WarcRecord implements Writable
         return new String(mBodyHeaders, StandardCharsets.US_ASCII);
     }
 
+    /**
+     * Get raw content header fields, parsed on first access.
+     */
+    private HeaderFields getContentHeaderFields()
+    {
+        if (null == mHttpHeaders) {
+            final byte[] headers = null != mBodyHeaders ? mBodyHeaders : new byte[0];
+            mHttpHeaders = new HeaderFields(headers, headers.length, StandardCharsets.US_ASCII, HTTP_STATUS_HEADER);
+        }
+        return mHttpHeaders;
+    }
+
+    /**
+     * Get a single content header without decoding the other headers.
+     * The HTTP status line is available as {@link #HTTP_STATUS_HEADER}.
+     *
+     * @param name header name (case-insensitive)
+     * @return header value, null if not present
+     */
+    public String getContentHeader(final String name)
+    {
+        if (null != mHttpHeaderCache) {
+            return mHttpHeaderCache.get(name);
+        }
+        return getContentHeaderFields().get(name);
+    }
+
     /**
      * Get parsed content headers.
      *
@@ -464,29 +586,7 @@ public class WarcRecord implements Writable
     public TreeMap<String, String> getContentHeaders()
     {
         if (null == mHttpHeaderCache) {
-            mHttpHeaderCache           = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-            final String headerString  = getContentHeaderString();
-            final String[] headerLines = headerString.split("\\r?\\n");
-
-            for (final String headerLine : headerLines) {
-                String[] pieces = headerLine.split(":", 2);
-                if (pieces[0].trim().isEmpty()) {
-                    continue;
-                }
-
-                String key = pieces[0].trim();
-                String value = "";
-                if (2 != pieces.length) {
-                    if (key.startsWith("HTTP/1.")) {
-                        value = key;
-                        key = "__HTTP_STATUS__";
-                    }
-                } else {
-                    value = pieces[1].trim();
-                }
-
-                mHttpHeaderCache.put(key, value);
-            }
+            mHttpHeaderCache = getContentHeaderFields().toMap();
         }
 
         return mHttpHeaderCache;
@@ -498,6 +598,20 @@ public class WarcRecord implements Writable
      * @return Encoding String identifier (e.g. UTF-8, ISO-8859-1, ...), null if unknown/binary content
      */
     public String getContentEncoding()
+    {
+        return getContentEncoding(null);
+    }
+
+    /**
+     * Determine encoding of raw byte content.
+     * If no charset is declared in the <code>Content-Type</code> header, a valid charset cached for the
+     * host of the target URI is used instead of detecting the charset. Detected charsets are added to the cache.
+     * Bodies without any 8-bit bytes are always detected, which is cheap for them.
+     *
+     * @param cache per-host charset cache, may be null
+     * @return Encoding String identifier (e.g. UTF-8, ISO-8859-1, ...), null if unknown/binary content
+     */
+    public String getContentEncoding(final CharsetCache cache)
     {
         if (null == mBodyContent) {
             return null;
@@ -508,7 +622,7 @@ public class WarcRecord implements Writable
             return "US-ASCII";
         }
 
-        final String contentType = getContentHeaders().get("Content-Type");
+        final String contentType = getContentHeader("Content-Type");
         if (null != contentType) {
             final String[] parts = contentType.split(";");
             for (int i = 1; i < parts.length; ++i) {
@@ -519,6 +633,18 @@ public class WarcRecord implements Writable
             }
         }
 
+        String host = null;
+        if (null != cache && containsNonAsciiBytes(mBodyContent)) {
+            final String uri = mWarcHeader.getHeaderMetadataItem("WARC-Target-URI");
+            host = null != uri ? HostIndex.getHost(uri, false) : null;
+            if (null != host) {
+                final String cachedEncoding = cache.get(host, mBodyContent);
+                if (null != cachedEncoding) {
+                    return cachedEncoding;
+                }
+            }
+        }
+
         // if no charset header found, try to detect encoding heuristically
         UniversalDetector detector = new UniversalDetector(null);
         detector.handleData(mBodyContent, 0, mBodyContent.length);
@@ -526,6 +652,9 @@ public class WarcRecord implements Writable
         final String encoding = detector.getDetectedCharset();
         detector.reset();
         if (null != encoding) {
+            if (null != host) {
+                cache.put(host, encoding);
+            }
             return encoding;
         }
 
@@ -548,6 +677,16 @@ public class WarcRecord implements Writable
         return "ISO-8859-1";
     }
 
+    private static boolean containsNonAsciiBytes(final byte[] content)
+    {
+        for (final byte b : content) {
+            if (b < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Get WARC header.
      *